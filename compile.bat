@@ -32,6 +32,10 @@ echo Compiling server...
 javac -d build -cp "build;%CLASSPATH%" src\server\*.java
 if errorlevel 1 goto error
 
+echo Compiling client SDK...
+javac -d build -cp "build;%CLASSPATH%" src\client\sdk\*.java
+if errorlevel 1 goto error
+
 echo Compiling client...
 javac -d build -cp "build;%CLASSPATH%" src\client\*.java
 if errorlevel 1 goto error
@@ -37,6 +37,14 @@ if [ $? -ne 0 ]; then
     exit 1
 fi
 
+# Compile client SDK
+echo "Compiling client SDK..."
+javac -d build -cp build src/client/sdk/*.java
+if [ $? -ne 0 ]; then
+    echo "Failed to compile client SDK"
+    exit 1
+fi
+
 # Compile client
 echo "Compiling client..."
 javac -d build -cp build src/client/*.java
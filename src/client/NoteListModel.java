@@ -0,0 +1,216 @@
+package client;
+
+import common.models.Note;
+
+import javax.swing.*;
+import javax.swing.Timer;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * ListModel cho danh sách note, có index id -> vị trí để tra cứu O(1).
+ * Thay đổi từ thread mạng được gom lại và áp dụng trên EDT theo từng đợt, mỗi đợt chỉ phát một nhóm event.
+ */
+public class NoteListModel extends AbstractListModel<Note> {
+    private static final long serialVersionUID = 1L;
+
+    private final List<Note> notes = new ArrayList<>();
+    private final Map<String, Integer> indexById = new HashMap<>();
+
+    // Written from network threads, guarded by itself; a null value marks a removal
+    private final Map<String, Note> pending = new LinkedHashMap<>();
+    private boolean flushScheduled;
+    private final Timer flushTimer;
+    private Consumer<Set<String>> flushListener;
+    private boolean applying;
+
+    public NoteListModel(int flushDelayMs) {
+        this.flushTimer = new Timer(Math.max(0, flushDelayMs), e -> flush());
+        this.flushTimer.setRepeats(false);
+    }
+
+    /**
+     * Được gọi trên EDT sau mỗi đợt với tập id vừa thay đổi (vẫn trong trạng thái isApplying)
+     */
+    public void setFlushListener(Consumer<Set<String>> flushListener) {
+        this.flushListener = flushListener;
+    }
+
+    @Override
+    public int getSize() {
+        return notes.size();
+    }
+
+    @Override
+    public Note getElementAt(int index) {
+        return notes.get(index);
+    }
+
+    public int indexOf(String noteId) {
+        Integer index = indexById.get(noteId);
+        return index != null ? index : -1;
+    }
+
+    public boolean contains(String noteId) {
+        return indexById.containsKey(noteId);
+    }
+
+    /**
+     * Đang áp dụng một đợt thay đổi; selection event lúc này chỉ là do index bị dịch
+     */
+    public boolean isApplying() {
+        return applying;
+    }
+
+    /**
+     * Xếp hàng thêm/cập nhật note, an toàn khi gọi từ thread bất kỳ
+     */
+    public void enqueueUpsert(Note note) {
+        enqueue(note.getId(), note);
+    }
+
+    /**
+     * Xếp hàng xóa note, an toàn khi gọi từ thread bất kỳ
+     */
+    public void enqueueRemove(String noteId) {
+        enqueue(noteId, null);
+    }
+
+    /**
+     * Thêm/cập nhật ngay trên EDT (thao tác của chính người dùng)
+     */
+    public void upsert(Note note) {
+        enqueueUpsert(note);
+        flush();
+    }
+
+    /**
+     * Xóa ngay trên EDT
+     */
+    public void remove(String noteId) {
+        enqueueRemove(noteId);
+        flush();
+    }
+
+    /**
+     * Thay toàn bộ nội dung (full sync), bỏ các thay đổi đang chờ vì snapshot đã bao gồm chúng
+     */
+    public void replaceAll(Collection<Note> snapshot) {
+        synchronized (pending) {
+            pending.clear();
+        }
+        applying = true;
+        try {
+            int oldSize = notes.size();
+            notes.clear();
+            indexById.clear();
+            if (oldSize > 0) fireIntervalRemoved(this, 0, oldSize - 1);
+
+            for (Note note : snapshot) {
+                indexById.put(note.getId(), notes.size());
+                notes.add(note);
+            }
+            if (!notes.isEmpty()) fireIntervalAdded(this, 0, notes.size() - 1);
+        } finally {
+            applying = false;
+        }
+    }
+
+    private void enqueue(String noteId, Note note) {
+        boolean schedule;
+        synchronized (pending) {
+            pending.put(noteId, note);
+            schedule = !flushScheduled;
+            flushScheduled = true;
+        }
+        // Only the first change of a window schedules a flush; later ones ride along
+        if (schedule) {
+            if (SwingUtilities.isEventDispatchThread()) flushTimer.restart();
+            else SwingUtilities.invokeLater(flushTimer::restart);
+        }
+    }
+
+    /**
+     * Áp dụng các thay đổi đang chờ; phải chạy trên EDT
+     */
+    public void flush() {
+        Map<String, Note> batch;
+        synchronized (pending) {
+            flushScheduled = false;
+            if (pending.isEmpty()) return;
+            batch = new LinkedHashMap<>(pending);
+            pending.clear();
+        }
+        flushTimer.stop();
+
+        applying = true;
+        try {
+            apply(batch);
+            if (flushListener != null) flushListener.accept(batch.keySet());
+        } finally {
+            applying = false;
+        }
+    }
+
+    private void apply(Map<String, Note> batch) {
+        int oldSize = notes.size();
+        int firstChanged = Integer.MAX_VALUE;
+        int lastChanged = -1;
+        boolean removed = false;
+
+        for (Map.Entry<String, Note> change : batch.entrySet()) {
+            Integer index = indexById.get(change.getKey());
+            Note note = change.getValue();
+            if (note == null) {
+                if (index != null) {
+                    indexById.remove(change.getKey());
+                    notes.set(index, null);
+                    firstChanged = Math.min(firstChanged, index);
+                    removed = true;
+                }
+            } else if (index != null) {
+                notes.set(index, note);
+                firstChanged = Math.min(firstChanged, index);
+                lastChanged = Math.max(lastChanged, index);
+            } else {
+                indexById.put(note.getId(), notes.size());
+                notes.add(note);
+            }
+        }
+
+        if (removed) {
+            compact(firstChanged);
+            // Everything after the first hole shifted
+            lastChanged = notes.size() - 1;
+        }
+        fireBatchEvents(oldSize, firstChanged, lastChanged);
+    }
+
+    /**
+     * Dồn các ô đã xóa trong một lượt, giữ nguyên thứ tự và cập nhật lại index từ vị trí from
+     */
+    private void compact(int from) {
+        int write = from;
+        for (int read = from; read < notes.size(); read++) {
+            Note note = notes.get(read);
+            if (note == null) continue;
+            notes.set(write, note);
+            indexById.put(note.getId(), write);
+            write++;
+        }
+        notes.subList(write, notes.size()).clear();
+    }
+
+    private void fireBatchEvents(int oldSize, int firstChanged, int lastChanged) {
+        int newSize = notes.size();
+        int changedEnd = Math.min(lastChanged, Math.min(oldSize, newSize) - 1);
+        if (firstChanged <= changedEnd) {
+            fireContentsChanged(this, firstChanged, changedEnd);
+        }
+        if (newSize > oldSize) {
+            fireIntervalAdded(this, oldSize, newSize - 1);
+        } else if (newSize < oldSize) {
+            fireIntervalRemoved(this, newSize, oldSize - 1);
+        }
+    }
+}
@@ -1,33 +1,37 @@
 package client;
 
+import client.sdk.NoteSyncListener;
+import client.sdk.NoteSyncSession;
+import client.sdk.ReplicaStore;
 import common.models.*;
-import common.network.*;
 import common.utils.*;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
-import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.function.Consumer;
+import java.io.File;
+import java.io.IOException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+/**
+ * Swing UI, toàn bộ logic kết nối/đồng bộ nằm trong NoteSyncSession
+ */
 public class NoteSyncClient extends JFrame {
     private static final Logger logger = LoggerUtil.getLogger(NoteSyncClient.class);
 
     private final ConfigManager config = ConfigManager.getInstance();
-    private final String clientId = Utils.generateId();
+    private final String clientId;
     private final String clientName;
 
-    private TCPConnection serverConnection;
-    private UDPConnection udpConnection;
-    private final Map<String, Note> localNotes = new ConcurrentHashMap<>();
+    private final NoteSyncSession session;
     private boolean isConnected = false;
+    private String selectedNoteId;
+    private final int prefetchCount = config.getIntProperty("client.prefetch.count", 5);
 
     // GUI
-    private final DefaultListModel<Note> notesListModel = new DefaultListModel<>();
+    private final NoteListModel notesListModel = new NoteListModel(config.getIntProperty("client.ui.refresh.ms", 50));
     private final JList<Note> notesList = new JList<>(notesListModel);
     private final JTextField titleField = new JTextField();
     private final JTextArea contentArea = new JTextArea();
@@ -38,14 +42,39 @@ public class NoteSyncClient extends JFrame {
     private final JButton deleteButton = new JButton("Delete");
     private final JButton syncButton = new JButton("Sync");
     private final JLabel statusLabel = new JLabel("Disconnected");
-    private javax.swing.Timer heartbeatTimer;
 
     public NoteSyncClient(String clientName) {
-        this.clientName = (clientName != null && !clientName.trim().isEmpty())
-                ? clientName.trim() : ("Client-" + clientId.substring(0, 8));
+        boolean named = clientName != null && !clientName.trim().isEmpty();
+        // The persisted replica keeps the client id stable across launches
+        ReplicaStore store = named ? openReplicaStore(clientName.trim()) : null;
+        this.clientId = (store != null && store.getClientId() != null) ? store.getClientId() : Utils.generateId();
+        this.clientName = named ? clientName.trim() : ("Client-" + clientId.substring(0, 8));
+        this.session = new NoteSyncSession(clientId, this.clientName, config.getServerHost(), config.getTcpPort());
+        this.session.addListener(new SessionHandler());
+        if (store != null) {
+            try {
+                session.attachStore(store);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Could not attach local replica", e);
+                store.close();
+            }
+        }
         initializeGUI();
         setupEventHandlers();
-        logger.info("NoteSyncClient initialized: " + this.clientName);
+        // Render the persisted replica right away; connecting only fetches the delta
+        notesListModel.replaceAll(session.getReplica().getAll());
+        logger.info("NoteSyncClient initialized: " + this.clientName + " (" + notesListModel.getSize() + " local notes)");
+    }
+
+    private ReplicaStore openReplicaStore(String name) {
+        if (!config.getBooleanProperty("client.replica.enabled", true)) return null;
+        File file = new File(config.getProperty("client.replica.dir", "replica"), name.replaceAll("[^A-Za-z0-9._-]", "_") + ".replica");
+        try {
+            return ReplicaStore.open(file, config.getBooleanProperty("client.replica.fsync", false));
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Local replica unavailable, running in memory only", e);
+            return null;
+        }
     }
 
     private void initializeGUI() {
@@ -63,6 +92,9 @@ public class NoteSyncClient extends JFrame {
         // Left (list)
         notesList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
         notesList.setCellRenderer(new NoteCellRenderer());
+        // A prototype gives every row the same size, so JList never measures all rows of a large model
+        notesList.setPrototypeCellValue(new Note("Prototype note title for sizing", "", ""));
+        notesListModel.setFlushListener(this::onNotesFlushed);
         JPanel left = new JPanel(new BorderLayout());
         left.setBorder(BorderFactory.createTitledBorder("Notes"));
         left.setPreferredSize(new Dimension(300, 0));
@@ -96,51 +128,45 @@ public class NoteSyncClient extends JFrame {
     }
 
     private void setupEventHandlers() {
-        addWindowListener(new WindowAdapter() { @Override public void windowClosing(WindowEvent e) { disconnect(); System.exit(0); } });
+        addWindowListener(new WindowAdapter() { @Override public void windowClosing(WindowEvent e) { session.close(); System.exit(0); } });
         connectButton.addActionListener(e -> connect());
         disconnectButton.addActionListener(e -> disconnect());
         syncButton.addActionListener(e -> requestSync());
         createButton.addActionListener(e -> createNote());
         updateButton.addActionListener(e -> updateNote());
         deleteButton.addActionListener(e -> deleteNote());
-        notesList.addListSelectionListener(e -> { if (!e.getValueIsAdjusting()) selectNote(notesList.getSelectedValue()); });
+        notesList.addListSelectionListener(e -> {
+            // Index shifts while the model applies a batch are fixed up in onNotesFlushed
+            if (e.getValueIsAdjusting() || notesListModel.isApplying()) return;
+            Note selected = notesList.getSelectedValue();
+            selectedNoteId = selected != null ? selected.getId() : null;
+            selectNote(selected);
+        });
     }
 
     private void connect() {
         connectButton.setEnabled(false);
         statusLabel.setText("Connecting...");
 
-        new SwingWorker<TCPConnection, String>() {
-            @Override protected TCPConnection doInBackground() throws Exception {
+        new SwingWorker<Void, String>() {
+            @Override protected Void doInBackground() throws Exception {
                 publish("Connecting to server...");
-                TCPConnection tcp = new TCPConnection(config.getServerHost(), config.getTcpPort());
-                publish("TCP connected");
-                udpConnection = new UDPConnection();
-                udpConnection.setMessageHandler(new UDPHandler());
-                udpConnection.startListening();
-                publish("UDP listening");
-                ClientInfo info = new ClientInfo(clientId, clientName,
-                        udpConnection.getLocalAddress().getHostAddress(), udpConnection.getLocalPort());
-                tcp.sendMessage(new Message(MessageType.CLIENT_CONNECT, clientId, info));
-                publish("Connect sent");
-                return tcp;
+                session.connect();
+                return null;
             }
             @Override protected void process(java.util.List<String> chunks) {
                 if (!chunks.isEmpty()) statusLabel.setText(chunks.get(chunks.size() - 1));
             }
             @Override protected void done() {
                 try {
-                    serverConnection = get();
-                    serverConnection.setMessageHandler(new ServerHandler());
-                    serverConnection.startCommunication();
+                    get();
                     isConnected = true; updateGUIState();
                     statusLabel.setText("Connected to " + config.getServerHost() + ":" + config.getTcpPort());
-                    startHeartbeat();
                     logger.info("Connected to server successfully");
                 } catch (Exception e) {
                     Throwable cause = e.getCause() != null ? e.getCause() : e;
                     logger.log(Level.SEVERE, "Connection failed", cause);
-                    cleanupConnections();
+                    session.disconnect();
                     isConnected = false; updateGUIState();
                     statusLabel.setText("Connection failed");
                     JOptionPane.showMessageDialog(NoteSyncClient.this,
@@ -153,31 +179,17 @@ public class NoteSyncClient extends JFrame {
     }
 
     private void disconnect() {
-        stopHeartbeat();
-        if (isConnected && serverConnection != null)
-            serverConnection.sendMessage(new Message(MessageType.CLIENT_DISCONNECT, clientId, null));
-        cleanupConnections();
+        session.disconnect();
         isConnected = false; updateGUIState();
         statusLabel.setText("Disconnected");
         logger.info("Disconnected from server");
     }
 
-    private void cleanupConnections() {
-        try { if (serverConnection != null) serverConnection.close(); } catch (Exception ignore) {}
-        try { if (udpConnection != null) udpConnection.stop(); } catch (Exception ignore) {}
-        serverConnection = null; udpConnection = null;
-    }
-
-    private void sendIfConnected(MessageType type, Object payload) {
-        if (isConnected && serverConnection != null) serverConnection.sendMessage(new Message(type, clientId, payload));
-    }
-
     private void createNote() {
         String title = titleField.getText().trim();
         if (title.isEmpty()) { JOptionPane.showMessageDialog(this, "Please enter a title", "Error", JOptionPane.ERROR_MESSAGE); return; }
-        Note note = new Note(title, contentArea.getText().trim(), clientId);
-        localNotes.put(note.getId(), note); notesListModel.addElement(note);
-        sendIfConnected(MessageType.NOTE_CREATE, note);
+        Note note = session.createNote(title, contentArea.getText().trim());
+        notesListModel.upsert(note);
         titleField.setText(""); contentArea.setText("");
         logger.info("Note created: " + note.getId());
     }
@@ -186,46 +198,43 @@ public class NoteSyncClient extends JFrame {
         Note n = notesList.getSelectedValue(); if (n == null) return;
         String title = titleField.getText().trim();
         if (title.isEmpty()) { JOptionPane.showMessageDialog(this, "Please enter a title", "Error", JOptionPane.ERROR_MESSAGE); return; }
-        n.setTitle(title); n.setContent(contentArea.getText().trim()); n.updateLastModified();
-        notesList.repaint(); sendIfConnected(MessageType.NOTE_UPDATE, n);
+        Note updated = session.updateNote(n.getId(), title, contentArea.getText().trim());
+        if (updated != null) notesListModel.upsert(updated);
         logger.info("Note updated: " + n.getId());
     }
 
     private void deleteNote() {
         Note n = notesList.getSelectedValue(); if (n == null) return;
         if (JOptionPane.showConfirmDialog(this, "Delete this note?", "Confirm", JOptionPane.YES_NO_OPTION) == JOptionPane.YES_OPTION) {
-            localNotes.remove(n.getId()); notesListModel.removeElement(n);
-            sendIfConnected(MessageType.NOTE_DELETE, n.getId());
+            session.deleteNote(n.getId()); notesListModel.remove(n.getId());
             selectNote(null); logger.info("Note deleted");
         }
     }
 
     private void selectNote(Note note) {
+        // Metadata-only replicas hold no content: show it from the cache or fetch it on demand
+        Note loaded = note == null || note.getContent() != null ? note : session.getLoadedNote(note.getId());
+        boolean loading = note != null && loaded == null;
+        if (loading) { session.fetchContent(note.getId()); prefetchAfter(note.getId()); }
         titleField.setText(note != null ? note.getTitle() : "");
-        contentArea.setText(note != null ? note.getContent() : "");
-        boolean has = note != null; updateButton.setEnabled(has); deleteButton.setEnabled(has);
-    }
-
-    private void requestSync() {
-        SyncRequest req = new SyncRequest(clientId, 0); req.setFullSync(true);
-        sendIfConnected(MessageType.SYNC_REQUEST, req);
-        logger.info("Sync requested");
+        contentArea.setText(loading ? "Loading..." : loaded != null ? loaded.getContent() : "");
+        contentArea.setEditable(!loading);
+        boolean has = note != null; updateButton.setEnabled(has && !loading); deleteButton.setEnabled(has);
     }
 
-    private void startHeartbeat() {
-        stopHeartbeat();
-        int interval = Math.max(1000, config.getHeartbeatInterval());
-        heartbeatTimer = new javax.swing.Timer(interval, e -> {
-            if (isConnected && serverConnection != null && serverConnection.isConnected())
-                sendIfConnected(MessageType.HEARTBEAT, "ping");
-            else stopHeartbeat();
-        });
-        heartbeatTimer.setInitialDelay(0); heartbeatTimer.start();
-        logger.info("Heartbeat started.");
+    private void prefetchAfter(String noteId) {
+        int index = notesListModel.indexOf(noteId);
+        java.util.List<String> ids = new java.util.ArrayList<>();
+        for (int i = index + 1; index >= 0 && i < notesListModel.getSize() && ids.size() < prefetchCount; i++) {
+            Note n = notesListModel.getElementAt(i);
+            if (n.getContent() == null) ids.add(n.getId());
+        }
+        session.prefetch(ids);
     }
 
-    private void stopHeartbeat() {
-        if (heartbeatTimer != null) { heartbeatTimer.stop(); heartbeatTimer = null; logger.info("Heartbeat stopped."); }
+    private void requestSync() {
+        session.requestSync();
+        logger.info("Sync requested");
     }
 
     private void updateGUIState() {
@@ -234,59 +243,60 @@ public class NoteSyncClient extends JFrame {
         syncButton.setEnabled(isConnected);
     }
 
-    // Handlers
-    private class ServerHandler implements TCPConnection.MessageHandler {
-        private final Map<MessageType, Consumer<Message>> handlers = new EnumMap<>(MessageType.class);
-        ServerHandler() {
-            handlers.put(MessageType.CONNECT_ACK, m -> logger.info("Server ACK connection"));
-            handlers.put(MessageType.SYNC_RESPONSE, this::onSyncResponse);
-            handlers.put(MessageType.NOTE_CREATED, m -> onNoteUpsert(m.getPayload(Note.class), true));
-            handlers.put(MessageType.NOTE_UPDATED, m -> onNoteUpsert(m.getPayload(Note.class), false));
-            handlers.put(MessageType.NOTE_DELETED, m -> onNoteDeleted(m.getPayload(String.class)));
-            handlers.put(MessageType.ERROR, this::onServerError);
-        }
-        @Override public void handleMessage(Message m) { handlers.getOrDefault(m.getType(), x -> logger.warning("Unknown: " + x.getType())).accept(m); }
-        private void onSyncResponse(Message m) {
-            SyncResponse r = m.getPayload(SyncResponse.class);
-            if (r != null && r.isSuccess()) {
-                SwingUtilities.invokeLater(() -> {
-                    notesListModel.clear(); localNotes.clear();
-                    for (Note n : r.getNotes()) { localNotes.put(n.getId(), n); notesListModel.addElement(n); }
-                    selectNote(null); logger.info("Synced " + r.getNotes().size() + " notes");
-                });
-            }
+    /**
+     * Sau mỗi đợt cập nhật danh sách: giữ selection theo id và làm mới editor nếu note đang chọn bị đổi
+     */
+    private void onNotesFlushed(java.util.Set<String> changedIds) {
+        if (selectedNoteId == null) return;
+        int index = notesListModel.indexOf(selectedNoteId);
+        if (index < 0) { notesList.clearSelection(); selectedNoteId = null; selectNote(null); return; }
+        if (notesList.getSelectedIndex() != index) notesList.setSelectedIndex(index);
+        // Only reload the editor when the selected note itself changed, not when it merely moved
+        if (changedIds.contains(selectedNoteId)) selectNote(notesListModel.getElementAt(index));
+    }
+
+    // Handlers: session callbacks arrive on network threads and are moved to the EDT here
+    private class SessionHandler implements NoteSyncListener {
+        @Override public void onSyncCompleted(int changeCount, boolean fullSync) {
+            // Delta changes were already applied through onNoteChanged/onNoteDeleted
+            if (!fullSync) { logger.info("Delta sync applied " + changeCount + " changes"); return; }
+            SwingUtilities.invokeLater(() -> {
+                notesListModel.replaceAll(session.getReplica().getAll());
+                notesList.clearSelection(); selectedNoteId = null; selectNote(null); logger.info("Synced " + changeCount + " notes");
+            });
         }
-        private void onNoteUpsert(Note n, boolean isNew) {
-            if (n == null || clientId.equals(n.getAuthorId())) return;
+        // Broadcasts are queued in the model and applied on the EDT in coalesced batches
+        @Override public void onNoteChanged(Note n, boolean isNew) { notesListModel.enqueueUpsert(n); }
+        @Override public void onNoteDeleted(String id) { notesListModel.enqueueRemove(id); }
+        @Override public void onContentLoaded(Note n) {
             SwingUtilities.invokeLater(() -> {
-                localNotes.put(n.getId(), n);
-                if (isNew && !containsNote(n.getId())) notesListModel.addElement(n);
-                else replaceNoteInList(n);
-                if (notesList.getSelectedValue() != null && notesList.getSelectedValue().getId().equals(n.getId())) selectNote(n);
+                // Only fill the editor while it is still showing the loading placeholder
+                int index = notesListModel.indexOf(n.getId());
+                if (n.getId().equals(selectedNoteId) && index >= 0 && !contentArea.isEditable()) selectNote(notesListModel.getElementAt(index));
             });
         }
-        private boolean containsNote(String id) { for (int i = 0; i < notesListModel.size(); i++) if (notesListModel.get(i).getId().equals(id)) return true; return false; }
-        private void replaceNoteInList(Note n) { for (int i = 0; i < notesListModel.size(); i++) if (notesListModel.get(i).getId().equals(n.getId())) { notesListModel.set(i, n); break; } }
-        private void onNoteDeleted(String id) {
-            if (id == null) return; SwingUtilities.invokeLater(() -> {
-                Note removed = localNotes.remove(id); if (removed != null) notesListModel.removeElement(removed);
-                if (notesList.getSelectedValue() != null && id.equals(notesList.getSelectedValue().getId())) selectNote(null);
+        @Override public void onContentUnavailable(String id) {
+            SwingUtilities.invokeLater(() -> {
+                // Replace the placeholder; selecting the note again retries the fetch
+                if (id.equals(selectedNoteId) && !contentArea.isEditable()) contentArea.setText("Could not load content, select the note again to retry");
             });
         }
-        private void onServerError(Message m) {
-            String err = m.getPayload(String.class);
+        @Override public void onServerError(String err) {
             SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(NoteSyncClient.this, "Server error: " + err, "Server Error", JOptionPane.ERROR_MESSAGE));
         }
-        @Override public void onConnectionClosed() { onConnLost("Connection to server lost", "Connection Lost"); }
-        @Override public void onConnectionError(Exception e) { onConnLost("Connection error: " + e.getMessage(), "Connection Error"); }
-        private void onConnLost(String msg, String title) {
-            SwingUtilities.invokeLater(() -> { stopHeartbeat(); isConnected = false; updateGUIState(); statusLabel.setText(title); JOptionPane.showMessageDialog(NoteSyncClient.this, msg, title, JOptionPane.WARNING_MESSAGE); });
+        @Override public void onConnected() {
+            SwingUtilities.invokeLater(() -> { isConnected = true; updateGUIState(); statusLabel.setText("Connected to " + config.getServerHost() + ":" + config.getTcpPort()); });
+        }
+        @Override public void onConnectionLost(String reason) {
+            SwingUtilities.invokeLater(() -> {
+                isConnected = false; updateGUIState(); statusLabel.setText("Connection Lost");
+                // With auto reconnect the session retries in the background and edits are queued meanwhile
+                if (!config.isAutoReconnectEnabled()) JOptionPane.showMessageDialog(NoteSyncClient.this, reason, "Connection Lost", JOptionPane.WARNING_MESSAGE);
+            });
+        }
+        @Override public void onReconnecting(int attempt, long delayMs) {
+            SwingUtilities.invokeLater(() -> statusLabel.setText("Reconnecting (attempt " + attempt + ", " + session.getPendingOperationCount() + " pending)..."));
         }
-    }
-
-    private static class UDPHandler implements UDPConnection.MessageHandler {
-        @Override public void handleMessage(Message message, java.net.InetAddress sender, int senderPort) {}
-        @Override public void onError(Exception e) { LoggerUtil.getLogger(UDPHandler.class).log(Level.WARNING, "UDP error", e); }
     }
 
     private static class NoteCellRenderer extends DefaultListCellRenderer {
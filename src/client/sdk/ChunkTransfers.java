@@ -0,0 +1,193 @@
+package client.sdk;
+
+import common.models.ChunkAck;
+import common.models.MessageType;
+import common.models.Note;
+import common.models.NoteChunk;
+import common.models.NoteOperation;
+import common.utils.LoggerUtil;
+import common.utils.Utils;
+
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * Upload/download content của note lớn theo từng chunk.
+ * Upload gửi tối đa window chunk chưa được ack; sau khi kết nối lại, upload dở dang hỏi server offset
+ * đã nhận (CHUNK_RESUME) và gửi tiếp từ đó. Download được ghép lại từ các NOTE_CHUNK của server.
+ */
+public class ChunkTransfers {
+    private static final Logger logger = LoggerUtil.getLogger(ChunkTransfers.class);
+
+    public interface Sender {
+        boolean send(MessageType type, Object payload);
+    }
+
+    private final Sender sender;
+    private final int chunkSize;
+    private final int window;
+    private final Map<String, Upload> uploads = new LinkedHashMap<>();        // by transferId
+    private final Map<String, String> uploadByNote = new HashMap<>();         // noteId -> transferId
+    private final Map<String, Download> downloads = new HashMap<>();          // by transferId
+
+    public ChunkTransfers(Sender sender, int chunkSize, int window) {
+        this.sender = sender;
+        this.chunkSize = Math.max(1024, chunkSize);
+        this.window = Math.max(1, window);
+    }
+
+    /**
+     * Bắt đầu upload note; thay thế upload đang dở của cùng note (vẫn là create nếu upload cũ là create)
+     */
+    public synchronized void startUpload(Note note, boolean create) {
+        Upload previous = removeUpload(note.getId());
+        Upload upload = new Upload(Utils.generateId(), note, create || (previous != null && previous.create));
+        uploads.put(upload.transferId, upload);
+        uploadByNote.put(note.getId(), upload.transferId);
+        pump(upload);
+    }
+
+    public synchronized boolean isUploading(String noteId) {
+        return uploadByNote.containsKey(noteId);
+    }
+
+    /**
+     * Hủy upload của note, trả về thao tác tương ứng để xếp vào hàng đợi offline (null nếu không có)
+     */
+    public synchronized NoteOperation cancelUpload(String noteId) {
+        Upload upload = removeUpload(noteId);
+        if (upload == null) return null;
+        return new NoteOperation(upload.create ? NoteOperation.Type.CREATE : NoteOperation.Type.UPDATE, upload.note);
+    }
+
+    /**
+     * Xử lý CHUNK_ACK, trả về upload tương ứng (đã xong nếu ack.isComplete()) hoặc null nếu không còn theo dõi
+     */
+    public synchronized Upload onAck(ChunkAck ack) {
+        Upload upload = uploads.get(ack.getTransferId());
+        if (upload == null) return null;
+
+        if (ack.isComplete()) {
+            removeUpload(upload.note.getId());
+            return upload;
+        }
+        if (ack.isRewind()) {
+            // Resume answer or an out-of-order chunk: everything after the server's offset is resent
+            upload.sent = ack.getOffset();
+            upload.resuming = false;
+        }
+        upload.acked = Math.max(upload.acked, Math.min(ack.getOffset(), upload.sent));
+        pump(upload);
+        return upload;
+    }
+
+    /**
+     * Sau khi kết nối lại: các chunk đang bay đã mất, hỏi server offset của từng upload
+     */
+    public synchronized void resumeAll() {
+        for (Upload upload : uploads.values()) {
+            upload.sent = upload.acked;
+            upload.resuming = true;
+            sender.send(MessageType.CHUNK_RESUME, new ChunkAck(upload.transferId, upload.note.getId(), upload.acked));
+        }
+        if (!uploads.isEmpty()) {
+            logger.info("Resuming " + uploads.size() + " chunked uploads");
+        }
+    }
+
+    /**
+     * Ghép một chunk download, trả về note đầy đủ khi nhận chunk cuối
+     */
+    public synchronized Note onChunk(NoteChunk chunk) {
+        Download download = downloads.get(chunk.getTransferId());
+        if (chunk.getOffset() == 0 && chunk.getNote() != null) {
+            download = new Download(chunk.getNote(), chunk.getTotalLength());
+            downloads.put(chunk.getTransferId(), download);
+        }
+        if (download == null || download.content.length() != chunk.getOffset()) {
+            downloads.remove(chunk.getTransferId());
+            logger.warning("Dropped out-of-order download chunk " + chunk);
+            return null;
+        }
+        download.content.append(chunk.getData());
+        if (!chunk.isLast()) return null;
+
+        downloads.remove(chunk.getTransferId());
+        return download.note.copyWithContent(download.content.toString());
+    }
+
+    /**
+     * Bỏ download dở dang của một note (server báo NOTE_FETCH_FAILED giữa chừng)
+     */
+    public synchronized void cancelDownload(String noteId) {
+        downloads.values().removeIf(download -> download.note.getId().equals(noteId));
+    }
+
+    /**
+     * Bỏ các download dở dang (mất kết nối); note sẽ được fetch lại khi cần
+     */
+    public synchronized void clearDownloads() {
+        downloads.clear();
+    }
+
+    public synchronized int getUploadCount() {
+        return uploads.size();
+    }
+
+    private void pump(Upload upload) {
+        if (upload.resuming) return;
+        String content = upload.note.getContent();
+        while (upload.sent < upload.total && upload.sent - upload.acked < (long) window * chunkSize) {
+            int start = (int) upload.sent;
+            int end = (int) Math.min(upload.total, upload.sent + chunkSize);
+            NoteChunk chunk = new NoteChunk(upload.transferId, upload.note.getId(), start, upload.total, content.substring(start, end));
+            if (start == 0) {
+                chunk.setNote(upload.note.copyWithContent(null));
+                chunk.setCreate(upload.create);
+            }
+            // Offline: the rest goes out after CHUNK_RESUME on reconnect
+            if (!sender.send(MessageType.NOTE_CHUNK, chunk)) return;
+            upload.sent = end;
+        }
+    }
+
+    private Upload removeUpload(String noteId) {
+        String transferId = uploadByNote.remove(noteId);
+        return transferId != null ? uploads.remove(transferId) : null;
+    }
+
+    /**
+     * Trạng thái một upload; acked là số ký tự server đã xác nhận
+     */
+    public static class Upload {
+        private final String transferId;
+        private final Note note;
+        private final boolean create;
+        private final long total;
+        private long sent;
+        private long acked;
+        private boolean resuming;
+
+        Upload(String transferId, Note note, boolean create) {
+            this.transferId = transferId;
+            this.note = note;
+            this.create = create;
+            this.total = note.getContent().length();
+        }
+
+        public String getNoteId() { return note.getId(); }
+        public Note getNote() { return note; }
+        public long getAcked() { return acked; }
+        public long getTotal() { return total; }
+    }
+
+    private static class Download {
+        final Note note;
+        final StringBuilder content;
+
+        Download(Note note, long totalLength) {
+            this.note = note;
+            this.content = new StringBuilder((int) Math.min(totalLength, Integer.MAX_VALUE - 8));
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package client.sdk;
+
+import common.models.Note;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache cho content của note khi replica chỉ giữ metadata.
+ * Entry chỉ được dùng khi version không cũ hơn version trong replica.
+ */
+public class ContentCache {
+    private final Map<String, Note> entries;
+    
+    public ContentCache(int maxEntries) {
+        int capacity = Math.max(1, maxEntries);
+        this.entries = new LinkedHashMap<String, Note>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Note> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+    
+    /**
+     * Lấy note đầy đủ nếu cache có bản từ version trở lên
+     */
+    public synchronized Note get(String noteId, long version) {
+        Note note = entries.get(noteId);
+        return note != null && note.getVersion() >= version ? note : null;
+    }
+    
+    public synchronized void put(Note note) {
+        if (note != null && note.getContent() != null) {
+            entries.put(note.getId(), note);
+        }
+    }
+    
+    public synchronized void remove(String noteId) {
+        entries.remove(noteId);
+    }
+    
+    public synchronized void clear() {
+        entries.clear();
+    }
+    
+    public synchronized int size() {
+        return entries.size();
+    }
+}
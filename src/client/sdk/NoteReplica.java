@@ -0,0 +1,144 @@
+package client.sdk;
+
+import common.models.Note;
+import common.utils.LoggerUtil;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bản sao notes của client, thread-safe, kèm sync version của server.
+ * Nếu gắn ReplicaStore thì mọi thay đổi được ghi xuống đĩa (write-through).
+ * Các Note trả về là instance được lưu, caller không nên sửa trực tiếp.
+ */
+public class NoteReplica {
+    private static final Logger logger = LoggerUtil.getLogger(NoteReplica.class);
+    
+    private final Map<String, Note> notes = new ConcurrentHashMap<>();
+    private volatile long syncVersion;
+    private volatile ReplicaStore store;
+    
+    /**
+     * Gắn store và nạp dữ liệu đã lưu vào bộ nhớ
+     */
+    public synchronized void attachStore(ReplicaStore store) {
+        this.store = store;
+        notes.clear();
+        notes.putAll(store.drainLoadedNotes());
+        syncVersion = store.getSyncVersion();
+    }
+    
+    /**
+     * Tách store (không đóng file)
+     */
+    public synchronized ReplicaStore detachStore() {
+        ReplicaStore detached = store;
+        store = null;
+        return detached;
+    }
+    
+    public Note get(String noteId) {
+        return noteId != null ? notes.get(noteId) : null;
+    }
+    
+    public boolean contains(String noteId) {
+        return noteId != null && notes.containsKey(noteId);
+    }
+    
+    /**
+     * Thêm hoặc thay thế note, trả về note cũ nếu có
+     */
+    public Note put(Note note) {
+        Note previous = notes.put(note.getId(), note);
+        ReplicaStore s = store;
+        if (s != null) {
+            try {
+                s.putNote(note);
+                compactIfNeeded(s);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to persist note " + note.getId(), e);
+            }
+        }
+        return previous;
+    }
+    
+    public Note remove(String noteId) {
+        if (noteId == null) return null;
+        Note removed = notes.remove(noteId);
+        ReplicaStore s = store;
+        if (removed != null && s != null) {
+            try {
+                s.deleteNote(noteId);
+                compactIfNeeded(s);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to persist deletion of " + noteId, e);
+            }
+        }
+        return removed;
+    }
+    
+    /**
+     * Thay toàn bộ nội dung replica (full sync)
+     */
+    public synchronized void replaceAll(Collection<Note> newNotes, long version) {
+        notes.clear();
+        for (Note note : newNotes) {
+            notes.put(note.getId(), note);
+        }
+        syncVersion = version;
+        ReplicaStore s = store;
+        if (s != null) {
+            try {
+                s.writeSnapshot(newNotes, version);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to persist replica snapshot", e);
+            }
+        }
+    }
+    
+    public long getSyncVersion() {
+        return syncVersion;
+    }
+    
+    /**
+     * Cập nhật sync version sau khi đã merge delta
+     */
+    public void setSyncVersion(long version) {
+        if (version == syncVersion) return;
+        syncVersion = version;
+        ReplicaStore s = store;
+        if (s != null) {
+            try {
+                s.setSyncVersion(version);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to persist sync version", e);
+            }
+        }
+    }
+    
+    public void clear() {
+        replaceAll(Collections.emptyList(), 0);
+    }
+    
+    /**
+     * Snapshot danh sách notes hiện tại
+     */
+    public List<Note> getAll() {
+        return new ArrayList<>(notes.values());
+    }
+    
+    public int size() {
+        return notes.size();
+    }
+    
+    private void compactIfNeeded(ReplicaStore s) throws IOException {
+        if (s.needsCompaction(notes.size())) {
+            synchronized (this) {
+                s.writeSnapshot(notes.values(), syncVersion);
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package client.sdk;
+
+import common.models.BatchResult;
+import common.models.Note;
+
+/**
+ * Listener nhận thông báo từ NoteSyncSession.
+ * Callback chạy trên thread mạng, UI cần tự chuyển sang thread của mình.
+ */
+public interface NoteSyncListener {
+    
+    /**
+     * Đã kết nối tới server
+     */
+    default void onConnected() {}
+    
+    /**
+     * Mất kết nối ngoài ý muốn (không gọi khi chủ động disconnect)
+     */
+    default void onConnectionLost(String reason) {}
+    
+    /**
+     * Sắp thử kết nối lại lần thứ attempt sau delayMs (khi bật client.auto.reconnect)
+     */
+    default void onReconnecting(int attempt, long delayMs) {}
+    
+    /**
+     * Server đã xử lý một batch thao tác offline được replay
+     */
+    default void onBatchApplied(BatchResult result) {}
+    
+    /**
+     * Note được tạo hoặc cập nhật từ client khác
+     */
+    default void onNoteChanged(Note note, boolean isNew) {}
+    
+    /**
+     * Content của note vừa được tải về (metadata-only sync, sau fetchContent)
+     */
+    default void onContentLoaded(Note note) {}
+    
+    /**
+     * Server không đọc được content; gọi lại fetchContent để thử lại (fetch bị giới hạn tốc độ được session tự gửi lại)
+     */
+    default void onContentUnavailable(String noteId) {}
+    
+    /**
+     * Note bị xóa từ client khác
+     */
+    default void onNoteDeleted(String noteId) {}
+    
+    /**
+     * Replica vừa được đồng bộ với server. Với full sync replica đã được thay toàn bộ;
+     * với delta sync các thay đổi đã được báo qua onNoteChanged/onNoteDeleted.
+     */
+    default void onSyncCompleted(int changeCount, boolean fullSync) {}
+    
+    /**
+     * Kết thúc kiểm tra Merkle hash; divergentNotes > 0 nghĩa là các note đó đang được đồng bộ lại
+     */
+    default void onReconciled(int divergentNotes) {}
+    
+    /**
+     * Tiến độ upload note lớn theo chunk; acked == total khi server đã nhận đủ
+     */
+    default void onUploadProgress(String noteId, long acked, long total) {}
+    
+    /**
+     * Server trả về lỗi
+     */
+    default void onServerError(String error) {}
+}
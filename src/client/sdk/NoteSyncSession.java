@@ -0,0 +1,1362 @@
+package client.sdk;
+
+import common.models.*;
+import common.network.TCPConnection;
+import common.network.UDPConnection;
+import common.utils.ConfigManager;
+import common.utils.LoggerUtil;
+import common.utils.MerkleDigest;
+import common.utils.Utils;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Client headless cho Note Sync: kết nối, CRUD, đồng bộ và replica trong bộ nhớ.
+ * Không phụ thuộc Swing nên có thể chạy nhiều instance trong cùng một JVM (service, load test).
+ * Mỗi session đang kết nối giữ một platform thread nhận TCP (I/O blocking), thêm một UDP socket và
+ * thread nhận UDP nếu bật UDP; việc gửi, heartbeat và reconnect dùng pool chung. Với hàng nghìn session
+ * nên tắt UDP (setUdpEnabled(false)) và tính khoảng một thread cho mỗi session.
+ */
+public class NoteSyncSession {
+    private static final Logger logger = LoggerUtil.getLogger(NoteSyncSession.class);
+
+    // Shared by every session in the JVM so thousands of instances do not each own a timer thread
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "NoteSyncSession-Scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Outgoing messages of every session are written by this pool instead of a sender thread per connection;
+    // each connection still has its own receiver thread because ObjectInputStream reads block.
+    // With client.sender.threads=0 every connection gets its own sender thread again (null pool)
+    private static final ExecutorService senders = createSenderPool(ConfigManager.getInstance().getIntProperty("client.sender.threads", 4));
+    // Reconnect attempts block on the TCP handshake, so they must not run on the scheduler thread
+    private static final ExecutorService connector = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "NoteSyncSession-Connector");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String clientId;
+    private final String clientName;
+    private final String host;
+    private final int port;
+    private final int heartbeatInterval;
+    private final int udpServerPort;
+    private final boolean udpHeartbeats;
+    private final NoteReplica replica;
+    private final OutboundQueue outbound;
+    private final ContentCache contentCache;
+    private final ChunkTransfers chunks;
+    private final int chunkThreshold;
+    private final Set<String> pendingFetches = ConcurrentHashMap.newKeySet();
+    private final List<NoteSyncListener> listeners;
+    private final Object connectionLock = new Object();
+    // Mutations sent directly and not acknowledged yet, in send order; requeued when the connection closes
+    private final Object mutationLock = new Object();
+    private final Map<String, NoteOperation> unacked = new LinkedHashMap<>();
+    // Futures of the async API by operation id, and by note for chunked uploads
+    private final Map<String, List<CompletableFuture<BatchResult.OperationResult>>> ackWaiters = new HashMap<>();
+    private final Map<String, List<CompletableFuture<BatchResult.OperationResult>>> uploadWaiters = new HashMap<>();
+
+    private volatile TCPConnection connection;
+    private volatile UDPConnection udpConnection;
+    private volatile boolean connected;
+    private volatile boolean udpEnabled;
+    private volatile boolean autoReconnect;
+    private volatile boolean metadataOnly;
+    private volatile boolean invalidationHints;
+    // Hint mode of the current connection: changes arrive as UDP hints and are pulled as deltas
+    private volatile boolean hintMode;
+    private final AtomicBoolean pullScheduled = new AtomicBoolean();
+    private final long hintPullDelayMs;
+    // Requests the server answered with THROTTLED, sent again once its bucket has refilled
+    private final AtomicBoolean syncRetryScheduled = new AtomicBoolean();
+    private final AtomicBoolean reconcileRetryScheduled = new AtomicBoolean();
+    private volatile boolean throttledFullSync;
+    private volatile boolean throttledDeltaSync;
+    private final Set<String> throttledNoteIds = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger throttledFetches = new AtomicInteger();
+    // Session resumption: token from the last CONNECT_ACK and the highest change sequence applied since
+    private volatile ResumeToken resumeToken;
+    private volatile long deliveredSequence;
+    private volatile boolean closedByUser;
+    private final long reconnectInitialMs;
+    private final long reconnectMaxMs;
+    private final int replayBatchSize;
+    // Replay sends one NOTE_BATCH at a time, spaced to client.replay.rate operations per second (guarded by mutationLock)
+    private final double replayRate;
+    private String replayBatchId;
+    private int replayBatchOperations;
+    private long nextReplayNanos;
+    private ScheduledFuture<?> replayTask;
+    private int retryAttempt;
+    private int reconnectAttempt;
+    private ScheduledFuture<?> heartbeatTask;
+    // Binary UDP heartbeat of the current connection; TCP heartbeats take over once acks stop coming back
+    private static final int MAX_UNACKED_PINGS = 3;
+    private volatile long heartbeatKey;
+    private final AtomicInteger unackedPings = new AtomicInteger();
+    private long pingSequence;
+    private volatile long behindSequence;
+    private ScheduledFuture<?> reconnectTask;
+
+    public NoteSyncSession(String clientName) {
+        this(Utils.generateId(), clientName, ConfigManager.getInstance().getServerHost(), ConfigManager.getInstance().getTcpPort());
+    }
+
+    public NoteSyncSession(String clientId, String clientName, String host, int port) {
+        this.clientId = clientId;
+        this.clientName = clientName;
+        this.host = host;
+        this.port = port;
+        ConfigManager config = ConfigManager.getInstance();
+        this.heartbeatInterval = Math.max(1000, config.getHeartbeatInterval());
+        this.udpServerPort = config.getUdpPort();
+        this.udpHeartbeats = config.getBooleanProperty("client.udp.heartbeat", true);
+        this.replica = new NoteReplica();
+        this.outbound = new OutboundQueue();
+        this.listeners = new CopyOnWriteArrayList<>();
+        this.udpEnabled = true;
+        this.autoReconnect = config.isAutoReconnectEnabled();
+        this.reconnectInitialMs = Math.max(50, config.getLongProperty("client.reconnect.initial.ms", 500));
+        this.reconnectMaxMs = Math.max(reconnectInitialMs, config.getLongProperty("client.reconnect.max.ms", 30000));
+        this.replayBatchSize = Math.max(1, config.getIntProperty("client.replay.batch.size", 500));
+        this.replayRate = Math.max(1, config.getDoubleProperty("client.replay.rate", 100));
+        this.metadataOnly = config.getBooleanProperty("client.sync.metadata.only", false);
+        this.invalidationHints = config.getBooleanProperty("client.invalidation.hints", false);
+        this.hintPullDelayMs = Math.max(0, config.getLongProperty("client.hint.pull.delay.ms", 2000));
+        this.contentCache = new ContentCache(config.getIntProperty("client.content.cache.size", 500));
+        this.chunkThreshold = config.getIntProperty("chunk.threshold.chars", 262144);
+        this.chunks = new ChunkTransfers(this::send, config.getIntProperty("chunk.size.chars", 65536),
+                config.getIntProperty("chunk.window", 4));
+    }
+
+    public void addListener(NoteSyncListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(NoteSyncListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Gắn replica lưu trên đĩa: nạp notes đã lưu ngay lập tức, lần connect sau chỉ cần delta sync
+     */
+    public void attachStore(ReplicaStore store) throws IOException {
+        store.setClientId(clientId);
+        replica.attachStore(store);
+        outbound.attachStore(store);
+    }
+
+    /**
+     * Ngắt kết nối và đóng replica store (nếu có)
+     */
+    public void close() {
+        disconnect();
+        outbound.detachStore();
+        ReplicaStore store = replica.detachStore();
+        if (store != null) store.close();
+    }
+
+    /**
+     * Bật/tắt UDP socket; tắt khi chạy nhiều instance để tiết kiệm port và thread
+     */
+    public void setUdpEnabled(boolean udpEnabled) {
+        this.udpEnabled = udpEnabled;
+    }
+
+    /**
+     * Chỉ đồng bộ metadata (NoteSummary); content được lấy theo yêu cầu bằng fetchContent.
+     * Có hiệu lực từ lần connect/sync tiếp theo.
+     */
+    public void setMetadataOnly(boolean metadataOnly) {
+        this.metadataOnly = metadataOnly;
+    }
+
+    /**
+     * Nhận thay đổi dưới dạng hint qua UDP rồi tự kéo delta qua TCP, thay vì server đẩy từng note.
+     * Cần UDP; có hiệu lực từ lần connect tiếp theo.
+     */
+    public void setInvalidationHints(boolean invalidationHints) {
+        this.invalidationHints = invalidationHints;
+    }
+
+    /**
+     * Bật/tắt tự động kết nối lại khi mất kết nối (mặc định theo client.auto.reconnect)
+     */
+    public void setAutoReconnect(boolean autoReconnect) {
+        this.autoReconnect = autoReconnect;
+        if (!autoReconnect) cancelReconnect();
+    }
+
+    /**
+     * Kết nối tới server (blocking, tối đa network.connection.timeout)
+     */
+    public void connect() throws IOException {
+        synchronized (connectionLock) {
+            closedByUser = false;
+            if (connected) return;
+
+            TCPConnection tcp = new TCPConnection(host, port);
+            UDPConnection udp = null;
+            try {
+                if (udpEnabled) {
+                    udp = new UDPConnection();
+                    UDPHandler udpHandler = new UDPHandler();
+                    udp.setMessageHandler(udpHandler);
+                    udp.setDatagramHandler(udpHandler);
+                    udp.startListening();
+                }
+                InetAddress udpAddress = udp != null ? udp.getLocalAddress() : null;
+                ClientInfo info = new ClientInfo(clientId, clientName,
+                        udpAddress != null ? udpAddress.getHostAddress() : null, udp != null ? udp.getLocalPort() : 0);
+                info.setLastSyncVersion(replica.getSyncVersion());
+                info.setMetadataOnly(metadataOnly);
+                info.setInvalidationHints(invalidationHints && udp != null);
+                ResumeToken token = resumeToken;
+                if (token != null) {
+                    info.setResumeToken(new ResumeToken(token.getServerEpoch(), clientId, deliveredSequence));
+                }
+
+                tcp.setMessageHandler(new ServerHandler(tcp));
+                if (senders != null) {
+                    tcp.startCommunication(senders);
+                } else {
+                    tcp.startCommunication();
+                }
+                tcp.sendMessage(new Message(MessageType.CLIENT_CONNECT, clientId, info));
+            } catch (IOException | RuntimeException e) {
+                tcp.close();
+                if (udp != null) udp.stop();
+                throw e;
+            }
+
+            connection = tcp;
+            udpConnection = udp;
+            hintMode = invalidationHints && udp != null;
+            heartbeatKey = 0;
+            unackedPings.set(0);
+            behindSequence = 0;
+            connected = true;
+            reconnectAttempt = 0;
+            cancelReconnect();
+            startHeartbeat();
+            replayPending();
+            chunks.resumeAll();
+        }
+
+        logger.info("Session " + clientName + " connected to " + host + ":" + port);
+        fire(NoteSyncListener::onConnected);
+    }
+
+    /**
+     * Chủ động ngắt kết nối
+     */
+    public void disconnect() {
+        synchronized (connectionLock) {
+            closedByUser = true;
+            cancelReconnect();
+            TCPConnection tcp = connection;
+            if (connected && tcp != null) {
+                tcp.sendMessage(new Message(MessageType.CLIENT_DISCONNECT, clientId, null));
+            }
+            closeConnections();
+        }
+        logger.info("Session " + clientName + " disconnected");
+    }
+
+    /**
+     * Đóng kết nối hiện tại (nếu có) và kết nối lại
+     */
+    public void reconnect() throws IOException {
+        synchronized (connectionLock) {
+            closeConnections();
+            connect();
+        }
+    }
+
+    public boolean isConnected() {
+        TCPConnection tcp = connection;
+        return connected && tcp != null && tcp.isConnected();
+    }
+
+    /**
+     * Tạo note mới trong replica và gửi lên server, hoặc xếp hàng chờ nếu đang offline
+     */
+    public Note createNote(String title, String content) {
+        Note note = new Note(title, content, clientId);
+        replica.put(note);
+        sendOrQueue(MessageType.NOTE_CREATE, note, new NoteOperation(NoteOperation.Type.CREATE, note));
+        return note;
+    }
+
+    /**
+     * Cập nhật note, trả về null nếu note không có trong replica
+     */
+    public Note updateNote(String noteId, String title, String content) {
+        Note updated = applyLocalUpdate(noteId, title, content);
+        if (updated != null) {
+            sendOrQueue(MessageType.NOTE_UPDATE, updated, new NoteOperation(NoteOperation.Type.UPDATE, updated));
+        }
+        return updated;
+    }
+
+    /**
+     * Xóa note khỏi replica và gửi yêu cầu xóa lên server
+     */
+    public boolean deleteNote(String noteId) {
+        Note removed = replica.remove(noteId);
+        sendOrQueue(MessageType.NOTE_DELETE, noteId, new NoteOperation(noteId));
+        return removed != null;
+    }
+
+    /**
+     * Như createNote; future hoàn tất khi server xác nhận, kèm change sequence đã commit.
+     * Khi offline, future chờ tới lúc thao tác được replay sau khi kết nối lại
+     */
+    public CompletableFuture<BatchResult.OperationResult> createNoteAsync(String title, String content) {
+        Note note = new Note(title, content, clientId);
+        replica.put(note);
+        return sendOrQueue(MessageType.NOTE_CREATE, note, new NoteOperation(NoteOperation.Type.CREATE, note));
+    }
+
+    /**
+     * Như updateNote; kết quả NOT_FOUND ngay nếu note không có trong replica
+     */
+    public CompletableFuture<BatchResult.OperationResult> updateNoteAsync(String noteId, String title, String content) {
+        Note updated = applyLocalUpdate(noteId, title, content);
+        if (updated == null) {
+            return CompletableFuture.completedFuture(
+                    new BatchResult.OperationResult(null, noteId, BatchResult.Status.NOT_FOUND, "Note not in replica"));
+        }
+        return sendOrQueue(MessageType.NOTE_UPDATE, updated, new NoteOperation(NoteOperation.Type.UPDATE, updated));
+    }
+
+    /**
+     * Như deleteNote; future hoàn tất khi server xác nhận
+     */
+    public CompletableFuture<BatchResult.OperationResult> deleteNoteAsync(String noteId) {
+        replica.remove(noteId);
+        return sendOrQueue(MessageType.NOTE_DELETE, noteId, new NoteOperation(noteId));
+    }
+
+    /**
+     * Áp dụng nhiều thao tác lên replica và gửi bằng NOTE_BATCH (tối đa client.replay.batch.size thao tác mỗi
+     * message, server ghi mỗi message trong một transaction). Thao tác của note lớn, note có thao tác đang chờ
+     * hoặc khi offline đi theo đường của từng thao tác riêng. Mỗi thao tác có future riêng, theo thứ tự
+     */
+    public List<CompletableFuture<BatchResult.OperationResult>> applyBatchAsync(List<NoteOperation> operations) {
+        List<CompletableFuture<BatchResult.OperationResult>> futures = new ArrayList<>(operations.size());
+        List<NoteOperation> batched = new ArrayList<>();
+        synchronized (mutationLock) {
+            for (NoteOperation operation : operations) {
+                String noteId = operation.getNoteId();
+                if (operation.getType() == NoteOperation.Type.DELETE) {
+                    replica.remove(noteId);
+                } else {
+                    replica.put(operation.getNote());
+                }
+                if (isLarge(operation.getNote()) || chunks.isUploading(noteId) || outbound.hasPending(noteId) || !isConnected()) {
+                    // Whatever was batched so far goes first so the server sees the operations in order
+                    sendBatch(batched);
+                    futures.add(sendOrQueue(operation));
+                    continue;
+                }
+                CompletableFuture<BatchResult.OperationResult> future = new CompletableFuture<>();
+                waitersOf(ackWaiters, operation.getOperationId()).add(future);
+                futures.add(future);
+                batched.add(operation);
+                if (batched.size() >= replayBatchSize) sendBatch(batched);
+            }
+            sendBatch(batched);
+        }
+        return futures;
+    }
+
+    /**
+     * Gửi các thao tác đã gom rồi làm rỗng danh sách; mất kết nối thì chúng vào hàng đợi. Gọi trong mutationLock
+     */
+    private void sendBatch(List<NoteOperation> batched) {
+        if (batched.isEmpty()) return;
+        for (NoteOperation operation : batched) {
+            unacked.put(operation.getOperationId(), operation);
+        }
+        if (!send(MessageType.NOTE_BATCH, new NoteBatch(new ArrayList<>(batched)))) {
+            for (NoteOperation operation : batched) {
+                unacked.remove(operation.getOperationId());
+                settle(outbound.enqueue(operation), operation.getNoteId());
+            }
+        }
+        batched.clear();
+    }
+
+    private CompletableFuture<BatchResult.OperationResult> sendOrQueue(NoteOperation operation) {
+        switch (operation.getType()) {
+            case CREATE:
+                return sendOrQueue(MessageType.NOTE_CREATE, operation.getNote(), operation);
+            case UPDATE:
+                return sendOrQueue(MessageType.NOTE_UPDATE, operation.getNote(), operation);
+            default:
+                return sendOrQueue(MessageType.NOTE_DELETE, operation.getNoteId(), operation);
+        }
+    }
+
+    private Note applyLocalUpdate(String noteId, String title, String content) {
+        Note existing = replica.get(noteId);
+        if (existing == null) return null;
+
+        Note updated = existing.copy();
+        updated.setTitle(title);
+        updated.setContent(content);
+        updated.updateLastModified();
+        replica.put(updated);
+        return updated;
+    }
+
+    /**
+     * Yêu cầu delta sync từ lastSyncVersion; server tự trả full sync nếu version quá cũ
+     */
+    public void requestSync() {
+        long since = replica.getSyncVersion();
+        if (since <= 0) {
+            requestFullSync();
+            return;
+        }
+        SyncRequest request = new SyncRequest(clientId, since);
+        request.setMetadataOnly(metadataOnly);
+        send(MessageType.SYNC_REQUEST, request);
+    }
+
+    /**
+     * Yêu cầu full sync từ server
+     */
+    public void requestFullSync() {
+        SyncRequest request = new SyncRequest(clientId, 0);
+        request.setFullSync(true);
+        request.setMetadataOnly(metadataOnly);
+        send(MessageType.SYNC_REQUEST, request);
+    }
+
+    /**
+     * Đồng bộ lại riêng các note theo id (ví dụ khi nghi ngờ bị lệch), không ảnh hưởng sync version.
+     * Note không còn trên server sẽ bị xóa khỏi replica.
+     */
+    public void requestNotes(Collection<String> noteIds) {
+        if (noteIds == null || noteIds.isEmpty()) return;
+        SyncRequest request = new SyncRequest(clientId, new ArrayList<>(noteIds));
+        request.setMetadataOnly(metadataOnly);
+        send(MessageType.SYNC_REQUEST, request);
+    }
+
+    /**
+     * Kiểm tra replica với server bằng Merkle hash; chỉ các bucket lệch được trao đổi
+     * và các note lệch được đồng bộ lại qua requestNotes
+     */
+    public void reconcile() {
+        MerkleDigest digest = new MerkleDigest();
+        for (Note note : replica.getAll()) {
+            digest.toggle(note.getId(), note.getVersion());
+        }
+        send(MessageType.RECONCILE_REQUEST, new ReconcileRequest(clientId, digest.getRoot(), digest.getBuckets()));
+    }
+
+    /**
+     * Lấy note kèm content nếu đã có (trong replica hoặc cache), null nếu cần fetchContent
+     */
+    public Note getLoadedNote(String noteId) {
+        Note note = replica.get(noteId);
+        if (note == null || note.getContent() != null) return note;
+        return contentCache.get(noteId, note.getVersion());
+    }
+
+    /**
+     * Yêu cầu content của note từ server; kết quả báo qua onContentLoaded, hoặc onContentUnavailable nếu server không phục vụ được
+     */
+    public void fetchContent(String noteId) {
+        if (noteId == null || getLoadedNote(noteId) != null) return;
+        if (pendingFetches.add(noteId) && !send(MessageType.NOTE_FETCH, noteId)) {
+            pendingFetches.remove(noteId);
+        }
+    }
+
+    /**
+     * Tải trước content của các note (ví dụ các dòng sắp hiển thị)
+     */
+    public void prefetch(Collection<String> noteIds) {
+        for (String noteId : noteIds) {
+            fetchContent(noteId);
+        }
+    }
+
+    public void subscribe(Subscription subscription) {
+        send(MessageType.SUBSCRIBE, subscription);
+    }
+
+    public void unsubscribe(Subscription subscription) {
+        send(MessageType.UNSUBSCRIBE, subscription);
+    }
+
+    // Getters
+    public String getClientId() { return clientId; }
+    public String getClientName() { return clientName; }
+    public String getHost() { return host; }
+    public int getPort() { return port; }
+    public NoteReplica getReplica() { return replica; }
+    public long getLastSyncVersion() { return replica.getSyncVersion(); }
+    public int getPendingOperationCount() { return outbound.size(); }
+    public int getActiveUploadCount() { return chunks.getUploadCount(); }
+
+    private boolean send(MessageType type, Object payload) {
+        return send(new Message(type, clientId, payload));
+    }
+
+    private boolean send(Message message) {
+        TCPConnection tcp = connection;
+        if (connected && tcp != null) {
+            tcp.sendMessage(message);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Gửi thao tác hoặc xếp hàng chờ; future hoàn tất với kết quả server trả cho thao tác,
+     * hoặc cho thao tác đã gộp nó (các lần sửa offline, upload theo chunk bị thay thế)
+     */
+    private CompletableFuture<BatchResult.OperationResult> sendOrQueue(MessageType type, Object payload, NoteOperation operation) {
+        CompletableFuture<BatchResult.OperationResult> future = new CompletableFuture<>();
+        String noteId = operation.getNoteId();
+        String operationId = operation.getOperationId();
+        synchronized (mutationLock) {
+            // A note with queued edits must keep going through the queue so the server sees them in order
+            boolean direct = !outbound.hasPending(noteId) && isConnected();
+            if (direct) {
+                if (operation.getType() == NoteOperation.Type.DELETE) {
+                    // The delete supersedes an upload in progress, whose callers learn the outcome of the delete
+                    if (chunks.cancelUpload(noteId) != null) moveWaiters(uploadWaiters.remove(noteId), operationId);
+                } else if (isLarge(operation.getNote()) || chunks.isUploading(noteId)) {
+                    // Later edits of a note being uploaded replace that upload so they cannot be overtaken by it
+                    chunks.startUpload(operation.getNote(), operation.getType() == NoteOperation.Type.CREATE);
+                    waitersOf(uploadWaiters, noteId).add(future);
+                    return future;
+                }
+            }
+            waitersOf(ackWaiters, operationId).add(future);
+            if (direct) {
+                // The operation id doubles as the message id: MUTATION_ACK echoes it and the server recognises a retry
+                Message message = new Message(type, clientId, payload);
+                message.setMessageId(operationId);
+                unacked.put(operationId, operation);
+                if (send(message)) return future;
+                unacked.remove(operationId);
+            }
+            // Going offline: an interrupted upload is folded into the queue ahead of this edit
+            NoteOperation interrupted = chunks.cancelUpload(noteId);
+            if (interrupted != null) {
+                moveWaiters(uploadWaiters.remove(noteId), interrupted.getOperationId());
+                settle(outbound.enqueue(interrupted), noteId);
+            }
+            settle(outbound.enqueue(operation), noteId);
+        }
+        return future;
+    }
+
+    /**
+     * Chuyển future của các thao tác bị gộp sang thao tác đang chờ của note; nếu chúng triệt tiêu nhau
+     * (tạo rồi xóa khi offline) thì không còn gì để gửi và future hoàn tất ngay. Gọi trong mutationLock
+     */
+    private void settle(List<String> folded, String noteId) {
+        NoteOperation representative = outbound.getPending(noteId);
+        for (String id : folded) {
+            List<CompletableFuture<BatchResult.OperationResult>> waiters = ackWaiters.remove(id);
+            if (representative != null) {
+                moveWaiters(waiters, representative.getOperationId());
+            } else {
+                completeWaiters(waiters, new BatchResult.OperationResult(id, noteId, BatchResult.Status.APPLIED, null));
+            }
+        }
+    }
+
+    private void moveWaiters(List<CompletableFuture<BatchResult.OperationResult>> waiters, String operationId) {
+        if (waiters != null) waitersOf(ackWaiters, operationId).addAll(waiters);
+    }
+
+    private static ExecutorService createSenderPool(int threads) {
+        if (threads <= 0) return null;
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "NoteSyncSession-Sender");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static List<CompletableFuture<BatchResult.OperationResult>> waitersOf(
+            Map<String, List<CompletableFuture<BatchResult.OperationResult>>> waiters, String key) {
+        return waiters.computeIfAbsent(key, k -> new ArrayList<>(1));
+    }
+
+    private static void completeWaiters(List<CompletableFuture<BatchResult.OperationResult>> waiters,
+                                        BatchResult.OperationResult result) {
+        if (waiters == null) return;
+        for (CompletableFuture<BatchResult.OperationResult> waiter : waiters) {
+            waiter.complete(result);
+        }
+    }
+
+    /**
+     * Mutation đã gửi nhưng chưa được xác nhận được đưa vào hàng đợi và replay với cùng id khi kết nối lại;
+     * server trả lại kết quả cũ cho những mutation đã áp dụng
+     */
+    private void requeueUnacked() {
+        synchronized (mutationLock) {
+            stopReplay();
+            if (unacked.isEmpty()) return;
+            List<NoteOperation> sent = new ArrayList<>(unacked.values());
+            unacked.clear();
+            // Newest first, so each one lands ahead of the later edits of its note
+            for (int i = sent.size() - 1; i >= 0; i--) {
+                NoteOperation operation = sent.get(i);
+                settle(outbound.requeue(operation), operation.getNoteId());
+            }
+            logger.info("Requeued " + sent.size() + " unacknowledged mutations");
+        }
+    }
+
+    private boolean isLarge(Note note) {
+        return note != null && note.getContent() != null && note.getContent().length() > chunkThreshold;
+    }
+
+    /**
+     * Gửi batch tiếp theo của hàng đợi (offline hoặc thất bại) nếu không có batch replay nào đang chờ kết quả.
+     * Batch kế tiếp được gửi khi NOTE_BATCH_RESULT về, thêm số thao tác / client.replay.rate giây kể từ lúc đó,
+     * để hàng đợi lớn không vượt rate limit NOTE_BATCH của server
+     */
+    private void replayPending() {
+        synchronized (mutationLock) {
+            if (replayBatchId != null || replayTask != null || !isConnected()) return;
+            long wait = nextReplayNanos - System.nanoTime();
+            if (wait > 0) {
+                replayTask = scheduler.schedule(this::runScheduledReplay, wait, TimeUnit.NANOSECONDS);
+                return;
+            }
+            List<NoteOperation> operations = outbound.beginReplay(replayBatchSize);
+            if (operations.isEmpty()) return;
+            NoteBatch batch = new NoteBatch(operations);
+            logger.info("Replaying " + operations.size() + " queued operations in " + batch.getBatchId());
+            if (send(MessageType.NOTE_BATCH, batch)) {
+                replayBatchId = batch.getBatchId();
+                replayBatchOperations = operations.size();
+            } else {
+                for (NoteOperation operation : operations) {
+                    outbound.release(operation.getOperationId());
+                }
+            }
+        }
+    }
+
+    /**
+     * Thao tác bị server từ chối (FAILED, ví dụ do rate limit) được gửi lại sau backoff có jitter
+     * (client.reconnect.initial.ms tới client.reconnect.max.ms) khi vẫn còn kết nối
+     */
+    private void scheduleRetry() {
+        synchronized (mutationLock) {
+            if (replayTask != null || !isConnected()) return;
+            retryAttempt++;
+            long ceiling = reconnectInitialMs << Math.min(retryAttempt - 1, 20);
+            long delay = ThreadLocalRandom.current().nextLong(Math.min(ceiling, reconnectMaxMs) + 1);
+            replayTask = scheduler.schedule(this::runScheduledReplay, delay, TimeUnit.MILLISECONDS);
+            logger.info("Retrying failed operations in " + delay + "ms");
+        }
+    }
+
+    private void runScheduledReplay() {
+        synchronized (mutationLock) {
+            replayTask = null;
+        }
+        replayPending();
+    }
+
+    /**
+     * Kết nối đóng: batch replay đang chờ sẽ được gửi lại sau khi kết nối lại. Gọi trong mutationLock
+     */
+    private void stopReplay() {
+        if (replayTask != null) {
+            replayTask.cancel(false);
+            replayTask = null;
+        }
+        replayBatchId = null;
+    }
+
+    private void scheduleReconnect() {
+        synchronized (connectionLock) {
+            if (!autoReconnect || closedByUser || connected || reconnectTask != null) return;
+            reconnectAttempt++;
+            // Full jitter keeps a fleet of clients from reconnecting in lockstep after a server restart
+            long ceiling = reconnectInitialMs << Math.min(reconnectAttempt - 1, 20);
+            long delay = ThreadLocalRandom.current().nextLong(Math.min(ceiling, reconnectMaxMs) + 1);
+            int attempt = reconnectAttempt;
+            reconnectTask = scheduler.schedule(() -> connector.execute(this::attemptReconnect), delay, TimeUnit.MILLISECONDS);
+            logger.info("Session " + clientName + " reconnect attempt " + attempt + " in " + delay + "ms");
+            fire(l -> l.onReconnecting(attempt, delay));
+        }
+    }
+
+    private void attemptReconnect() {
+        synchronized (connectionLock) {
+            reconnectTask = null;
+            if (closedByUser || connected) return;
+        }
+        try {
+            // CLIENT_CONNECT carries the replica version, so the server answers with a delta
+            connect();
+        } catch (IOException | RuntimeException e) {
+            logger.fine("Reconnect failed: " + e.getMessage());
+            scheduleReconnect();
+        }
+    }
+
+    private void cancelReconnect() {
+        synchronized (connectionLock) {
+            if (reconnectTask != null) {
+                reconnectTask.cancel(false);
+                reconnectTask = null;
+            }
+        }
+    }
+
+    private void closeConnections() {
+        connected = false;
+        pendingFetches.clear();
+        chunks.clearDownloads();
+        stopHeartbeat();
+        TCPConnection tcp = connection;
+        UDPConnection udp = udpConnection;
+        connection = null;
+        udpConnection = null;
+        try { if (tcp != null) tcp.close(); } catch (Exception ignore) {}
+        try { if (udp != null) udp.stop(); } catch (Exception ignore) {}
+        requeueUnacked();
+    }
+
+    private void startHeartbeat() {
+        stopHeartbeat();
+        heartbeatTask = scheduler.scheduleAtFixedRate(() -> {
+            if (!isConnected()) return;
+            // The server times sessions out after two intervals, so TCP covers any interval whose previous ping was lost
+            if (!sendUdpHeartbeat() || unackedPings.get() > 1) send(MessageType.HEARTBEAT, "ping");
+        }, 0, heartbeatInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Gửi heartbeat UDP nhị phân; false nếu chưa có heartbeat key, không có UDP hoặc server đã ngừng trả ACK
+     */
+    private boolean sendUdpHeartbeat() {
+        UDPConnection udp = udpConnection;
+        TCPConnection tcp = connection;
+        long key = heartbeatKey;
+        if (!udpHeartbeats || udp == null || tcp == null || key == 0) return false;
+        if (unackedPings.get() >= MAX_UNACKED_PINGS) return false;
+
+        long seen = Math.max(deliveredSequence, replica.getSyncVersion());
+        byte[] ping = new HeartbeatDatagram(HeartbeatDatagram.Kind.PING, 0, key, ++pingSequence, seen).encode();
+        try {
+            udp.sendDatagram(ping, tcp.getRemoteInetAddress(), udpServerPort);
+        } catch (IOException | RuntimeException e) {
+            logger.fine("UDP heartbeat failed: " + e.getMessage());
+            return false;
+        }
+        if (unackedPings.incrementAndGet() == MAX_UNACKED_PINGS) {
+            logger.info("No UDP heartbeat acks from server, falling back to TCP heartbeats");
+        }
+        return true;
+    }
+
+    private void stopHeartbeat() {
+        if (heartbeatTask != null) {
+            heartbeatTask.cancel(false);
+            heartbeatTask = null;
+        }
+    }
+
+    private void fire(Consumer<NoteSyncListener> event) {
+        for (NoteSyncListener listener : listeners) {
+            try {
+                event.accept(listener);
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Listener failed", e);
+            }
+        }
+    }
+
+    private void onConnectionLost(TCPConnection source, String reason) {
+        synchronized (connectionLock) {
+            // Ignore callbacks from a connection that was already replaced or closed on purpose
+            if (source != connection) return;
+            closeConnections();
+            outbound.clearInFlight();
+        }
+        logger.warning("Session " + clientName + " lost connection: " + reason);
+        fire(l -> l.onConnectionLost(reason));
+        scheduleReconnect();
+    }
+
+    // Handlers
+    private class ServerHandler implements TCPConnection.MessageHandler {
+        private final TCPConnection source;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private final Map<MessageType, Consumer<Message>> handlers = new EnumMap<>(MessageType.class);
+
+        ServerHandler(TCPConnection source) {
+            this.source = source;
+            handlers.put(MessageType.CONNECT_ACK, this::onConnectAck);
+            handlers.put(MessageType.HEARTBEAT_ACK, m -> {});
+            handlers.put(MessageType.SYNC_RESPONSE, this::onSyncResponse);
+            handlers.put(MessageType.NOTE_CREATED, m -> onNoteUpsert(toNote(m), true));
+            handlers.put(MessageType.NOTE_UPDATED, m -> onNoteUpsert(toNote(m), false));
+            handlers.put(MessageType.NOTE_SYNC, m -> onContentFetched(m.getPayload(Note.class)));
+            handlers.put(MessageType.NOTE_DELETED, m -> onNoteDeleted(m.getPayload(String.class)));
+            handlers.put(MessageType.NOTE_FETCH_FAILED, m -> onFetchFailed(m.getPayload(String.class)));
+            handlers.put(MessageType.NOTE_CHANGES, this::onNoteChanges);
+            handlers.put(MessageType.NOTE_BATCH_RESULT, this::onBatchResult);
+            handlers.put(MessageType.MUTATION_ACK, this::onMutationAck);
+            handlers.put(MessageType.NOTE_CHUNK, m -> onContentFetched(chunks.onChunk(m.getPayload(NoteChunk.class))));
+            handlers.put(MessageType.CHUNK_ACK, this::onChunkAck);
+            handlers.put(MessageType.RECONCILE_RESPONSE, this::onReconcileResponse);
+            handlers.put(MessageType.THROTTLED, m -> onThrottled(m.getPayload(RateLimitNotice.class)));
+            handlers.put(MessageType.ERROR, m -> fire(l -> l.onServerError(m.getPayload(String.class))));
+        }
+
+        @Override
+        public void handleMessage(Message m) {
+            if (m.getType() == MessageType.HEARTBEAT_ACK && hintMode) {
+                // Nothing is pushed in hint mode, so the ack only says whether a hint was lost
+                if (m.getSequence() > replica.getSyncVersion()) schedulePull();
+                return;
+            }
+            // A stamped broadcast at or below the applied sequence is already part of a sync response applied
+            // since it was sent; replaying it would roll the note back
+            if (m.getSequence() > 0 && m.getSequence() <= deliveredSequence && m.getType() != MessageType.HEARTBEAT_ACK) {
+                return;
+            }
+            Consumer<Message> handler = handlers.get(m.getType());
+            if (handler != null) handler.accept(m);
+            else logger.warning("Unknown: " + m.getType());
+            // Stamped broadcasts and heartbeat acks move the resume point once they are applied
+            if (m.getSequence() > deliveredSequence) deliveredSequence = m.getSequence();
+        }
+
+        private void onConnectAck(Message m) {
+            ResumeToken token = m.getPayload(ResumeToken.class);
+            // The token's sequence only counts once the SYNC_RESPONSE that follows has been applied
+            if (token != null) {
+                resumeToken = token;
+                heartbeatKey = token.getHeartbeatKey();
+            }
+            logger.fine("Server ACK connection");
+        }
+
+        private Note toNote(Message m) {
+            Note note = m.getPayload(Note.class);
+            if (note != null) return note;
+            NoteSummary summary = m.getPayload(NoteSummary.class);
+            return summary != null ? fromSummary(summary) : null;
+        }
+
+        /**
+         * Note từ summary; giữ bản local nếu đã có content cùng version
+         */
+        private Note fromSummary(NoteSummary summary) {
+            Note existing = replica.get(summary.getId());
+            if (existing != null && existing.getContent() != null && existing.getVersion() == summary.getVersion()) {
+                return existing;
+            }
+            return summary.toNote();
+        }
+
+        private List<Note> incomingNotes(SyncResponse r) {
+            if (r.getSummaries() == null) return r.getNotes();
+            List<Note> notes = new ArrayList<>(r.getNotes());
+            for (NoteSummary summary : r.getSummaries()) {
+                notes.add(fromSummary(summary));
+            }
+            return notes;
+        }
+
+        private SyncResponse decodeSyncResponse(Message m) {
+            SyncResponse r = m.getPayload(SyncResponse.class);
+            EncodedPayload encoded = m.getPayload(EncodedPayload.class);
+            SnapshotTicket ticket = m.getPayload(SnapshotTicket.class);
+            if (ticket != null) return downloadSnapshot(ticket);
+            if (r != null || encoded == null) return r;
+            // Full syncs arrive as the server's shared pre-serialized snapshot
+            try {
+                Object decoded = encoded.decode();
+                return decoded instanceof SyncResponse ? (SyncResponse) decoded : null;
+            } catch (IOException | ClassNotFoundException e) {
+                logger.log(Level.WARNING, "Failed to decode sync snapshot " + encoded, e);
+                return null;
+            }
+        }
+
+        /**
+         * Tải snapshot dạng file từ cổng snapshot; chạy trên thread đọc để broadcast đến sau được áp dụng sau snapshot
+         */
+        private SyncResponse downloadSnapshot(SnapshotTicket ticket) {
+            long start = System.nanoTime();
+            try (Socket socket = new Socket()) {
+                int timeout = ConfigManager.getInstance().getConnectionTimeout();
+                socket.connect(new InetSocketAddress(host, ticket.getPort()), timeout);
+                socket.setSoTimeout(timeout);
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                out.writeUTF(ticket.getToken());
+                out.flush();
+
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+                if (in.readLong() < 0) {
+                    logger.warning("Server rejected snapshot ticket " + ticket);
+                    return null;
+                }
+                SyncResponse response = SnapshotStream.read(in, ticket.isCompressed());
+                logger.fine("Snapshot downloaded: " + ticket + " in " + (System.nanoTime() - start) / 1_000_000 + "ms");
+                return response;
+            } catch (IOException | ClassNotFoundException | ClassCastException e) {
+                logger.log(Level.WARNING, "Failed to download sync snapshot " + ticket, e);
+                return null;
+            }
+        }
+
+        private void onSyncResponse(Message m) {
+            SyncResponse r = decodeSyncResponse(m);
+            if (r == null || !r.isSuccess() || r.getNotes() == null) return;
+            List<Note> incoming = incomingNotes(r);
+
+            int changes;
+            if (r.isFullSync()) {
+                // Queued offline edits win over the server copy until they are replayed
+                Map<String, Note> merged = new LinkedHashMap<>();
+                for (Note n : incoming) {
+                    merged.put(n.getId(), n);
+                }
+                outbound.overlay(merged);
+                replica.replaceAll(new ArrayList<>(merged.values()), r.getSyncVersion());
+                changes = incoming.size();
+            } else {
+                // Delta (or a ring resume): merge in place, own notes included since the server copy is authoritative
+                for (Note n : incoming) {
+                    if (outbound.hasPending(n.getId()) || isOlderThanReplica(n)) continue;
+                    boolean added = replica.put(n) == null;
+                    fire(l -> l.onNoteChanged(n, added));
+                }
+                changes = incoming.size();
+                if (r.getDeletedNoteIds() != null) {
+                    for (String id : r.getDeletedNoteIds()) {
+                        if (outbound.hasPending(id)) continue;
+                        contentCache.remove(id);
+                        if (replica.remove(id) != null) {
+                            fire(l -> l.onNoteDeleted(id));
+                        }
+                    }
+                    changes += r.getDeletedNoteIds().size();
+                }
+                // A targeted answer covers only the requested ids, so it must not move the version
+                if (!r.isTargeted()) {
+                    replica.setSyncVersion(Math.max(replica.getSyncVersion(), r.getSyncVersion()));
+                }
+            }
+
+            if (r.isFullSync()) {
+                deliveredSequence = r.getSyncVersion();
+            } else if (!r.isTargeted() && r.getSyncVersion() > deliveredSequence) {
+                deliveredSequence = r.getSyncVersion();
+            }
+
+            boolean full = r.isFullSync();
+            int changeCount = changes;
+            fire(l -> l.onSyncCompleted(changeCount, full));
+
+            // A file snapshot is not followed by a server-sent delta; catch up from its version.
+            // Version 0 is an empty store: asking again would just return the same ticket
+            SnapshotTicket ticket = m.getPayload(SnapshotTicket.class);
+            if (ticket != null && ticket.getSequence() > 0) {
+                requestSync();
+            }
+        }
+
+        private void onBatchResult(Message m) {
+            BatchResult result = m.getPayload(BatchResult.class);
+            if (result == null) return;
+
+            boolean stale = false;
+            boolean failed = false;
+            Map<BatchResult.OperationResult, List<CompletableFuture<BatchResult.OperationResult>>> answered = new LinkedHashMap<>();
+            synchronized (mutationLock) {
+                if (result.getBatchId() != null && result.getBatchId().equals(replayBatchId)) {
+                    // Counted from the result: the server has charged the batch by then
+                    replayBatchId = null;
+                    nextReplayNanos = System.nanoTime() + (long) (replayBatchOperations * 1_000_000_000L / replayRate);
+                }
+                for (BatchResult.OperationResult op : result.getResults()) {
+                    answered.put(op, ackWaiters.remove(op.getOperationId()));
+                    NoteOperation sent = unacked.remove(op.getOperationId());
+                    if (op.getStatus() == BatchResult.Status.FAILED) {
+                        // Kept in the queue and retried after a backoff
+                        failed = true;
+                        if (sent != null) {
+                            settle(outbound.requeue(sent), sent.getNoteId());
+                        } else {
+                            outbound.release(op.getOperationId());
+                        }
+                        logger.warning("Batched operation on " + op.getNoteId() + " failed: " + op.getError());
+                        continue;
+                    }
+                    if (foldIntoQueuedCreate(sent, op, answered.get(op))) {
+                        answered.remove(op);
+                        continue;
+                    }
+                    outbound.complete(op.getNoteId(), op.getOperationId());
+                    adoptCommitted(sent, op.getVersion(), op.getLastModified());
+                    // A conflict or a note deleted elsewhere leaves the local copy stale
+                    stale |= op.getStatus() != BatchResult.Status.APPLIED;
+                }
+            }
+            answered.forEach((op, waiters) -> completeWaiters(waiters, op));
+            fire(l -> l.onBatchApplied(result));
+            if (stale) requestSync();
+            continueReplay(failed);
+        }
+
+        /**
+         * Sau một kết quả: thất bại thì thử lại sau backoff, thành công thì gửi tiếp phần còn lại của hàng đợi
+         */
+        private void continueReplay(boolean failed) {
+            if (failed) {
+                scheduleRetry();
+                return;
+            }
+            synchronized (mutationLock) {
+                retryAttempt = 0;
+            }
+            replayPending();
+        }
+
+        private void onMutationAck(Message m) {
+            BatchResult.OperationResult result = m.getPayload(BatchResult.OperationResult.class);
+            String operationId = m.getCorrelationId();
+            if (result == null || operationId == null) return;
+
+            List<CompletableFuture<BatchResult.OperationResult>> waiters;
+            synchronized (mutationLock) {
+                waiters = ackWaiters.remove(operationId);
+                NoteOperation operation = unacked.remove(operationId);
+                if (result.getStatus() == BatchResult.Status.FAILED) {
+                    logger.warning("Mutation " + operationId + " failed: " + result.getError());
+                    // Kept in the queue ahead of later edits of the note and retried after a backoff
+                    if (operation != null) settle(outbound.requeue(operation), operation.getNoteId());
+                } else if (foldIntoQueuedCreate(operation, result, waiters)) {
+                    return;
+                } else {
+                    // Answers a send that was requeued when the connection dropped
+                    outbound.complete(result.getNoteId(), operationId);
+                    adoptCommitted(operation, result.getVersion(), result.getLastModified());
+                }
+            }
+            completeWaiters(waiters, result);
+            // A conflict or a note deleted elsewhere leaves the local copy stale
+            if (result.getStatus() == BatchResult.Status.CONFLICT || result.getStatus() == BatchResult.Status.NOT_FOUND) {
+                requestSync();
+            }
+            continueReplay(result.getStatus() == BatchResult.Status.FAILED);
+        }
+
+        /**
+         * Bản sửa được gửi khi lệnh tạo note chưa được ack, rồi lệnh tạo đó bị FAILED và nằm lại trong hàng đợi:
+         * server trả NOT_FOUND cho bản sửa, nên gộp nó vào lệnh tạo đang chờ thay vì bỏ. Gọi trong mutationLock
+         */
+        private boolean foldIntoQueuedCreate(NoteOperation sent, BatchResult.OperationResult result,
+                                             List<CompletableFuture<BatchResult.OperationResult>> waiters) {
+            if (sent == null || sent.getType() != NoteOperation.Type.UPDATE || result.getStatus() != BatchResult.Status.NOT_FOUND) {
+                return false;
+            }
+            NoteOperation queued = outbound.getPending(sent.getNoteId());
+            if (queued == null || queued.getType() != NoteOperation.Type.CREATE) return false;
+            // Callers learn the outcome of the queued create instead
+            moveWaiters(waiters, sent.getOperationId());
+            settle(outbound.enqueue(sent), sent.getNoteId());
+            return true;
+        }
+
+        private void onChunkAck(Message m) {
+            ChunkAck ack = m.getPayload(ChunkAck.class);
+            ChunkTransfers.Upload upload = ack != null ? chunks.onAck(ack) : null;
+            if (upload == null) return;
+
+            long acked = ack.isComplete() ? upload.getTotal() : upload.getAcked();
+            fire(l -> l.onUploadProgress(upload.getNoteId(), acked, upload.getTotal()));
+            if (ack.isComplete()) {
+                List<CompletableFuture<BatchResult.OperationResult>> waiters;
+                synchronized (mutationLock) {
+                    waiters = uploadWaiters.remove(upload.getNoteId());
+                    if (ack.getStatus() == BatchResult.Status.APPLIED) {
+                        adoptCommitted(upload.getNote(), ack.getVersion(), ack.getLastModified());
+                    }
+                }
+                BatchResult.OperationResult result = new BatchResult.OperationResult(ack.getTransferId(), upload.getNoteId(), ack.getStatus(), null);
+                result.setSequence(ack.getSequence());
+                result.setVersion(ack.getVersion());
+                result.setLastModified(ack.getLastModified());
+                completeWaiters(waiters, result);
+            }
+            if (ack.isComplete() && ack.getStatus() != BatchResult.Status.APPLIED) {
+                logger.warning("Chunked upload of " + upload.getNoteId() + " finished with " + ack.getStatus());
+                fire(l -> l.onServerError("Upload of note " + upload.getNoteId() + " failed: " + ack.getStatus()));
+                // A conflict or a note deleted elsewhere leaves the local copy stale
+                requestSync();
+            }
+        }
+
+        private void onReconcileResponse(Message m) {
+            ReconcileResponse r = m.getPayload(ReconcileResponse.class);
+            if (r == null) return;
+
+            Map<Integer, Map<String, Long>> serverBuckets = r.getBucketEntries();
+            Set<String> divergent = new LinkedHashSet<>();
+            Set<String> seen = new HashSet<>();
+            if (!r.isMatched()) {
+                for (Note note : replica.getAll()) {
+                    Map<String, Long> serverEntries = serverBuckets.get(MerkleDigest.bucketOf(note.getId()));
+                    if (serverEntries == null) continue;
+                    seen.add(note.getId());
+                    Long serverVersion = serverEntries.get(note.getId());
+                    // Missing on the server: the targeted sync reports it as deleted
+                    if (serverVersion == null || serverVersion != note.getVersion()) divergent.add(note.getId());
+                }
+                for (Map<String, Long> serverEntries : serverBuckets.values()) {
+                    for (String id : serverEntries.keySet()) {
+                        if (!seen.contains(id)) divergent.add(id);
+                    }
+                }
+                // Queued offline edits differ on purpose and are settled by the replay
+                divergent.removeIf(outbound::hasPending);
+            }
+
+            logger.info("Reconcile: " + serverBuckets.size() + " buckets differ, " + divergent.size() + " notes to resync");
+            requestNotes(divergent);
+            int count = divergent.size();
+            fire(l -> l.onReconciled(count));
+        }
+
+        private void onNoteChanges(Message m) {
+            SyncResponse r = m.getPayload(SyncResponse.class);
+            if (r == null || r.getNotes() == null) return;
+            for (Note n : incomingNotes(r)) {
+                onNoteUpsert(n, false);
+            }
+            if (r.getDeletedNoteIds() != null) {
+                for (String id : r.getDeletedNoteIds()) {
+                    onNoteDeleted(id);
+                }
+            }
+        }
+
+        private void onNoteUpsert(Note n, boolean isNew) {
+            if (n == null || clientId.equals(n.getAuthorId()) || outbound.hasPending(n.getId()) || isOlderThanReplica(n)) return;
+            boolean added = replica.put(n) == null;
+            fire(l -> l.onNoteChanged(n, isNew || added));
+        }
+
+        private void adoptCommitted(NoteOperation sent, long version, LocalDateTime lastModified) {
+            if (sent != null && sent.getType() != NoteOperation.Type.DELETE) adoptCommitted(sent.getNote(), version, lastModified);
+        }
+
+        /**
+         * Server tăng version và lastModified khi ghi: replica nhận các giá trị đã commit, trừ khi note đã được
+         * sửa tiếp ở local (bản đó sẽ được gửi sau với version cao hơn). Gọi trong mutationLock
+         */
+        private void adoptCommitted(Note sent, long version, LocalDateTime lastModified) {
+            if (sent == null || version <= 0 || outbound.hasPending(sent.getId())) return;
+            Note current = replica.get(sent.getId());
+            if (current == null || current.getVersion() != sent.getVersion() || current.getVersion() == version) return;
+            Note committed = current.copy();
+            committed.setVersion(version);
+            committed.setLastModified(lastModified);
+            replica.put(committed);
+        }
+
+        /**
+         * Một response được dựng trước broadcast có thể tới sau nó: bản cũ hơn replica bị bỏ qua
+         */
+        private boolean isOlderThanReplica(Note n) {
+            Note current = replica.get(n.getId());
+            return current != null && current.getVersion() > n.getVersion();
+        }
+
+        private void onContentFetched(Note n) {
+            if (n == null) return;
+            pendingFetches.remove(n.getId());
+            contentCache.put(n);
+            Note current = replica.get(n.getId());
+            if (current != null && n.getVersion() > current.getVersion() && !outbound.hasPending(n.getId())) {
+                // The fetch raced ahead of the broadcast; keep the replica light but current
+                Note summary = new NoteSummary(n).toNote();
+                replica.put(summary);
+                fire(l -> l.onNoteChanged(summary, false));
+            }
+            fire(l -> l.onContentLoaded(n));
+        }
+
+        private void onFetchFailed(String id) {
+            if (id == null) return;
+            // Free the id so the next fetchContent asks again instead of waiting for a reply that never comes
+            pendingFetches.remove(id);
+            chunks.cancelDownload(id);
+            fire(l -> l.onContentUnavailable(id));
+        }
+
+        private void onNoteDeleted(String id) {
+            if (id == null) return;
+            pendingFetches.remove(id);
+            contentCache.remove(id);
+            if (outbound.hasPending(id)) return;
+            if (replica.remove(id) != null) {
+                fire(l -> l.onNoteDeleted(id));
+            }
+        }
+
+        @Override
+        public void onConnectionClosed() {
+            if (closed.compareAndSet(false, true)) onConnectionLost(source, "Connection to server lost");
+        }
+
+        @Override
+        public void onConnectionError(Exception e) {
+            if (closed.compareAndSet(false, true)) onConnectionLost(source, "Connection error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Kéo delta sau hintPullDelayMs; các hint đến trong khoảng đó dùng chung một lần kéo
+     */
+    private void schedulePull() {
+        if (!pullScheduled.compareAndSet(false, true)) return;
+        scheduler.schedule(() -> {
+            pullScheduled.set(false);
+            if (isConnected()) requestSync();
+        }, hintPullDelayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Gửi lại request bị THROTTLED sau thời gian server báo; các sync bị từ chối trong lúc chờ dùng chung một lần gửi lại
+     */
+    private void onThrottled(RateLimitNotice notice) {
+        if (notice == null || notice.getRequestType() == null) return;
+        long delay = notice.getRetryAfterMs();
+        switch (notice.getRequestType()) {
+            case SYNC_REQUEST:
+                SyncRequest request = notice.getRequest(SyncRequest.class);
+                if (request == null) return;
+                if (request.getRequestedNoteIds() != null) {
+                    throttledNoteIds.addAll(request.getRequestedNoteIds());
+                } else if (request.isFullSync()) {
+                    throttledFullSync = true;
+                } else {
+                    throttledDeltaSync = true;
+                }
+                if (syncRetryScheduled.compareAndSet(false, true)) {
+                    scheduler.schedule(this::retryThrottledSync, delay, TimeUnit.MILLISECONDS);
+                }
+                break;
+            case RECONCILE_REQUEST:
+                if (reconcileRetryScheduled.compareAndSet(false, true)) {
+                    scheduler.schedule(() -> {
+                        reconcileRetryScheduled.set(false);
+                        if (isConnected()) reconcile();
+                    }, delay, TimeUnit.MILLISECONDS);
+                }
+                break;
+            case NOTE_FETCH:
+                String noteId = notice.getRequest(String.class);
+                if (noteId == null) return;
+                // The id stays pending meanwhile so fetchContent does not send duplicates; a reconnect clears it.
+                // Each waiting fetch gets its own refill interval instead of all retrying at once
+                int waiting = throttledFetches.incrementAndGet();
+                scheduler.schedule(() -> {
+                    throttledFetches.decrementAndGet();
+                    if (pendingFetches.remove(noteId)) fetchContent(noteId);
+                }, delay * waiting, TimeUnit.MILLISECONDS);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void retryThrottledSync() {
+        syncRetryScheduled.set(false);
+        boolean full = throttledFullSync;
+        boolean delta = throttledDeltaSync;
+        throttledFullSync = false;
+        throttledDeltaSync = false;
+        List<String> noteIds = new ArrayList<>(throttledNoteIds);
+        throttledNoteIds.removeAll(noteIds);
+        // A reconnect syncs anyway, so nothing is kept for the next connection
+        if (!isConnected()) return;
+        if (full) {
+            requestFullSync();
+            return;
+        }
+        if (delta) requestSync();
+        requestNotes(noteIds);
+    }
+
+    private class UDPHandler implements UDPConnection.MessageHandler, UDPConnection.DatagramHandler {
+        @Override public void handleMessage(Message message, InetAddress sender, int senderPort) {}
+        @Override public void onError(Exception e) { logger.log(Level.WARNING, "UDP error", e); }
+
+        @Override
+        public void handleDatagram(ByteBuffer data, InetAddress sender, int senderPort) {
+            if (HeartbeatDatagram.isHeartbeat(data)) {
+                onHeartbeatAck(HeartbeatDatagram.decode(data), sender);
+                return;
+            }
+            InvalidationHint hint = InvalidationHint.decode(data);
+            TCPConnection tcp = connection;
+            // Only the server we are connected to may trigger pulls
+            if (hint == null || !hintMode || tcp == null || !sender.equals(tcp.getRemoteInetAddress())) return;
+            logger.fine("Hint: " + hint);
+            if (hint.getSequence() > replica.getSyncVersion()) schedulePull();
+        }
+
+        private void onHeartbeatAck(HeartbeatDatagram ack, InetAddress sender) {
+            TCPConnection tcp = connection;
+            if (ack == null || ack.getKind() != HeartbeatDatagram.Kind.ACK || tcp == null
+                    || ack.getHeartbeatKey() != heartbeatKey || !sender.equals(tcp.getRemoteInetAddress())) return;
+            unackedPings.set(0);
+
+            if (ack.hasFlag(HeartbeatDatagram.FLAG_UNKNOWN_SESSION)) {
+                // The server dropped this session (e.g. a half-open TCP connection): start over
+                scheduler.execute(() -> onConnectionLost(tcp, "Session unknown to server"));
+                return;
+            }
+            long seen = Math.max(deliveredSequence, replica.getSyncVersion());
+            if (!ack.hasFlag(HeartbeatDatagram.FLAG_BEHIND) || ack.getChangeSequence() <= seen) {
+                behindSequence = 0;
+                return;
+            }
+            // Pushed changes are normally still in flight; only pull when nothing arrived since the last ack
+            if (hintMode || ack.getChangeSequence() == behindSequence) schedulePull();
+            behindSequence = ack.getChangeSequence();
+        }
+    }
+}
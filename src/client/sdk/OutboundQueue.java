@@ -0,0 +1,177 @@
+package client.sdk;
+
+import common.models.Note;
+import common.models.NoteOperation;
+import common.utils.LoggerUtil;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hàng đợi thao tác chưa gửi được lên server (offline).
+ * Mỗi note chỉ giữ một thao tác: các lần sửa liên tiếp được gộp lại trước khi replay.
+ */
+public class OutboundQueue {
+    private static final Logger logger = LoggerUtil.getLogger(OutboundQueue.class);
+    
+    private final Map<String, NoteOperation> pending = new LinkedHashMap<>();
+    private final Set<String> inFlight = new HashSet<>();
+    private ReplicaStore store;
+    
+    /**
+     * Gắn store và nạp các thao tác còn tồn từ lần chạy trước
+     */
+    public synchronized void attachStore(ReplicaStore store) {
+        this.store = store;
+        for (NoteOperation operation : store.getPendingOperations()) {
+            pending.put(operation.getNoteId(), operation);
+        }
+    }
+    
+    public synchronized void detachStore() {
+        this.store = null;
+    }
+    
+    /**
+     * Thêm thao tác, gộp với thao tác đang chờ của cùng note.
+     * Trả về id các thao tác đã bị gộp mất (không còn được gửi dưới id của chúng)
+     */
+    public synchronized List<String> enqueue(NoteOperation operation) {
+        NoteOperation previous = pending.get(operation.getNoteId());
+        boolean previousSent = previous != null && inFlight.contains(previous.getOperationId());
+        return store(previous, operation, merge(previous, operation, previousSent));
+    }
+    
+    /**
+     * Đưa lại thao tác đã gửi nhưng chưa được xác nhận (mất kết nối), đứng trước thao tác đang chờ của cùng note.
+     * Trả về id các thao tác đã bị gộp mất
+     */
+    public synchronized List<String> requeue(NoteOperation operation) {
+        NoteOperation newer = pending.get(operation.getNoteId());
+        if (newer == null) return store(null, operation, operation);
+        // The server may already have applied it, so it counts as sent
+        return store(operation, newer, merge(operation, newer, true));
+    }
+    
+    private List<String> store(NoteOperation previous, NoteOperation next, NoteOperation merged) {
+        String noteId = next.getNoteId();
+        pending.remove(noteId);
+        if (merged == null) {
+            persistRemove(noteId);
+        } else {
+            pending.put(noteId, merged);
+            persistPut(merged);
+        }
+        
+        List<String> folded = new ArrayList<>(2);
+        if (previous != null && previous != merged) folded.add(previous.getOperationId());
+        if (next != merged) folded.add(next.getOperationId());
+        return folded;
+    }
+    
+    private NoteOperation merge(NoteOperation previous, NoteOperation next, boolean previousSent) {
+        if (previous == null || next.getType() == NoteOperation.Type.CREATE) return next;
+        
+        switch (previous.getType()) {
+            case CREATE:
+                if (next.getType() == NoteOperation.Type.UPDATE) {
+                    // Still a create as far as the server is concerned
+                    return new NoteOperation(NoteOperation.Type.CREATE, next.getNote());
+                }
+                // Created and deleted offline: nothing to send unless the create is already on the wire
+                return previousSent ? next : null;
+            case UPDATE:
+            case DELETE:
+            default:
+                return next;
+        }
+    }
+    
+    /**
+     * Lấy tối đa max thao tác để replay và đánh dấu đang gửi
+     */
+    public synchronized List<NoteOperation> beginReplay(int max) {
+        List<NoteOperation> batch = new ArrayList<>();
+        for (NoteOperation operation : pending.values()) {
+            if (batch.size() >= max) break;
+            if (inFlight.add(operation.getOperationId())) {
+                batch.add(operation);
+            }
+        }
+        return batch;
+    }
+    
+    /**
+     * Server đã xử lý thao tác; chỉ xóa nếu thao tác đó chưa bị thay bằng lần sửa mới hơn
+     */
+    public synchronized void complete(String noteId, String operationId) {
+        inFlight.remove(operationId);
+        NoteOperation current = pending.get(noteId);
+        if (current != null && current.getOperationId().equals(operationId)) {
+            pending.remove(noteId);
+            persistRemove(noteId);
+        }
+    }
+    
+    /**
+     * Thao tác gửi thất bại, giữ lại để replay lần sau
+     */
+    public synchronized void release(String operationId) {
+        inFlight.remove(operationId);
+    }
+    
+    /**
+     * Mất kết nối: các thao tác đang gửi sẽ được gửi lại khi reconnect
+     */
+    public synchronized void clearInFlight() {
+        inFlight.clear();
+    }
+    
+    public synchronized boolean hasPending(String noteId) {
+        return pending.containsKey(noteId);
+    }
+    
+    /**
+     * Thao tác đang chờ của note, null nếu không có
+     */
+    public synchronized NoteOperation getPending(String noteId) {
+        return pending.get(noteId);
+    }
+    
+    /**
+     * Áp các thao tác đang chờ lên dữ liệu từ server để không mất sửa đổi local
+     */
+    public synchronized void overlay(Map<String, Note> notes) {
+        for (NoteOperation operation : pending.values()) {
+            if (operation.getType() == NoteOperation.Type.DELETE) {
+                notes.remove(operation.getNoteId());
+            } else if (operation.getNote() != null) {
+                notes.put(operation.getNoteId(), operation.getNote());
+            }
+        }
+    }
+    
+    public synchronized int size() {
+        return pending.size();
+    }
+    
+    private void persistPut(NoteOperation operation) {
+        if (store == null) return;
+        try {
+            store.putPending(operation);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to persist pending operation " + operation, e);
+        }
+    }
+    
+    private void persistRemove(String noteId) {
+        if (store == null) return;
+        try {
+            store.removePending(noteId);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to persist pending removal for " + noteId, e);
+        }
+    }
+}
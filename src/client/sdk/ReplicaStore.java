@@ -0,0 +1,417 @@
+package client.sdk;
+
+import common.models.Note;
+import common.models.NoteOperation;
+import common.utils.LoggerUtil;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Lưu replica của client (notes, sync version, thao tác chưa gửi) xuống đĩa dưới dạng append log gọn nhẹ.
+ * Mỗi record: [length][crc32][payload]; record hỏng ở cuối file (crash khi đang ghi) bị cắt bỏ khi mở.
+ * Log được compact thành snapshot khi số record vượt quá nhiều lần số note còn sống.
+ */
+public class ReplicaStore implements Closeable {
+    private static final Logger logger = LoggerUtil.getLogger(ReplicaStore.class);
+
+    private static final int MAGIC = 0x4E535250; // "NSRP"
+    private static final byte REC_PUT = 1;
+    private static final byte REC_DELETE = 2;
+    private static final byte REC_VERSION = 3;
+    private static final byte REC_CLIENT_ID = 4;
+    private static final byte REC_PENDING = 5;
+    private static final byte REC_PENDING_REMOVE = 6;
+    private static final int MIN_COMPACT_RECORDS = 1000;
+
+    private final Path path;
+    private final boolean fsync;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private final ByteArrayOutputStream scratch = new ByteArrayOutputStream(256);
+    private final DataOutputStream scratchOut = new DataOutputStream(scratch);
+    private final CRC32 crc = new CRC32();
+
+    private FileChannel channel;
+    private Map<String, Note> loadedNotes = new HashMap<>();
+    private final Map<String, NoteOperation> pendingOps = new LinkedHashMap<>();
+    private long syncVersion;
+    private String clientId;
+    private int recordCount;
+
+    private ReplicaStore(Path path, boolean fsync, FileChannel lockChannel, FileLock lock) {
+        this.path = path;
+        this.fsync = fsync;
+        this.lockChannel = lockChannel;
+        this.lock = lock;
+    }
+
+    /**
+     * Mở (hoặc tạo) replica file và đọc lại toàn bộ log
+     */
+    public static ReplicaStore open(File file, boolean fsync) throws IOException {
+        Path path = file.toPath().toAbsolutePath();
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+
+        // Lock a side file: snapshots replace the replica file itself via rename
+        FileChannel lockChannel = FileChannel.open(Paths.get(path + ".lock"),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock = lockChannel.tryLock();
+        if (lock == null) {
+            lockChannel.close();
+            throw new IOException("Replica is already in use by another client: " + path);
+        }
+
+        ReplicaStore store = new ReplicaStore(path, fsync, lockChannel, lock);
+        try {
+            store.load();
+        } catch (IOException e) {
+            store.close();
+            throw e;
+        }
+        return store;
+    }
+
+    private void load() throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        if (size == 0) {
+            writeHeader(channel);
+            return;
+        }
+
+        long validEnd = 4;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(0)), 1 << 16));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a replica file: " + path);
+        }
+        try {
+            while (validEnd < size) {
+                int length = in.readInt();
+                int checksum = in.readInt();
+                if (length <= 0 || validEnd + 8 + length > size) break;
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                crc.reset();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != checksum) break;
+                apply(new DataInputStream(new ByteArrayInputStream(payload)));
+                recordCount++;
+                validEnd += 8 + length;
+            }
+        } catch (EOFException e) {
+            // Torn last record, truncated below
+        }
+
+        if (validEnd < size) {
+            logger.warning("Replica " + path + " has a damaged tail, truncating " + (size - validEnd) + " bytes");
+            channel.truncate(validEnd);
+        }
+        channel.position(channel.size());
+        logger.info("Replica loaded: " + loadedNotes.size() + " notes, version " + syncVersion);
+    }
+
+    private void apply(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case REC_PUT:
+                Note note = readNote(in);
+                loadedNotes.put(note.getId(), note);
+                break;
+            case REC_DELETE:
+                loadedNotes.remove(readString(in));
+                break;
+            case REC_VERSION:
+                syncVersion = in.readLong();
+                break;
+            case REC_CLIENT_ID:
+                clientId = readString(in);
+                break;
+            case REC_PENDING:
+                NoteOperation operation = readOperation(in);
+                pendingOps.remove(operation.getNoteId());
+                pendingOps.put(operation.getNoteId(), operation);
+                break;
+            case REC_PENDING_REMOVE:
+                pendingOps.remove(readString(in));
+                break;
+            default:
+                throw new IOException("Unknown replica record type " + type);
+        }
+    }
+
+    /**
+     * Lấy notes đọc được khi mở file; store không giữ lại map này sau khi gọi
+     */
+    public Map<String, Note> drainLoadedNotes() {
+        Map<String, Note> drained = loadedNotes;
+        loadedNotes = new HashMap<>();
+        return drained;
+    }
+
+    public long getSyncVersion() { return syncVersion; }
+    public String getClientId() { return clientId; }
+    public Path getPath() { return path; }
+
+    public synchronized void putNote(Note note) throws IOException {
+        beginRecord(REC_PUT);
+        writeNote(scratchOut, note);
+        appendRecord();
+    }
+
+    public synchronized void deleteNote(String noteId) throws IOException {
+        beginRecord(REC_DELETE);
+        writeString(scratchOut, noteId);
+        appendRecord();
+    }
+
+    /**
+     * Thao tác chưa gửi lên server, theo thứ tự ghi
+     */
+    public synchronized List<NoteOperation> getPendingOperations() {
+        return new ArrayList<>(pendingOps.values());
+    }
+
+    /**
+     * Lưu thao tác chờ gửi, thay thế thao tác cũ của cùng note
+     */
+    public synchronized void putPending(NoteOperation operation) throws IOException {
+        pendingOps.remove(operation.getNoteId());
+        pendingOps.put(operation.getNoteId(), operation);
+        beginRecord(REC_PENDING);
+        writeOperation(scratchOut, operation);
+        appendRecord();
+    }
+
+    public synchronized void removePending(String noteId) throws IOException {
+        if (pendingOps.remove(noteId) == null) return;
+        beginRecord(REC_PENDING_REMOVE);
+        writeString(scratchOut, noteId);
+        appendRecord();
+    }
+
+    public synchronized void setSyncVersion(long version) throws IOException {
+        this.syncVersion = version;
+        beginRecord(REC_VERSION);
+        scratchOut.writeLong(version);
+        appendRecord();
+    }
+
+    public synchronized void setClientId(String clientId) throws IOException {
+        if (Objects.equals(this.clientId, clientId)) return;
+        this.clientId = clientId;
+        beginRecord(REC_CLIENT_ID);
+        writeString(scratchOut, clientId);
+        appendRecord();
+    }
+
+    /**
+     * Có nên compact log không, dựa trên số note còn sống
+     */
+    public synchronized boolean needsCompaction(int liveNotes) {
+        return recordCount > Math.max(MIN_COMPACT_RECORDS, (liveNotes + pendingOps.size()) * 2L);
+    }
+
+    /**
+     * Ghi snapshot mới ra file tạm rồi thay thế file cũ một cách atomic
+     */
+    public synchronized void writeSnapshot(Collection<Note> notes, long version) throws IOException {
+        Path tmp = Paths.get(path + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeHeader(out);
+            int records = 0;
+            ByteBuffer batch = ByteBuffer.allocate(1 << 16);
+            if (clientId != null) {
+                beginRecord(REC_CLIENT_ID);
+                writeString(scratchOut, clientId);
+                batch = bufferRecord(out, batch);
+                records++;
+            }
+            for (Note note : notes) {
+                beginRecord(REC_PUT);
+                writeNote(scratchOut, note);
+                batch = bufferRecord(out, batch);
+                records++;
+            }
+            for (NoteOperation operation : pendingOps.values()) {
+                beginRecord(REC_PENDING);
+                writeOperation(scratchOut, operation);
+                batch = bufferRecord(out, batch);
+                records++;
+            }
+            beginRecord(REC_VERSION);
+            scratchOut.writeLong(version);
+            batch = bufferRecord(out, batch);
+            records++;
+            flushBuffer(out, batch);
+            out.force(true);
+            recordCount = records;
+        }
+
+        channel.close();
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        this.syncVersion = version;
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            if (channel != null && channel.isOpen()) {
+                channel.force(true);
+                channel.close();
+            }
+        } catch (IOException e) {
+            logger.warning("Error closing replica: " + e.getMessage());
+        }
+        try {
+            if (lock.isValid()) lock.release();
+            lockChannel.close();
+        } catch (IOException e) {
+            logger.warning("Error releasing replica lock: " + e.getMessage());
+        }
+    }
+
+    private void beginRecord(byte type) throws IOException {
+        scratch.reset();
+        scratchOut.writeByte(type);
+    }
+
+    private void appendRecord() throws IOException {
+        ByteBuffer record = encodeRecord();
+        while (record.hasRemaining()) {
+            channel.write(record);
+        }
+        if (fsync) {
+            channel.force(false);
+        }
+        recordCount++;
+    }
+
+    private ByteBuffer encodeRecord() {
+        byte[] payload = scratch.toByteArray();
+        crc.reset();
+        crc.update(payload, 0, payload.length);
+        ByteBuffer record = ByteBuffer.allocate(8 + payload.length);
+        record.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+        record.flip();
+        return record;
+    }
+
+    private ByteBuffer bufferRecord(FileChannel out, ByteBuffer batch) throws IOException {
+        ByteBuffer record = encodeRecord();
+        if (record.remaining() > batch.remaining()) {
+            flushBuffer(out, batch);
+            if (record.remaining() > batch.capacity()) {
+                while (record.hasRemaining()) out.write(record);
+                return batch;
+            }
+        }
+        batch.put(record);
+        return batch;
+    }
+
+    private static void flushBuffer(FileChannel out, ByteBuffer batch) throws IOException {
+        batch.flip();
+        while (batch.hasRemaining()) out.write(batch);
+        batch.clear();
+    }
+
+    private static void writeHeader(FileChannel out) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(4).putInt(MAGIC);
+        header.flip();
+        out.write(header, 0);
+        out.position(4);
+    }
+
+    private static void writeNote(DataOutputStream out, Note note) throws IOException {
+        writeString(out, note.getId());
+        writeString(out, note.getTitle());
+        writeString(out, note.getContent());
+        writeString(out, note.getAuthorId());
+        writeDateTime(out, note.getCreatedAt());
+        writeDateTime(out, note.getLastModified());
+        out.writeLong(note.getVersion());
+    }
+
+    private static Note readNote(DataInputStream in) throws IOException {
+        Note note = new Note();
+        note.setId(readString(in));
+        note.setTitle(readString(in));
+        note.setContent(readString(in));
+        note.setAuthorId(readString(in));
+        note.setCreatedAt(readDateTime(in));
+        note.setLastModified(readDateTime(in));
+        note.setVersion(in.readLong());
+        return note;
+    }
+
+    private static void writeOperation(DataOutputStream out, NoteOperation operation) throws IOException {
+        out.writeByte(operation.getType().ordinal());
+        writeString(out, operation.getOperationId());
+        writeString(out, operation.getNoteId());
+        out.writeBoolean(operation.getNote() != null);
+        if (operation.getNote() != null) {
+            writeNote(out, operation.getNote());
+        }
+    }
+
+    private static NoteOperation readOperation(DataInputStream in) throws IOException {
+        NoteOperation operation = new NoteOperation();
+        operation.setType(NoteOperation.Type.values()[in.readByte()]);
+        operation.setOperationId(readString(in));
+        operation.setNoteId(readString(in));
+        if (in.readBoolean()) {
+            operation.setNote(readNote(in));
+        }
+        return operation;
+    }
+
+    // Length-prefixed UTF-8 (writeUTF is limited to 64KB, note content is not)
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeDateTime(DataOutputStream out, LocalDateTime value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(value.toEpochSecond(ZoneOffset.UTC));
+            out.writeInt(value.getNano());
+        }
+    }
+
+    private static LocalDateTime readDateTime(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) return null;
+        long seconds = in.readLong();
+        int nanos = in.readInt();
+        return LocalDateTime.ofEpochSecond(seconds, nanos, ZoneOffset.UTC);
+    }
+}
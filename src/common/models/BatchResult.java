@@ -0,0 +1,99 @@
+package common.models;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Kết quả xử lý NoteBatch, mỗi thao tác có một kết quả riêng
+ */
+public class BatchResult implements Serializable {
+    private static final long serialVersionUID = 1L;
+    
+    public enum Status { APPLIED, CONFLICT, NOT_FOUND, FAILED }
+    
+    private String batchId;
+    private List<OperationResult> results;
+    
+    public BatchResult() {
+        this.results = new ArrayList<>();
+    }
+    
+    public BatchResult(String batchId) {
+        this();
+        this.batchId = batchId;
+    }
+    
+    public void addResult(NoteOperation operation, Status status, String error) {
+        results.add(new OperationResult(operation.getOperationId(), operation.getNoteId(), status, error));
+    }
+    
+    // Getters
+    public String getBatchId() { return batchId; }
+    public List<OperationResult> getResults() { return results; }
+    
+    // Setters
+    public void setBatchId(String batchId) { this.batchId = batchId; }
+    public void setResults(List<OperationResult> results) { this.results = results; }
+    
+    @Override
+    public String toString() {
+        return String.format("BatchResult{id='%s', results=%d}", batchId, results.size());
+    }
+    
+    /**
+     * Kết quả của một thao tác trong batch
+     */
+    public static class OperationResult implements Serializable {
+        private static final long serialVersionUID = 1L;
+        
+        private String operationId;
+        private String noteId;
+        private Status status;
+        private String error;
+        private long sequence; // Change sequence đã commit khi APPLIED, 0 nếu không ghi gì
+        private long version; // Version server đã ghi cho note (create/update APPLIED), 0 nếu không có
+        private LocalDateTime lastModified; // lastModified server đã ghi, đi cùng version
+        
+        public OperationResult() {}
+        
+        public OperationResult(String operationId, String noteId, Status status, String error) {
+            this.operationId = operationId;
+            this.noteId = noteId;
+            this.status = status;
+            this.error = error;
+        }
+        
+        // Getters
+        public String getOperationId() { return operationId; }
+        public String getNoteId() { return noteId; }
+        public Status getStatus() { return status; }
+        public String getError() { return error; }
+        public long getSequence() { return sequence; }
+        public long getVersion() { return version; }
+        public LocalDateTime getLastModified() { return lastModified; }
+        
+        // Setters
+        public void setOperationId(String operationId) { this.operationId = operationId; }
+        public void setNoteId(String noteId) { this.noteId = noteId; }
+        public void setStatus(Status status) { this.status = status; }
+        public void setError(String error) { this.error = error; }
+        public void setSequence(long sequence) { this.sequence = sequence; }
+        public void setVersion(long version) { this.version = version; }
+        public void setLastModified(LocalDateTime lastModified) { this.lastModified = lastModified; }
+        
+        /**
+         * Ghi version và lastModified của note như server đã lưu
+         */
+        public void setCommitted(Note note) {
+            this.version = note.getVersion();
+            this.lastModified = note.getLastModified();
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("OperationResult{noteId='%s', status=%s, sequence=%d, version=%d}", noteId, status, sequence, version);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package common.models;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * Xác nhận upload theo chunk: offset là số ký tự server đã nhận liên tục từ đầu.
+ * rewind = true khi client phải gửi tiếp từ offset (trả lời CHUNK_RESUME hoặc chunk sai vị trí);
+ * status khác null khi upload đã hoàn tất (sequence là change sequence đã commit, version/lastModified là giá trị
+ * server đã ghi cho note nếu APPLIED).
+ */
+public class ChunkAck implements Serializable {
+    private static final long serialVersionUID = 1L;
+    
+    private String transferId;
+    private String noteId;
+    private long offset;
+    private boolean rewind;
+    private BatchResult.Status status;
+    private long sequence;
+    private long version;
+    private LocalDateTime lastModified;
+    
+    public ChunkAck() {}
+    
+    public ChunkAck(String transferId, String noteId, long offset) {
+        this.transferId = transferId;
+        this.noteId = noteId;
+        this.offset = offset;
+    }
+    
+    public boolean isComplete() {
+        return status != null;
+    }
+    
+    // Getters
+    public String getTransferId() { return transferId; }
+    public String getNoteId() { return noteId; }
+    public long getOffset() { return offset; }
+    public boolean isRewind() { return rewind; }
+    public BatchResult.Status getStatus() { return status; }
+    public long getSequence() { return sequence; }
+    public long getVersion() { return version; }
+    public LocalDateTime getLastModified() { return lastModified; }
+    
+    // Setters
+    public void setTransferId(String transferId) { this.transferId = transferId; }
+    public void setNoteId(String noteId) { this.noteId = noteId; }
+    public void setOffset(long offset) { this.offset = offset; }
+    public void setRewind(boolean rewind) { this.rewind = rewind; }
+    public void setStatus(BatchResult.Status status) { this.status = status; }
+    public void setSequence(long sequence) { this.sequence = sequence; }
+    public void setVersion(long version) { this.version = version; }
+    public void setLastModified(LocalDateTime lastModified) { this.lastModified = lastModified; }
+    
+    @Override
+    public String toString() {
+        return String.format("ChunkAck{transferId='%s', noteId='%s', offset=%d, rewind=%s, status=%s}",
+                transferId, noteId, offset, rewind, status);
+    }
+}
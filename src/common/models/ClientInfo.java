@@ -15,6 +15,10 @@ public class ClientInfo implements Serializable {
     private int port;
     private LocalDateTime lastSeen;
     private boolean isOnline;
+    private long lastSyncVersion; // Version replica của client, 0 = cần full sync
+    private boolean metadataOnly; // Client chỉ nhận NoteSummary trong sync và broadcast
+    private ResumeToken resumeToken; // Token của lần kết nối trước, null nếu kết nối mới
+    private boolean invalidationHints; // Nhận hint qua UDP (port) thay vì broadcast qua TCP
     
     public ClientInfo() {
         this.lastSeen = LocalDateTime.now();
@@ -36,6 +40,10 @@ public class ClientInfo implements Serializable {
     public int getPort() { return port; }
     public LocalDateTime getLastSeen() { return lastSeen; }
     public boolean isOnline() { return isOnline; }
+    public long getLastSyncVersion() { return lastSyncVersion; }
+    public boolean isMetadataOnly() { return metadataOnly; }
+    public ResumeToken getResumeToken() { return resumeToken; }
+    public boolean isInvalidationHints() { return invalidationHints; }
     
     // Setters
     public void setClientId(String clientId) { this.clientId = clientId; }
@@ -44,6 +52,10 @@ public class ClientInfo implements Serializable {
     public void setPort(int port) { this.port = port; }
     public void setLastSeen(LocalDateTime lastSeen) { this.lastSeen = lastSeen; }
     public void setOnline(boolean online) { this.isOnline = online; }
+    public void setLastSyncVersion(long lastSyncVersion) { this.lastSyncVersion = lastSyncVersion; }
+    public void setMetadataOnly(boolean metadataOnly) { this.metadataOnly = metadataOnly; }
+    public void setResumeToken(ResumeToken resumeToken) { this.resumeToken = resumeToken; }
+    public void setInvalidationHints(boolean invalidationHints) { this.invalidationHints = invalidationHints; }
     
     public void updateLastSeen() {
         this.lastSeen = LocalDateTime.now();
@@ -0,0 +1,71 @@
+package common.models;
+
+import java.io.*;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Payload đã được serialize sẵn (có thể nén) để gửi cùng một bản cho nhiều client.
+ * Mảng byte dùng chung và chỉ đọc sau khi tạo.
+ */
+public class EncodedPayload implements Serializable {
+    private static final long serialVersionUID = 1L;
+    
+    private final byte[] data;
+    private final boolean compressed;
+    
+    private EncodedPayload(byte[] data, boolean compressed) {
+        this.data = data;
+        this.compressed = compressed;
+    }
+    
+    /**
+     * Serialize (và nén nếu compress) một object
+     */
+    public static EncodedPayload encode(Serializable value, boolean compress) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        encodeTo(value, compress, bytes);
+        return new EncodedPayload(bytes.toByteArray(), compress);
+    }
+    
+    /**
+     * Ghi object theo cùng định dạng vào stream (ví dụ file snapshot), stream bị đóng sau khi ghi
+     */
+    public static void encodeTo(Serializable value, boolean compress, OutputStream target) throws IOException {
+        OutputStream out = compress ? new DeflaterOutputStream(target, new Deflater(Deflater.BEST_SPEED), 64 * 1024) : target;
+        try (ObjectOutputStream objects = new ObjectOutputStream(new BufferedOutputStream(out, 64 * 1024))) {
+            objects.writeObject(value);
+        }
+    }
+    
+    /**
+     * Giải mã lại object gốc
+     */
+    public Object decode() throws IOException, ClassNotFoundException {
+        return decodeFrom(new ByteArrayInputStream(data), compressed);
+    }
+    
+    /**
+     * Đọc một object đã ghi bằng encodeTo, stream bị đóng sau khi đọc
+     */
+    public static Object decodeFrom(InputStream source, boolean compressed) throws IOException, ClassNotFoundException {
+        InputStream in = compressed ? new InflaterInputStream(source) : source;
+        try (ObjectInputStream objects = new ObjectInputStream(new BufferedInputStream(in, 64 * 1024))) {
+            return objects.readObject();
+        }
+    }
+    
+    public int size() {
+        return data.length;
+    }
+    
+    public boolean isCompressed() {
+        return compressed;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("EncodedPayload{bytes=%d, compressed=%s}", data.length, compressed);
+    }
+}
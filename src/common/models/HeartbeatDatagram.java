@@ -0,0 +1,80 @@
+package common.models;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Heartbeat UDP dạng nhị phân cố định 29 byte (không dùng Java serialization):
+ * magic 'N''B', version, kind, flags, heartbeat key (8 byte), số thứ tự (8 byte), change sequence (8 byte).
+ * PING mang change sequence client đã áp dụng; ACK mang sequence hiện tại của server và cờ BEHIND nếu client bị tụt lại.
+ */
+public class HeartbeatDatagram {
+    public enum Kind { PING, ACK }
+
+    /** Client còn thiếu thay đổi so với server */
+    public static final int FLAG_BEHIND = 1;
+    /** Server không biết heartbeat key (session đã bị xóa), client cần kết nối lại */
+    public static final int FLAG_UNKNOWN_SESSION = 2;
+
+    public static final int SIZE = 29;
+    private static final byte MAGIC_0 = 'N';
+    private static final byte MAGIC_1 = 'B';
+    private static final byte FORMAT_VERSION = 1;
+
+    private final Kind kind;
+    private final int flags;
+    private final long heartbeatKey;
+    private final long sequence;
+    private final long changeSequence;
+
+    public HeartbeatDatagram(Kind kind, int flags, long heartbeatKey, long sequence, long changeSequence) {
+        this.kind = kind;
+        this.flags = flags;
+        this.heartbeatKey = heartbeatKey;
+        this.sequence = sequence;
+        this.changeSequence = changeSequence;
+    }
+
+    /**
+     * Datagram có phải heartbeat hay không
+     */
+    public static boolean isHeartbeat(ByteBuffer data) {
+        int start = data.position();
+        return data.remaining() >= SIZE && data.get(start) == MAGIC_0 && data.get(start + 1) == MAGIC_1;
+    }
+
+    public byte[] encode() {
+        ByteBuffer buffer = ByteBuffer.allocate(SIZE);
+        buffer.put(MAGIC_0).put(MAGIC_1).put(FORMAT_VERSION).put((byte) kind.ordinal()).put((byte) flags)
+                .putLong(heartbeatKey).putLong(sequence).putLong(changeSequence);
+        return buffer.array();
+    }
+
+    /**
+     * Đọc heartbeat từ vị trí hiện tại của buffer, trả về null nếu datagram không hợp lệ
+     */
+    public static HeartbeatDatagram decode(ByteBuffer data) {
+        if (!isHeartbeat(data)) return null;
+        int start = data.position();
+        int kindIndex = data.get(start + 3);
+        if (data.get(start + 2) != FORMAT_VERSION || kindIndex < 0 || kindIndex >= Kind.values().length) return null;
+        return new HeartbeatDatagram(Kind.values()[kindIndex], data.get(start + 4) & 0xFF,
+                data.getLong(start + 5), data.getLong(start + 13), data.getLong(start + 21));
+    }
+
+    public boolean hasFlag(int flag) {
+        return (flags & flag) != 0;
+    }
+
+    // Getters
+    public Kind getKind() { return kind; }
+    public int getFlags() { return flags; }
+    public long getHeartbeatKey() { return heartbeatKey; }
+    public long getSequence() { return sequence; }
+    public long getChangeSequence() { return changeSequence; }
+
+    @Override
+    public String toString() {
+        return String.format("HeartbeatDatagram{kind=%s, flags=%d, sequence=%d, changeSequence=%d}",
+                kind, flags, sequence, changeSequence);
+    }
+}
@@ -0,0 +1,70 @@
+package common.models;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Gợi ý "note đã thay đổi" gửi qua UDP. Dạng nhị phân gọn (không dùng Java serialization):
+ * magic 'N''H', version, type, sequence (8 byte), độ dài id (2 byte), id UTF-8.
+ * Client nhận hint sẽ tự kéo thay đổi qua TCP; hint bị mất được bù bằng sequence trong HEARTBEAT_ACK.
+ */
+public class InvalidationHint {
+    public enum Type { CREATED, UPDATED, DELETED }
+    
+    private static final byte MAGIC_0 = 'N';
+    private static final byte MAGIC_1 = 'H';
+    private static final byte FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 14;
+    
+    private final Type type;
+    private final long sequence;
+    private final String noteId;
+    
+    public InvalidationHint(Type type, long sequence, String noteId) {
+        this.type = type;
+        this.sequence = sequence;
+        this.noteId = noteId;
+    }
+    
+    /**
+     * Datagram có phải là hint hay không (để phân biệt với Message serialize)
+     */
+    public static boolean isHint(ByteBuffer data) {
+        int start = data.position();
+        return data.remaining() >= HEADER_SIZE && data.get(start) == MAGIC_0 && data.get(start + 1) == MAGIC_1;
+    }
+    
+    public byte[] encode() {
+        byte[] id = noteId.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + id.length);
+        buffer.put(MAGIC_0).put(MAGIC_1).put(FORMAT_VERSION).put((byte) type.ordinal())
+                .putLong(sequence).putShort((short) id.length).put(id);
+        return buffer.array();
+    }
+    
+    /**
+     * Đọc hint từ vị trí hiện tại của buffer, trả về null nếu datagram không hợp lệ
+     */
+    public static InvalidationHint decode(ByteBuffer data) {
+        if (!isHint(data) || data.get(data.position() + 2) != FORMAT_VERSION) return null;
+        ByteBuffer buffer = data.duplicate();
+        buffer.position(buffer.position() + 3);
+        int typeIndex = buffer.get();
+        long sequence = buffer.getLong();
+        int idLength = buffer.getShort() & 0xFFFF;
+        if (typeIndex < 0 || typeIndex >= Type.values().length || idLength > buffer.remaining()) return null;
+        byte[] id = new byte[idLength];
+        buffer.get(id);
+        return new InvalidationHint(Type.values()[typeIndex], sequence, new String(id, StandardCharsets.UTF_8));
+    }
+    
+    // Getters
+    public Type getType() { return type; }
+    public long getSequence() { return sequence; }
+    public String getNoteId() { return noteId; }
+    
+    @Override
+    public String toString() {
+        return String.format("InvalidationHint{type=%s, sequence=%d, noteId='%s'}", type, sequence, noteId);
+    }
+}
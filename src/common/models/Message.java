@@ -14,6 +14,8 @@ public class Message implements Serializable {
     private Object payload;
     private LocalDateTime timestamp;
     private String messageId;
+    private long sequence; // Change sequence của broadcast/heartbeat ack, 0 = không gắn
+    private String correlationId; // Trên phản hồi: messageId của request được trả lời
     
     public Message() {
         this.timestamp = LocalDateTime.now();
@@ -33,6 +35,8 @@ public class Message implements Serializable {
     public Object getPayload() { return payload; }
     public LocalDateTime getTimestamp() { return timestamp; }
     public String getMessageId() { return messageId; }
+    public long getSequence() { return sequence; }
+    public String getCorrelationId() { return correlationId; }
     
     // Setters
     public void setType(MessageType type) { this.type = type; }
@@ -40,6 +44,8 @@ public class Message implements Serializable {
     public void setPayload(Object payload) { this.payload = payload; }
     public void setTimestamp(LocalDateTime timestamp) { this.timestamp = timestamp; }
     public void setMessageId(String messageId) { this.messageId = messageId; }
+    public void setSequence(long sequence) { this.sequence = sequence; }
+    public void setCorrelationId(String correlationId) { this.correlationId = correlationId; }
     
     // Utility methods
     @SuppressWarnings("unchecked")
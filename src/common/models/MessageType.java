@@ -12,19 +12,33 @@ public enum MessageType implements Serializable {
     NOTE_CREATE,         // Tạo note mới
     NOTE_UPDATE,         // Cập nhật note
     NOTE_DELETE,         // Xóa note
+    NOTE_BATCH,          // Nhiều thao tác note trong một message, áp dụng trong một transaction
     SYNC_REQUEST,        // Yêu cầu đồng bộ
+    NOTE_FETCH,          // Lấy content của một note (metadata-only sync)
+    CHUNK_RESUME,        // Hỏi offset server đã nhận của một upload dở dang (sau khi kết nối lại)
+    RECONCILE_REQUEST,   // Gửi Merkle hash của replica để kiểm tra lệch
     HEARTBEAT,           // Ping để duy trì kết nối
+    SUBSCRIBE,           // Đăng ký nhận thay đổi theo author/note
+    UNSUBSCRIBE,         // Hủy đăng ký (payload null = nhận tất cả)
     
     // Server -> Client messages
     CONNECT_ACK,         // Xác nhận kết nối
-    NOTE_SYNC,           // Đồng bộ note
+    NOTE_SYNC,           // Đồng bộ note (trả lời NOTE_FETCH với note đầy đủ)
+    NOTE_FETCH_FAILED,   // NOTE_FETCH không được phục vụ (lỗi đọc content), payload là note id
     NOTE_CREATED,        // Thông báo note được tạo
     NOTE_UPDATED,        // Thông báo note được cập nhật
     NOTE_DELETED,        // Thông báo note bị xóa
+    NOTE_CHANGES,        // Các thay đổi của một NOTE_BATCH trong một frame (SyncResponse dạng delta)
     SYNC_RESPONSE,       // Phản hồi đồng bộ
+    NOTE_BATCH_RESULT,   // Kết quả từng thao tác của NOTE_BATCH
+    MUTATION_ACK,        // Kết quả của NOTE_CREATE/UPDATE/DELETE, correlationId = messageId của request
+    RECONCILE_RESPONSE,  // Các bucket bị lệch kèm (id -> version) của server
+    CHUNK_ACK,           // Offset đã nhận của upload theo chunk, kèm kết quả khi hoàn tất
     CLIENT_LIST,         // Danh sách client online
+    THROTTLED,           // SYNC_REQUEST/NOTE_FETCH/RECONCILE_REQUEST bị giới hạn tốc độ, payload là RateLimitNotice
     ERROR,               // Thông báo lỗi
     
     // Bidirectional
+    NOTE_CHUNK,          // Một đoạn content của note lớn (upload hoặc trả lời NOTE_FETCH)
     HEARTBEAT_ACK        // Phản hồi heartbeat
 }
\ No newline at end of file
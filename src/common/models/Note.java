@@ -74,6 +74,15 @@ public class Note implements Serializable {
         return copy;
     }
     
+    /**
+     * Bản sao với content khác, giữ nguyên version và lastModified
+     */
+    public Note copyWithContent(String content) {
+        Note copy = copy();
+        copy.content = content;
+        return copy;
+    }
+    
     @Override
     public String toString() {
         return String.format("Note{id='%s', title='%s', author='%s', version=%d}", 
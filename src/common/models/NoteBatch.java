@@ -0,0 +1,39 @@
+package common.models;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Nhiều thao tác trên note được gửi trong một message
+ */
+public class NoteBatch implements Serializable {
+    private static final long serialVersionUID = 1L;
+    
+    private String batchId;
+    private List<NoteOperation> operations;
+    
+    public NoteBatch() {
+        this.batchId = UUID.randomUUID().toString();
+        this.operations = new ArrayList<>();
+    }
+    
+    public NoteBatch(List<NoteOperation> operations) {
+        this();
+        this.operations = operations;
+    }
+    
+    // Getters
+    public String getBatchId() { return batchId; }
+    public List<NoteOperation> getOperations() { return operations; }
+    
+    // Setters
+    public void setBatchId(String batchId) { this.batchId = batchId; }
+    public void setOperations(List<NoteOperation> operations) { this.operations = operations; }
+    
+    @Override
+    public String toString() {
+        return String.format("NoteBatch{id='%s', operations=%d}", batchId, operations != null ? operations.size() : 0);
+    }
+}
@@ -0,0 +1,57 @@
+package common.models;
+
+import java.io.Serializable;
+
+/**
+ * Một đoạn content của note lớn. Chunk đầu tiên (offset 0) mang metadata của note (content null).
+ * Offset và totalLength tính theo ký tự.
+ */
+public class NoteChunk implements Serializable {
+    private static final long serialVersionUID = 1L;
+    
+    private String transferId;
+    private String noteId;
+    private Note note;       // Metadata, chỉ có ở chunk đầu tiên
+    private boolean create;  // Upload: tạo note mới thay vì cập nhật
+    private long offset;
+    private long totalLength;
+    private String data;
+    
+    public NoteChunk() {}
+    
+    public NoteChunk(String transferId, String noteId, long offset, long totalLength, String data) {
+        this.transferId = transferId;
+        this.noteId = noteId;
+        this.offset = offset;
+        this.totalLength = totalLength;
+        this.data = data;
+    }
+    
+    public boolean isLast() {
+        return data != null && offset + data.length() >= totalLength;
+    }
+    
+    // Getters
+    public String getTransferId() { return transferId; }
+    public String getNoteId() { return noteId; }
+    public Note getNote() { return note; }
+    public boolean isCreate() { return create; }
+    public long getOffset() { return offset; }
+    public long getTotalLength() { return totalLength; }
+    public String getData() { return data; }
+    
+    // Setters
+    public void setTransferId(String transferId) { this.transferId = transferId; }
+    public void setNoteId(String noteId) { this.noteId = noteId; }
+    public void setNote(Note note) { this.note = note; }
+    public void setCreate(boolean create) { this.create = create; }
+    public void setOffset(long offset) { this.offset = offset; }
+    public void setTotalLength(long totalLength) { this.totalLength = totalLength; }
+    public void setData(String data) { this.data = data; }
+    
+    @Override
+    public String toString() {
+        return String.format("NoteChunk{transferId='%s', noteId='%s', offset=%d, length=%d, total=%d}",
+                transferId, noteId, offset, data != null ? data.length() : 0, totalLength);
+    }
+}
@@ -0,0 +1,52 @@
+package common.models;
+
+import java.io.Serializable;
+import java.util.UUID;
+
+/**
+ * Một thao tác create/update/delete trên note, dùng trong batch và hàng đợi offline
+ */
+public class NoteOperation implements Serializable {
+    private static final long serialVersionUID = 1L;
+    
+    public enum Type { CREATE, UPDATE, DELETE }
+    
+    private String operationId;
+    private Type type;
+    private String noteId;
+    private Note note; // null với DELETE
+    
+    public NoteOperation() {
+        this.operationId = UUID.randomUUID().toString();
+    }
+    
+    public NoteOperation(Type type, Note note) {
+        this();
+        this.type = type;
+        this.note = note;
+        this.noteId = note.getId();
+    }
+    
+    public NoteOperation(String noteId) {
+        this();
+        this.type = Type.DELETE;
+        this.noteId = noteId;
+    }
+    
+    // Getters
+    public String getOperationId() { return operationId; }
+    public Type getType() { return type; }
+    public String getNoteId() { return noteId; }
+    public Note getNote() { return note; }
+    
+    // Setters
+    public void setOperationId(String operationId) { this.operationId = operationId; }
+    public void setType(Type type) { this.type = type; }
+    public void setNoteId(String noteId) { this.noteId = noteId; }
+    public void setNote(Note note) { this.note = note; }
+    
+    @Override
+    public String toString() {
+        return String.format("NoteOperation{type=%s, noteId='%s', id='%s'}", type, noteId, operationId);
+    }
+}
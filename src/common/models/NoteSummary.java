@@ -0,0 +1,65 @@
+package common.models;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * Thông tin rút gọn của note (không có content), dùng cho metadata-only sync
+ */
+public class NoteSummary implements Serializable {
+    private static final long serialVersionUID = 1L;
+    
+    private String id;
+    private String title;
+    private String authorId;
+    private LocalDateTime lastModified;
+    private long version;
+    private long contentLength; // Số ký tự của content
+    
+    public NoteSummary() {}
+    
+    public NoteSummary(Note note) {
+        this.id = note.getId();
+        this.title = note.getTitle();
+        this.authorId = note.getAuthorId();
+        this.lastModified = note.getLastModified();
+        this.version = note.getVersion();
+        this.contentLength = note.getContent() != null ? note.getContent().length() : 0;
+    }
+    
+    /**
+     * Chuyển thành Note chưa có content (content == null)
+     */
+    public Note toNote() {
+        Note note = new Note();
+        note.setId(id);
+        note.setTitle(title);
+        note.setAuthorId(authorId);
+        note.setCreatedAt(lastModified); // createdAt không có trong summary
+        note.setLastModified(lastModified);
+        note.setVersion(version);
+        return note;
+    }
+    
+    // Getters
+    public String getId() { return id; }
+    public String getTitle() { return title; }
+    public String getAuthorId() { return authorId; }
+    public LocalDateTime getLastModified() { return lastModified; }
+    public long getVersion() { return version; }
+    public long getContentLength() { return contentLength; }
+    
+    // Setters
+    public void setId(String id) { this.id = id; }
+    public void setTitle(String title) { this.title = title; }
+    public void setAuthorId(String authorId) { this.authorId = authorId; }
+    public void setLastModified(LocalDateTime lastModified) { this.lastModified = lastModified; }
+    public void setVersion(long version) { this.version = version; }
+    public void setContentLength(long contentLength) { this.contentLength = contentLength; }
+    
+    @Override
+    public String toString() {
+        return String.format("NoteSummary{id='%s', title='%s', version=%d, length=%d}", 
+                           id, title, version, contentLength);
+    }
+}
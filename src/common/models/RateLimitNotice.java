@@ -0,0 +1,49 @@
+package common.models;
+
+import java.io.Serializable;
+
+/**
+ * Trả lời request bị giới hạn tốc độ: requestType và request là loại và payload của request bị từ chối,
+ * retryAfterMs là thời gian tới khi bucket của client có lại token.
+ */
+public class RateLimitNotice implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private MessageType requestType;
+    private Object request;
+    private long retryAfterMs;
+
+    public RateLimitNotice() {}
+
+    public RateLimitNotice(MessageType requestType, Object request, long retryAfterMs) {
+        this.requestType = requestType;
+        this.request = request;
+        this.retryAfterMs = retryAfterMs;
+    }
+
+    /**
+     * Payload của request bị từ chối theo kiểu mong muốn, null nếu khác kiểu
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getRequest(Class<T> clazz) {
+        if (request != null && clazz.isAssignableFrom(request.getClass())) {
+            return (T) request;
+        }
+        return null;
+    }
+
+    // Getters
+    public MessageType getRequestType() { return requestType; }
+    public Object getRequest() { return request; }
+    public long getRetryAfterMs() { return retryAfterMs; }
+
+    // Setters
+    public void setRequestType(MessageType requestType) { this.requestType = requestType; }
+    public void setRequest(Object request) { this.request = request; }
+    public void setRetryAfterMs(long retryAfterMs) { this.retryAfterMs = retryAfterMs; }
+
+    @Override
+    public String toString() {
+        return String.format("RateLimitNotice{requestType=%s, retryAfterMs=%d}", requestType, retryAfterMs);
+    }
+}
@@ -0,0 +1,37 @@
+package common.models;
+
+import java.io.Serializable;
+
+/**
+ * Client gửi root và bucket hash của replica để server so sánh
+ */
+public class ReconcileRequest implements Serializable {
+    private static final long serialVersionUID = 1L;
+    
+    private String clientId;
+    private long rootHash;
+    private long[] bucketHashes;
+    
+    public ReconcileRequest() {}
+    
+    public ReconcileRequest(String clientId, long rootHash, long[] bucketHashes) {
+        this.clientId = clientId;
+        this.rootHash = rootHash;
+        this.bucketHashes = bucketHashes;
+    }
+    
+    // Getters
+    public String getClientId() { return clientId; }
+    public long getRootHash() { return rootHash; }
+    public long[] getBucketHashes() { return bucketHashes; }
+    
+    // Setters
+    public void setClientId(String clientId) { this.clientId = clientId; }
+    public void setRootHash(long rootHash) { this.rootHash = rootHash; }
+    public void setBucketHashes(long[] bucketHashes) { this.bucketHashes = bucketHashes; }
+    
+    @Override
+    public String toString() {
+        return String.format("ReconcileRequest{clientId='%s', root=%016x}", clientId, rootHash);
+    }
+}
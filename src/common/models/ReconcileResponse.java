@@ -0,0 +1,42 @@
+package common.models;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Kết quả so sánh hash: với mỗi bucket lệch, server gửi danh sách (note id -> version) của bucket đó
+ */
+public class ReconcileResponse implements Serializable {
+    private static final long serialVersionUID = 1L;
+    
+    private long rootHash;
+    private boolean matched;
+    private Map<Integer, Map<String, Long>> bucketEntries;
+    
+    public ReconcileResponse() {
+        this.bucketEntries = new HashMap<>();
+    }
+    
+    public ReconcileResponse(long rootHash, boolean matched) {
+        this();
+        this.rootHash = rootHash;
+        this.matched = matched;
+    }
+    
+    // Getters
+    public long getRootHash() { return rootHash; }
+    public boolean isMatched() { return matched; }
+    public Map<Integer, Map<String, Long>> getBucketEntries() { return bucketEntries; }
+    
+    // Setters
+    public void setRootHash(long rootHash) { this.rootHash = rootHash; }
+    public void setMatched(boolean matched) { this.matched = matched; }
+    public void setBucketEntries(Map<Integer, Map<String, Long>> bucketEntries) { this.bucketEntries = bucketEntries; }
+    
+    @Override
+    public String toString() {
+        return String.format("ReconcileResponse{root=%016x, matched=%s, buckets=%d}", 
+                           rootHash, matched, bucketEntries.size());
+    }
+}
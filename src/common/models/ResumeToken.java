@@ -0,0 +1,41 @@
+package common.models;
+
+import java.io.Serializable;
+
+/**
+ * Token server cấp trong CONNECT_ACK để client kết nối lại chỉ nhận các thay đổi bị lỡ.
+ * serverEpoch đổi mỗi lần server khởi động (ring buffer nằm trong bộ nhớ).
+ */
+public class ResumeToken implements Serializable {
+    private static final long serialVersionUID = 1L;
+    
+    private String serverEpoch;
+    private String clientId;
+    private long sequence; // Change sequence cuối cùng client đã nhận
+    private long heartbeatKey; // Khóa của kết nối hiện tại cho heartbeat UDP nhị phân, 0 = không có
+    
+    public ResumeToken() {}
+    
+    public ResumeToken(String serverEpoch, String clientId, long sequence) {
+        this.serverEpoch = serverEpoch;
+        this.clientId = clientId;
+        this.sequence = sequence;
+    }
+    
+    // Getters
+    public String getServerEpoch() { return serverEpoch; }
+    public String getClientId() { return clientId; }
+    public long getSequence() { return sequence; }
+    public long getHeartbeatKey() { return heartbeatKey; }
+    
+    // Setters
+    public void setServerEpoch(String serverEpoch) { this.serverEpoch = serverEpoch; }
+    public void setClientId(String clientId) { this.clientId = clientId; }
+    public void setSequence(long sequence) { this.sequence = sequence; }
+    public void setHeartbeatKey(long heartbeatKey) { this.heartbeatKey = heartbeatKey; }
+    
+    @Override
+    public String toString() {
+        return String.format("ResumeToken{epoch='%s', clientId='%s', sequence=%d}", serverEpoch, clientId, sequence);
+    }
+}
@@ -0,0 +1,71 @@
+package common.models;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Định dạng file snapshot full sync: SyncResponse header (notes/summaries rỗng), sau đó từng Note hoặc NoteSummary,
+ * kết thúc bằng null. Phía ghi đọc từ cursor và ghi từng phần tử nên không giữ toàn bộ notes trong bộ nhớ.
+ */
+public class SnapshotStream implements Closeable {
+    // Resetting drops the stream's back-reference table, which would otherwise keep every written object alive
+    private static final int RESET_INTERVAL = 1000;
+
+    private final ObjectOutputStream objects;
+    private int written;
+
+    public SnapshotStream(OutputStream target, boolean compress, SyncResponse header) throws IOException {
+        OutputStream out = compress ? new DeflaterOutputStream(target, new Deflater(Deflater.BEST_SPEED), 64 * 1024) : target;
+        this.objects = new ObjectOutputStream(new BufferedOutputStream(out, 64 * 1024));
+        objects.writeObject(header);
+    }
+
+    /**
+     * Ghi một Note (full) hoặc NoteSummary (metadata-only)
+     */
+    public void write(Serializable item) throws IOException {
+        objects.writeObject(item);
+        if (++written % RESET_INTERVAL == 0) {
+            objects.reset();
+        }
+    }
+
+    /**
+     * Ghi phần kết thúc; file thiếu phần này là file hỏng
+     */
+    public void finish() throws IOException {
+        objects.writeObject(null);
+        objects.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        objects.close();
+    }
+
+    /**
+     * Đọc lại snapshot thành một SyncResponse đầy đủ
+     */
+    public static SyncResponse read(InputStream source, boolean compressed) throws IOException, ClassNotFoundException {
+        InputStream in = compressed ? new InflaterInputStream(source) : source;
+        try (ObjectInputStream objects = new ObjectInputStream(new BufferedInputStream(in, 64 * 1024))) {
+            SyncResponse response = (SyncResponse) objects.readObject();
+            if (response.getNotes() == null) response.setNotes(new ArrayList<>());
+            Object item;
+            while ((item = objects.readObject()) != null) {
+                if (item instanceof Note) {
+                    response.getNotes().add((Note) item);
+                } else if (item instanceof NoteSummary) {
+                    if (response.getSummaries() == null) response.setSummaries(new ArrayList<>());
+                    response.getSummaries().add((NoteSummary) item);
+                } else {
+                    throw new InvalidObjectException("Unexpected snapshot item: " + item.getClass().getName());
+                }
+            }
+            return response;
+        }
+    }
+}
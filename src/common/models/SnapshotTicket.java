@@ -0,0 +1,46 @@
+package common.models;
+
+import java.io.Serializable;
+
+/**
+ * Vé tải full-sync snapshot dạng file qua cổng snapshot riêng.
+ * Client gửi token lên cổng đó, nhận length byte ở định dạng EncodedPayload, rồi xin delta từ sequence.
+ */
+public class SnapshotTicket implements Serializable {
+    private static final long serialVersionUID = 1L;
+    
+    private String token;
+    private int port;
+    private long sequence; // Version của snapshot
+    private long length;
+    private boolean compressed;
+    
+    public SnapshotTicket() {}
+    
+    public SnapshotTicket(String token, int port, long sequence, long length, boolean compressed) {
+        this.token = token;
+        this.port = port;
+        this.sequence = sequence;
+        this.length = length;
+        this.compressed = compressed;
+    }
+    
+    // Getters
+    public String getToken() { return token; }
+    public int getPort() { return port; }
+    public long getSequence() { return sequence; }
+    public long getLength() { return length; }
+    public boolean isCompressed() { return compressed; }
+    
+    // Setters
+    public void setToken(String token) { this.token = token; }
+    public void setPort(int port) { this.port = port; }
+    public void setSequence(long sequence) { this.sequence = sequence; }
+    public void setLength(long length) { this.length = length; }
+    public void setCompressed(boolean compressed) { this.compressed = compressed; }
+    
+    @Override
+    public String toString() {
+        return String.format("SnapshotTicket{port=%d, sequence=%d, length=%d, compressed=%s}", port, sequence, length, compressed);
+    }
+}
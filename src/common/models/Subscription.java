@@ -0,0 +1,49 @@
+package common.models;
+
+import java.io.Serializable;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Lớp mô tả các key mà client muốn nhận thông báo thay đổi
+ */
+public class Subscription implements Serializable {
+    private static final long serialVersionUID = 1L;
+    
+    private Set<String> authorIds;
+    private Set<String> noteIds;
+    
+    public Subscription() {
+        this.authorIds = new HashSet<>();
+        this.noteIds = new HashSet<>();
+    }
+    
+    public static Subscription forAuthors(Set<String> authorIds) {
+        Subscription subscription = new Subscription();
+        subscription.authorIds.addAll(authorIds);
+        return subscription;
+    }
+    
+    public static Subscription forNotes(Set<String> noteIds) {
+        Subscription subscription = new Subscription();
+        subscription.noteIds.addAll(noteIds);
+        return subscription;
+    }
+    
+    // Getters
+    public Set<String> getAuthorIds() { return authorIds; }
+    public Set<String> getNoteIds() { return noteIds; }
+    
+    // Setters
+    public void setAuthorIds(Set<String> authorIds) { this.authorIds = authorIds; }
+    public void setNoteIds(Set<String> noteIds) { this.noteIds = noteIds; }
+    
+    public boolean isEmpty() {
+        return (authorIds == null || authorIds.isEmpty()) && (noteIds == null || noteIds.isEmpty());
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("Subscription{authors=%s, notes=%s}", authorIds, noteIds);
+    }
+}
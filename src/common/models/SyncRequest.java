@@ -13,6 +13,7 @@ public class SyncRequest implements Serializable {
     private long lastSyncVersion;
     private List<String> requestedNoteIds;
     private boolean fullSync;
+    private boolean metadataOnly; // true: chỉ nhận NoteSummary, content lấy riêng bằng NOTE_FETCH
     
     public SyncRequest() {
         this.fullSync = false;
@@ -35,16 +36,18 @@ public class SyncRequest implements Serializable {
     public long getLastSyncVersion() { return lastSyncVersion; }
     public List<String> getRequestedNoteIds() { return requestedNoteIds; }
     public boolean isFullSync() { return fullSync; }
+    public boolean isMetadataOnly() { return metadataOnly; }
     
     // Setters
     public void setClientId(String clientId) { this.clientId = clientId; }
     public void setLastSyncVersion(long lastSyncVersion) { this.lastSyncVersion = lastSyncVersion; }
     public void setRequestedNoteIds(List<String> requestedNoteIds) { this.requestedNoteIds = requestedNoteIds; }
     public void setFullSync(boolean fullSync) { this.fullSync = fullSync; }
+    public void setMetadataOnly(boolean metadataOnly) { this.metadataOnly = metadataOnly; }
     
     @Override
     public String toString() {
-        return String.format("SyncRequest{clientId='%s', lastVersion=%d, fullSync=%s}", 
-                           clientId, lastSyncVersion, fullSync);
+        return String.format("SyncRequest{clientId='%s', lastVersion=%d, fullSync=%s, metadataOnly=%s}", 
+                           clientId, lastSyncVersion, fullSync, metadataOnly);
     }
 }
\ No newline at end of file
@@ -11,8 +11,12 @@ public class SyncResponse implements Serializable {
     
     private String clientId;
     private List<Note> notes;
+    private List<NoteSummary> summaries; // Thay cho notes khi client yêu cầu metadata-only
     private List<String> deletedNoteIds;
     private long syncVersion;
+    private boolean fullSync; // true: notes là toàn bộ dữ liệu, client thay replica thay vì merge
+    private boolean targeted; // true: chỉ chứa các note được yêu cầu theo id, không đổi sync version của client
+    private boolean moreAvailable; // true: trang delta chưa hết, hỏi tiếp từ syncVersion
     private boolean success;
     private String errorMessage;
     
@@ -30,16 +34,24 @@ public class SyncResponse implements Serializable {
     // Getters
     public String getClientId() { return clientId; }
     public List<Note> getNotes() { return notes; }
+    public List<NoteSummary> getSummaries() { return summaries; }
     public List<String> getDeletedNoteIds() { return deletedNoteIds; }
     public long getSyncVersion() { return syncVersion; }
+    public boolean isFullSync() { return fullSync; }
+    public boolean isTargeted() { return targeted; }
+    public boolean isMoreAvailable() { return moreAvailable; }
     public boolean isSuccess() { return success; }
     public String getErrorMessage() { return errorMessage; }
     
     // Setters
     public void setClientId(String clientId) { this.clientId = clientId; }
     public void setNotes(List<Note> notes) { this.notes = notes; }
+    public void setSummaries(List<NoteSummary> summaries) { this.summaries = summaries; }
     public void setDeletedNoteIds(List<String> deletedNoteIds) { this.deletedNoteIds = deletedNoteIds; }
     public void setSyncVersion(long syncVersion) { this.syncVersion = syncVersion; }
+    public void setFullSync(boolean fullSync) { this.fullSync = fullSync; }
+    public void setTargeted(boolean targeted) { this.targeted = targeted; }
+    public void setMoreAvailable(boolean moreAvailable) { this.moreAvailable = moreAvailable; }
     public void setSuccess(boolean success) { this.success = success; }
     public void setErrorMessage(String errorMessage) { 
         this.errorMessage = errorMessage;
@@ -48,7 +60,9 @@ public class SyncResponse implements Serializable {
     
     @Override
     public String toString() {
-        return String.format("SyncResponse{clientId='%s', notesCount=%d, version=%d, success=%s}", 
-                           clientId, notes != null ? notes.size() : 0, syncVersion, success);
+        return String.format("SyncResponse{clientId='%s', notesCount=%d, summariesCount=%d, deletedCount=%d, version=%d, fullSync=%s, success=%s}", 
+                           clientId, notes != null ? notes.size() : 0, summaries != null ? summaries.size() : 0,
+                           deletedNoteIds != null ? deletedNoteIds.size() : 0,
+                           syncVersion, fullSync, success);
     }
 }
\ No newline at end of file
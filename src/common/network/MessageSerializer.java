@@ -2,6 +2,7 @@ package common.network;
 
 import common.models.Message;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Utility class để serialize và deserialize Message objects
@@ -30,6 +31,15 @@ public class MessageSerializer {
         }
     }
     
+    /**
+     * Deserialize trực tiếp từ ByteBuffer (kể cả direct buffer), không copy ra byte array
+     */
+    public static Message deserialize(ByteBuffer data) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteBufferInputStream(data))) {
+            return (Message) ois.readObject();
+        }
+    }
+    
     /**
      * Serialize Message object thành OutputStream
      */
@@ -55,4 +65,34 @@ public class MessageSerializer {
     public static int getSerializedSize(Message message) throws IOException {
         return serialize(message).length;
     }
+    
+    /**
+     * InputStream đọc phần còn lại của một ByteBuffer
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+        
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+        
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) return 0;
+            if (!buffer.hasRemaining()) return -1;
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+        
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
 }
\ No newline at end of file
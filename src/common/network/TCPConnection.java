@@ -5,7 +5,11 @@ import common.utils.ConfigManager;
 import java.io.*;
 import java.net.*;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
@@ -14,14 +18,22 @@ import java.util.logging.Level;
  */
 public class TCPConnection {
     private static final Logger logger = Logger.getLogger(TCPConnection.class.getName());
+    // Messages one drain task writes before handing its pool thread to the next connection
+    private static final int DRAIN_TURN_MESSAGES = 64;
     
     private final Socket socket;
     private final ObjectOutputStream outputStream;
     private final ObjectInputStream inputStream;
     private volatile boolean isConnected;
     private final BlockingQueue<Message> messageQueue;
+    // Senders waiting in sendMessage(message, maxQueued, timeoutMs) for the queue to drain
+    private final Object drained = new Object();
+    private volatile int boundedWaiters;
     private Thread senderThread;
     private Thread receiverThread;
+    // Set by startCommunication(senderPool): the queue is drained by tasks on a shared pool, at most one at a time
+    private Executor senderPool;
+    private final AtomicBoolean draining = new AtomicBoolean();
     private MessageHandler messageHandler;
     
     public interface MessageHandler {
@@ -70,16 +82,22 @@ public class TCPConnection {
         startReceiverThread();
     }
     
+    /**
+     * Như startCommunication nhưng không tạo sender thread riêng: hàng đợi gửi được xả bằng task trên senderPool
+     * (dùng chung cho nhiều kết nối), mỗi lượt tối đa DRAIN_TURN_MESSAGES message. Chỉ còn receiver thread là
+     * thread riêng của kết nối. Một lần ghi bị chặn (peer không đọc) vẫn giữ một thread của pool tới khi ghi xong.
+     */
+    public void startCommunication(Executor senderPool) {
+        this.senderPool = senderPool;
+        startReceiverThread();
+        if (!messageQueue.isEmpty()) scheduleDrain();
+    }
+    
     private void startSenderThread() {
         senderThread = new Thread(() -> {
             try {
                 while (isConnected && !Thread.currentThread().isInterrupted()) {
-                    Message message = messageQueue.take();
-                    synchronized (outputStream) {
-                        outputStream.writeObject(message);
-                        outputStream.flush();
-                    }
-                    logger.fine("Sent message: " + message.getType());
+                    writeQueued(messageQueue.take());
                 }
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
@@ -95,6 +113,53 @@ public class TCPConnection {
         senderThread.start();
     }
 
+    private void writeQueued(Message message) throws IOException {
+        if (boundedWaiters > 0) {
+            synchronized (drained) {
+                drained.notifyAll();
+            }
+        }
+        synchronized (outputStream) {
+            outputStream.writeObject(message);
+            // Forget written objects: keeps the handle table from growing forever and
+            // makes a re-sent (possibly mutated) object go out in full instead of as a back-reference
+            outputStream.reset();
+            outputStream.flush();
+        }
+        logger.fine("Sent message: " + message.getType());
+    }
+    
+    private void scheduleDrain() {
+        if (!draining.compareAndSet(false, true)) return;
+        try {
+            senderPool.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            draining.set(false);
+            handleConnectionError(e);
+        }
+    }
+    
+    private void drain() {
+        try {
+            Message message;
+            int written = 0;
+            // Stop after one turn so a busy connection goes back to the end of the pool queue behind the others
+            while (isConnected && written < DRAIN_TURN_MESSAGES && (message = messageQueue.poll()) != null) {
+                writeQueued(message);
+                written++;
+            }
+        } catch (IOException e) {
+            if (isConnected) {
+                logger.log(Level.SEVERE, "Error sending message", e);
+                handleConnectionError(e);
+            }
+        } finally {
+            draining.set(false);
+        }
+        // Resubmit for what the turn left behind, or for a message queued after the last poll but before the flag was cleared
+        if (isConnected && !messageQueue.isEmpty()) scheduleDrain();
+    }
+
     private void startReceiverThread() {
         receiverThread = new Thread(() -> {
             try {
@@ -127,13 +192,40 @@ public class TCPConnection {
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
             logger.log(Level.SEVERE, "Interrupted while queuing message", e);
+            return;
         }
+        if (senderPool != null) scheduleDrain();
+    }
+    
+    /**
+     * Như sendMessage nhưng chờ tới khi hàng đợi gửi còn ít hơn maxQueued message, để luồng gửi dài
+     * (ví dụ content theo chunk) không dồn hết vào bộ nhớ; false nếu kết nối đóng hoặc chờ quá timeoutMs
+     */
+    public boolean sendMessage(Message message, int maxQueued, long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        synchronized (drained) {
+            // Registered before checking the size so a take in between cannot be missed
+            boundedWaiters++;
+            try {
+                while (isConnected && messageQueue.size() >= maxQueued) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) return false;
+                    TimeUnit.NANOSECONDS.timedWait(drained, remaining);
+                }
+            } finally {
+                boundedWaiters--;
+            }
+        }
+        if (!isConnected) return false;
+        sendMessage(message);
+        return true;
     }
     
     public void sendMessageSync(Message message) throws IOException {
         if (isConnected) {
             synchronized (outputStream) {
                 outputStream.writeObject(message);
+                outputStream.reset();
                 outputStream.flush();
             }
         }
@@ -156,6 +248,9 @@ public class TCPConnection {
         isConnected = false;
         
         // Interrupt threads to unblock them from waiting operations
+        synchronized (drained) {
+            drained.notifyAll();
+        }
         if (senderThread != null) senderThread.interrupt();
         if (receiverThread != null) receiverThread.interrupt();
         
@@ -182,6 +277,10 @@ public class TCPConnection {
         return isConnected && socket != null && !socket.isClosed();
     }
     
+    public java.net.InetAddress getRemoteInetAddress() {
+        return socket != null ? socket.getInetAddress() : null;
+    }
+    
     public String getRemoteAddress() {
         return socket != null ? socket.getRemoteSocketAddress().toString() : "Unknown";
     }
@@ -1,76 +1,172 @@
 package common.network;
 
 import common.models.Message;
+import common.utils.ConfigManager;
 import java.io.IOException;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
 /**
- * UDP Connection handler để quản lý giao tiếp UDP
+ * UDP Connection handler để quản lý giao tiếp UDP.
+ * Chế độ channel (high throughput): DatagramChannel non-blocking, buffer direct lấy từ pool,
+ * datagram được gom thành batch và xử lý tại chỗ trên worker pool cố định.
+ * Message lớn hơn udp.fragment.size được chia thành fragment (xem UDPFragmenter).
  */
 public class UDPConnection {
     private static final Logger logger = Logger.getLogger(UDPConnection.class.getName());
     private static final int MAX_PACKET_SIZE = 65507; // Max UDP packet size
-    
+
     private DatagramSocket socket;
     private boolean isRunning;
     private final ExecutorService executor;
     private MessageHandler messageHandler;
-    
+    private DatagramHandler datagramHandler;
+    private final UDPFragmenter fragmenter = new UDPFragmenter(this::send);
+    // One timer for the fragment reassembly of every UDP socket in the JVM (client sessions each own a socket)
+    private static final ScheduledExecutorService fragmentTicker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "udp-fragments");
+        t.setDaemon(true);
+        return t;
+    });
+    private ScheduledFuture<?> fragmentTick;
+
+    // Channel mode only
+    private DatagramChannel channel;
+    private Selector selector;
+    private BlockingQueue<ByteBuffer> bufferPool;
+    private ExecutorService workers;
+    private int batchSize;
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
     public interface MessageHandler {
         void handleMessage(Message message, InetAddress sender, int senderPort);
         void onError(Exception e);
     }
-    
+
+    /**
+     * Nhận datagram nhị phân không phải Message serialize (ví dụ InvalidationHint).
+     * Được gọi trên thread xử lý, buffer chỉ hợp lệ trong lúc gọi (sẽ được trả lại pool).
+     */
+    public interface DatagramHandler {
+        void handleDatagram(ByteBuffer data, InetAddress sender, int senderPort);
+    }
+
     public UDPConnection() throws SocketException {
         this.socket = new DatagramSocket();
         this.executor = Executors.newCachedThreadPool();
         this.isRunning = false;
     }
-    
+
     public UDPConnection(int port) throws SocketException {
         this.socket = new DatagramSocket(port);
         this.executor = Executors.newCachedThreadPool();
         this.isRunning = false;
     }
-    
+
+    /**
+     * Mở UDP port; highThroughput dùng DatagramChannel với pool buffer và worker pool cố định
+     * (udp.receive.buffer.bytes, udp.buffer.bytes, udp.buffer.pool.size, udp.worker.threads, udp.batch.size)
+     */
+    public UDPConnection(int port, boolean highThroughput) throws IOException {
+        if (!highThroughput) {
+            this.socket = new DatagramSocket(port);
+            this.executor = Executors.newCachedThreadPool();
+            return;
+        }
+        ConfigManager config = ConfigManager.getInstance();
+        this.channel = DatagramChannel.open();
+        int receiveBuffer = config.getIntProperty("udp.receive.buffer.bytes", 4 * 1024 * 1024);
+        if (receiveBuffer > 0) {
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBuffer);
+        }
+        channel.setOption(StandardSocketOptions.SO_BROADCAST, true);
+        channel.bind(new InetSocketAddress(port));
+        channel.configureBlocking(false);
+        this.socket = channel.socket();
+        this.selector = Selector.open();
+        channel.register(selector, SelectionKey.OP_READ);
+
+        int bufferBytes = Math.max(512, Math.min(MAX_PACKET_SIZE, config.getIntProperty("udp.buffer.bytes", 8192)));
+        int poolSize = Math.max(16, config.getIntProperty("udp.buffer.pool.size", 1024));
+        this.bufferPool = new ArrayBlockingQueue<>(poolSize);
+        for (int i = 0; i < poolSize; i++) {
+            bufferPool.add(ByteBuffer.allocateDirect(bufferBytes));
+        }
+        this.batchSize = Math.max(1, config.getIntProperty("udp.batch.size", 64));
+        this.workers = Executors.newFixedThreadPool(Math.max(1, config.getIntProperty("udp.worker.threads", 2)));
+        this.executor = Executors.newSingleThreadExecutor();
+
+        if (channel.getOption(StandardSocketOptions.SO_RCVBUF) < receiveBuffer) {
+            logger.warning("UDP receive buffer capped by the OS at " + channel.getOption(StandardSocketOptions.SO_RCVBUF) + " bytes");
+        }
+    }
+
     public void setMessageHandler(MessageHandler handler) {
         this.messageHandler = handler;
     }
-    
+
+    public void setDatagramHandler(DatagramHandler handler) {
+        this.datagramHandler = handler;
+    }
+
     public void startListening() {
         if (isRunning) return;
-        
+
         isRunning = true;
-        executor.submit(this::receiveMessages);
-        logger.info("UDP connection started listening on port: " + socket.getLocalPort());
+        executor.submit(channel != null ? this::receiveBatches : this::receiveMessages);
+        long tickMs = fragmenter.getTickIntervalMs();
+        fragmentTick = fragmentTicker.scheduleWithFixedDelay(fragmenter::tick, tickMs, tickMs, TimeUnit.MILLISECONDS);
+        logger.info("UDP connection started listening on port: " + socket.getLocalPort() + (channel != null ? " (channel mode)" : ""));
     }
-    
+
     private void receiveMessages() {
         byte[] buffer = new byte[MAX_PACKET_SIZE];
-        
+
         while (isRunning && !socket.isClosed()) {
             try {
                 DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
                 socket.receive(packet);
-                
-                // Deserialize message
-                byte[] data = new byte[packet.getLength()];
-                System.arraycopy(packet.getData(), 0, data, 0, packet.getLength());
-                
+
+                // Java serialization streams start with 0xACED; anything else is a raw datagram
+                ByteBuffer data = ByteBuffer.wrap(packet.getData(), 0, packet.getLength());
+                if (UDPFragmenter.isFrame(data)) {
+                    byte[] complete = fragmenter.receive(data, packet.getAddress(), packet.getPort());
+                    if (complete == null) continue;
+                    data = ByteBuffer.wrap(complete);
+                } else if (datagramHandler != null && !isSerialized(data)) {
+                    datagramHandler.handleDatagram(data, packet.getAddress(), packet.getPort());
+                    continue;
+                }
+
                 Message message = MessageSerializer.deserialize(data);
-                
-                logger.info("Received UDP message: " + message.getType() + " from " + 
+
+                logger.info("Received UDP message: " + message.getType() + " from " +
                           packet.getAddress() + ":" + packet.getPort());
-                
+
                 if (messageHandler != null) {
                     executor.submit(() -> messageHandler.handleMessage(
                         message, packet.getAddress(), packet.getPort()));
                 }
-                
+
             } catch (IOException | ClassNotFoundException e) {
                 if (isRunning) {
                     logger.log(Level.WARNING, "Error receiving UDP message", e);
@@ -81,52 +177,199 @@ public class UDPConnection {
             }
         }
     }
-    
+
+    /**
+     * Vòng nhận của chế độ channel: mỗi lần selector báo có dữ liệu thì rút hết socket buffer,
+     * gom thành batch batchSize datagram rồi giao cho worker
+     */
+    private void receiveBatches() {
+        while (isRunning && channel.isOpen()) {
+            try {
+                if (selector.select(500) == 0) continue;
+                selector.selectedKeys().clear();
+
+                List<Packet> batch = new ArrayList<>(batchSize);
+                while (true) {
+                    ByteBuffer buffer = bufferPool.poll();
+                    if (buffer == null) {
+                        // Workers are behind: hand over what we have and wait for a buffer to come back
+                        if (!batch.isEmpty()) {
+                            dispatch(batch);
+                            batch = new ArrayList<>(batchSize);
+                        }
+                        buffer = bufferPool.take();
+                    }
+                    SocketAddress sender = channel.receive(buffer);
+                    if (sender == null) {
+                        bufferPool.offer(buffer);
+                        break;
+                    }
+                    buffer.flip();
+                    batch.add(new Packet(buffer, (InetSocketAddress) sender));
+                    if (batch.size() == batchSize) {
+                        dispatch(batch);
+                        batch = new ArrayList<>(batchSize);
+                    }
+                }
+                if (!batch.isEmpty()) dispatch(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException e) {
+                if (isRunning) {
+                    logger.log(Level.WARNING, "Error receiving UDP datagrams", e);
+                    if (messageHandler != null) {
+                        messageHandler.onError(e);
+                    }
+                }
+            }
+        }
+    }
+
+    private void dispatch(List<Packet> batch) {
+        received.addAndGet(batch.size());
+        batches.incrementAndGet();
+        workers.execute(() -> {
+            for (Packet packet : batch) {
+                try {
+                    handlePacket(packet.data, packet.sender);
+                } catch (IOException | ClassNotFoundException | RuntimeException e) {
+                    dropped.incrementAndGet();
+                    logger.log(Level.FINE, "Dropped UDP datagram from " + packet.sender, e);
+                } finally {
+                    packet.data.clear();
+                    bufferPool.offer(packet.data);
+                }
+            }
+        });
+    }
+
+    /**
+     * Xử lý datagram ngay trên buffer của pool, không copy ra mảng riêng
+     */
+    private void handlePacket(ByteBuffer data, InetSocketAddress sender) throws IOException, ClassNotFoundException {
+        if (UDPFragmenter.isFrame(data)) {
+            byte[] complete = fragmenter.receive(data, sender.getAddress(), sender.getPort());
+            if (complete == null) return;
+            data = ByteBuffer.wrap(complete);
+        } else if (!isSerialized(data)) {
+            if (datagramHandler != null) {
+                datagramHandler.handleDatagram(data, sender.getAddress(), sender.getPort());
+            }
+            return;
+        }
+        if (messageHandler != null) {
+            messageHandler.handleMessage(MessageSerializer.deserialize(data), sender.getAddress(), sender.getPort());
+        }
+    }
+
     public void sendMessage(Message message, InetAddress address, int port) throws IOException {
         if (!isRunning) {
             throw new IllegalStateException("UDP connection is not running");
         }
-        
+
         byte[] data = MessageSerializer.serialize(message);
-        
-        if (data.length > MAX_PACKET_SIZE) {
-            throw new IOException("Message too large for UDP: " + data.length + " bytes");
+
+        if (fragmenter.needsFragmentation(data.length)) {
+            fragmenter.send(data, address, port);
+        } else {
+            send(data, address, port);
+        }
+
+        logger.fine("Sent UDP message: " + message.getType() + " to " + address + ":" + port);
+    }
+
+    /**
+     * Gửi datagram nhị phân đã encode sẵn
+     */
+    public void sendDatagram(byte[] data, InetAddress address, int port) throws IOException {
+        if (!isRunning) {
+            throw new IllegalStateException("UDP connection is not running");
+        }
+        send(data, address, port);
+    }
+
+    private void send(byte[] data, InetAddress address, int port) throws IOException {
+        if (channel != null) {
+            // Non-blocking: a full send buffer drops the datagram like the network would
+            if (channel.send(ByteBuffer.wrap(data), new InetSocketAddress(address, port)) == 0) {
+                dropped.incrementAndGet();
+            }
+        } else {
+            socket.send(new DatagramPacket(data, data.length, address, port));
         }
-        
-        DatagramPacket packet = new DatagramPacket(data, data.length, address, port);
-        socket.send(packet);
-        
-        logger.info("Sent UDP message: " + message.getType() + " to " + address + ":" + port);
     }
-    
+
+    private static boolean isSerialized(ByteBuffer data) {
+        int start = data.position();
+        return data.remaining() >= 2 && data.get(start) == (byte) 0xAC && data.get(start + 1) == (byte) 0xED;
+    }
+
     public void sendMessage(Message message, String host, int port) throws IOException {
         sendMessage(message, InetAddress.getByName(host), port);
     }
-    
+
     public void sendBroadcast(Message message, int port) throws IOException {
         sendMessage(message, InetAddress.getByName("255.255.255.255"), port);
     }
-    
+
     public void stop() {
         isRunning = false;
-        
-        if (socket != null && !socket.isClosed()) {
+
+        if (channel != null) {
+            try {
+                selector.close();
+                channel.close();
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Error closing UDP channel", e);
+            }
+            workers.shutdown();
+        } else if (socket != null && !socket.isClosed()) {
             socket.close();
         }
-        
-        executor.shutdown();
+
+        if (fragmentTick != null) {
+            fragmentTick.cancel(false);
+        }
+        executor.shutdownNow();
         logger.info("UDP connection stopped");
     }
-    
+
     public boolean isRunning() {
         return isRunning && socket != null && !socket.isClosed();
     }
-    
+
     public int getLocalPort() {
         return socket != null ? socket.getLocalPort() : -1;
     }
-    
+
     public InetAddress getLocalAddress() {
         return socket != null ? socket.getLocalAddress() : null;
     }
-}
\ No newline at end of file
+
+    /**
+     * Thống kê của chế độ channel và của lớp fragment
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("channelMode", channel != null);
+        stats.put("received", received.get());
+        stats.put("batches", batches.get());
+        stats.put("dropped", dropped.get());
+        if (bufferPool != null) {
+            stats.put("freeBuffers", bufferPool.size());
+        }
+        stats.put("fragments", fragmenter.getStatistics());
+        return stats;
+    }
+
+    private static class Packet {
+        final ByteBuffer data;
+        final InetSocketAddress sender;
+
+        Packet(ByteBuffer data, InetSocketAddress sender) {
+            this.data = data;
+            this.sender = sender;
+        }
+    }
+}
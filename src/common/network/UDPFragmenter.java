@@ -0,0 +1,352 @@
+package common.network;
+
+import common.utils.ConfigManager;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Chia message serialize lớn thành nhiều datagram và ghép lại ở phía nhận.
+ * Frame: magic 'N''F', version, kind (0 = fragment, 1 = NACK), message id (8 byte), rồi
+ * fragment: index (2 byte), count (2 byte), dữ liệu; NACK: số index (2 byte), các index thiếu (2 byte mỗi index).
+ * Phía nhận gửi NACK cho các fragment còn thiếu; phía gửi giữ fragment đã gửi một thời gian để gửi lại.
+ */
+public class UDPFragmenter {
+    private static final Logger logger = Logger.getLogger(UDPFragmenter.class.getName());
+
+    private static final byte MAGIC_0 = 'N';
+    private static final byte MAGIC_1 = 'F';
+    private static final byte FORMAT_VERSION = 1;
+    private static final byte KIND_FRAGMENT = 0;
+    private static final byte KIND_NACK = 1;
+    private static final int FRAGMENT_HEADER = 16;
+    private static final int NACK_HEADER = 14;
+    private static final int MAX_FRAGMENTS = 0xFFFF;
+    private static final int MAX_NACK_INDEXES = 512;
+    private static final int COMPLETED_MEMORY = 4096;
+    // Heap cost of one fragment slot, so that a huge declared count is charged before any payload arrives
+    private static final int SLOT_BYTES = 8;
+
+    public interface Transport {
+        void send(byte[] data, InetAddress address, int port) throws IOException;
+    }
+
+    private final Transport transport;
+    private final int fragmentSize;
+    private final long retainMs;
+    private final long retainMaxBytes;
+    private final long nackDelayMs;
+    private final int maxNacks;
+    private final long reassemblyTimeoutMs;
+    private final long reassemblyMaxBytes;
+    private final AtomicLong nextMessageId = new AtomicLong(ThreadLocalRandom.current().nextLong());
+
+    // Sent fragments kept for retransmission, oldest first
+    private final LinkedHashMap<Long, Outgoing> outgoing = new LinkedHashMap<>();
+    private long outgoingBytes;
+    // Partial messages by sender + message id, oldest first
+    private final LinkedHashMap<String, Partial> partials = new LinkedHashMap<>();
+    private long partialBytes;
+    // Recently completed messages: late duplicate fragments must not start a new reassembly
+    private final LinkedHashMap<String, Boolean> completed = new LinkedHashMap<String, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > COMPLETED_MEMORY;
+        }
+    };
+
+    private final AtomicLong fragmentedMessages = new AtomicLong();
+    private final AtomicLong reassembledMessages = new AtomicLong();
+    private final AtomicLong nacksSent = new AtomicLong();
+    private final AtomicLong retransmitted = new AtomicLong();
+    private final AtomicLong abandoned = new AtomicLong();
+
+    /**
+     * Cấu hình: udp.fragment.size, udp.fragment.retain.ms/bytes, udp.nack.delay.ms, udp.nack.max,
+     * udp.reassembly.timeout.ms, udp.reassembly.max.bytes
+     */
+    public UDPFragmenter(Transport transport) {
+        ConfigManager config = ConfigManager.getInstance();
+        this.transport = transport;
+        this.fragmentSize = Math.max(256, Math.min(60000, config.getIntProperty("udp.fragment.size", 1200)));
+        this.retainMs = config.getLongProperty("udp.fragment.retain.ms", 5000);
+        this.retainMaxBytes = config.getLongProperty("udp.fragment.retain.bytes", 16L * 1024 * 1024);
+        this.nackDelayMs = Math.max(1, config.getLongProperty("udp.nack.delay.ms", 30));
+        this.maxNacks = config.getIntProperty("udp.nack.max", 5);
+        this.reassemblyTimeoutMs = config.getLongProperty("udp.reassembly.timeout.ms", 3000);
+        this.reassemblyMaxBytes = config.getLongProperty("udp.reassembly.max.bytes", 32L * 1024 * 1024);
+    }
+
+    /**
+     * Datagram có phải frame fragment/NACK hay không
+     */
+    public static boolean isFrame(ByteBuffer data) {
+        int start = data.position();
+        return data.remaining() >= NACK_HEADER && data.get(start) == MAGIC_0 && data.get(start + 1) == MAGIC_1;
+    }
+
+    /**
+     * Chu kỳ gọi tick()
+     */
+    public long getTickIntervalMs() {
+        return Math.max(5, nackDelayMs / 2);
+    }
+
+    /**
+     * Message có cần chia nhỏ hay không
+     */
+    public boolean needsFragmentation(int length) {
+        return length > fragmentSize;
+    }
+
+    /**
+     * Chia và gửi một message đã serialize; các fragment được giữ lại để trả lời NACK
+     */
+    public void send(byte[] data, InetAddress address, int port) throws IOException {
+        int count = (data.length + fragmentSize - 1) / fragmentSize;
+        if (count > MAX_FRAGMENTS) {
+            throw new IOException("Message too large for UDP: " + data.length + " bytes");
+        }
+        long messageId = nextMessageId.getAndIncrement();
+        byte[][] frames = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            int offset = i * fragmentSize;
+            int length = Math.min(fragmentSize, data.length - offset);
+            ByteBuffer frame = ByteBuffer.allocate(FRAGMENT_HEADER + length);
+            frame.put(MAGIC_0).put(MAGIC_1).put(FORMAT_VERSION).put(KIND_FRAGMENT).putLong(messageId)
+                    .putShort((short) i).putShort((short) count).put(data, offset, length);
+            frames[i] = frame.array();
+        }
+        synchronized (outgoing) {
+            outgoing.put(messageId, new Outgoing(frames, data.length, new InetSocketAddress(address, port), System.currentTimeMillis()));
+            outgoingBytes += data.length;
+            trimOutgoing(System.currentTimeMillis());
+        }
+        fragmentedMessages.incrementAndGet();
+        for (byte[] frame : frames) {
+            transport.send(frame, address, port);
+        }
+    }
+
+    /**
+     * Xử lý một frame nhận được; trả về message đầy đủ khi đã ghép xong, ngược lại null
+     */
+    public byte[] receive(ByteBuffer data, InetAddress sender, int senderPort) throws IOException {
+        int start = data.position();
+        if (data.get(start + 2) != FORMAT_VERSION) return null;
+        byte kind = data.get(start + 3);
+        long messageId = data.getLong(start + 4);
+        if (kind == KIND_NACK) {
+            retransmit(messageId, data, start + 12, sender, senderPort);
+            return null;
+        }
+        if (kind != KIND_FRAGMENT || data.remaining() < FRAGMENT_HEADER) return null;
+
+        int index = data.getShort(start + 12) & 0xFFFF;
+        int count = data.getShort(start + 14) & 0xFFFF;
+        if (count == 0 || index >= count || (long) count * SLOT_BYTES > reassemblyMaxBytes) return null;
+        byte[] payload = new byte[data.remaining() - FRAGMENT_HEADER];
+        ByteBuffer source = data.duplicate();
+        source.position(start + FRAGMENT_HEADER);
+        source.get(payload);
+
+        String key = sender.getHostAddress() + ":" + senderPort + "/" + messageId;
+        Partial partial;
+        synchronized (partials) {
+            if (completed.containsKey(key)) return null;
+            partial = partials.get(key);
+            if (partial == null) {
+                partial = new Partial(new InetSocketAddress(sender, senderPort), messageId, count);
+                partials.put(key, partial);
+                partialBytes += partial.slotBytes;
+            }
+            if (partial.fragments.length != count || partial.fragments[index] != null) return null;
+            partial.fragments[index] = payload;
+            partial.received++;
+            partial.bytes += payload.length;
+            partial.lastReceived = System.currentTimeMillis();
+            partialBytes += payload.length;
+
+            if (partial.received < count) {
+                evictPartials();
+                return null;
+            }
+            partials.remove(key);
+            partialBytes -= partial.footprint();
+            completed.put(key, Boolean.TRUE);
+        }
+
+        ByteBuffer message = ByteBuffer.allocate((int) partial.bytes);
+        for (byte[] fragment : partial.fragments) {
+            message.put(fragment);
+        }
+        reassembledMessages.incrementAndGet();
+        return message.array();
+    }
+
+    /**
+     * Gọi định kỳ: gửi NACK cho message còn thiếu fragment, bỏ message quá hạn và fragment đã gửi quá cũ
+     */
+    public void tick() {
+        long now = System.currentTimeMillis();
+        List<byte[]> nacks = new ArrayList<>();
+        List<InetSocketAddress> targets = new ArrayList<>();
+        synchronized (partials) {
+            Iterator<Partial> it = partials.values().iterator();
+            while (it.hasNext()) {
+                Partial partial = it.next();
+                if (now - partial.firstReceived > reassemblyTimeoutMs || partial.nacks >= maxNacks
+                        && now - partial.lastReceived > nackDelayMs * 2) {
+                    it.remove();
+                    partialBytes -= partial.footprint();
+                    abandoned.incrementAndGet();
+                    continue;
+                }
+                if (now - partial.lastReceived >= nackDelayMs && now - partial.lastNack >= nackDelayMs
+                        && partial.nacks < maxNacks) {
+                    partial.lastNack = now;
+                    partial.nacks++;
+                    nacks.add(partial.encodeNack());
+                    targets.add(partial.sender);
+                }
+            }
+        }
+        for (int i = 0; i < nacks.size(); i++) {
+            try {
+                transport.send(nacks.get(i), targets.get(i).getAddress(), targets.get(i).getPort());
+                nacksSent.incrementAndGet();
+            } catch (IOException e) {
+                logger.fine("Failed to send NACK to " + targets.get(i) + ": " + e.getMessage());
+            }
+        }
+        synchronized (outgoing) {
+            trimOutgoing(now);
+        }
+    }
+
+    /**
+     * Trả lời NACK: chỉ khi NACK đến từ đúng nơi đã nhận message, gửi lại về địa chỉ đó,
+     * và mỗi message được trả lời tối đa udp.nack.max lần (người nhận cũng chỉ NACK chừng ấy lần)
+     */
+    private void retransmit(long messageId, ByteBuffer data, int offset, InetAddress sender, int senderPort) throws IOException {
+        Outgoing message;
+        synchronized (outgoing) {
+            message = outgoing.get(messageId);
+            // A spoofed NACK must not turn retained fragments into traffic towards a third party
+            if (message == null || !message.destination.equals(new InetSocketAddress(sender, senderPort))
+                    || message.nacksAnswered >= maxNacks) {
+                return;
+            }
+            message.nacksAnswered++;
+        }
+        int n = Math.min(data.getShort(offset) & 0xFFFF, MAX_NACK_INDEXES);
+        for (int i = 0; i < n && offset + 4 + i * 2 <= data.limit(); i++) {
+            int index = data.getShort(offset + 2 + i * 2) & 0xFFFF;
+            if (index < message.frames.length) {
+                transport.send(message.frames[index], message.destination.getAddress(), message.destination.getPort());
+                retransmitted.incrementAndGet();
+            }
+        }
+    }
+
+    private void trimOutgoing(long now) {
+        Iterator<Outgoing> it = outgoing.values().iterator();
+        while (it.hasNext()) {
+            Outgoing message = it.next();
+            if (outgoingBytes <= retainMaxBytes && now - message.sentAt <= retainMs) break;
+            it.remove();
+            outgoingBytes -= message.bytes;
+        }
+    }
+
+    private void evictPartials() {
+        // Over the memory cap: drop the oldest partial messages, the requester retries
+        Iterator<Partial> it = partials.values().iterator();
+        while (partialBytes > reassemblyMaxBytes && it.hasNext()) {
+            Partial partial = it.next();
+            it.remove();
+            partialBytes -= partial.footprint();
+            abandoned.incrementAndGet();
+        }
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("fragmentedMessages", fragmentedMessages.get());
+        stats.put("reassembledMessages", reassembledMessages.get());
+        stats.put("nacksSent", nacksSent.get());
+        stats.put("retransmittedFragments", retransmitted.get());
+        stats.put("abandonedMessages", abandoned.get());
+        synchronized (partials) {
+            stats.put("pendingReassembly", partials.size());
+            stats.put("reassemblyBytes", partialBytes);
+        }
+        return stats;
+    }
+
+    private static class Outgoing {
+        final byte[][] frames;
+        final long bytes;
+        final InetSocketAddress destination;
+        final long sentAt;
+        int nacksAnswered;
+
+        Outgoing(byte[][] frames, long bytes, InetSocketAddress destination, long sentAt) {
+            this.frames = frames;
+            this.bytes = bytes;
+            this.destination = destination;
+            this.sentAt = sentAt;
+        }
+    }
+
+    private static class Partial {
+        final InetSocketAddress sender;
+        final long messageId;
+        final byte[][] fragments;
+        final long slotBytes;
+        final long firstReceived = System.currentTimeMillis();
+        int received;
+        long bytes;
+        long lastReceived = firstReceived;
+        long lastNack;
+        int nacks;
+
+        Partial(InetSocketAddress sender, long messageId, int count) {
+            this.sender = sender;
+            this.messageId = messageId;
+            this.fragments = new byte[count][];
+            this.slotBytes = (long) count * SLOT_BYTES;
+        }
+
+        /**
+         * Bộ nhớ tính vào udp.reassembly.max.bytes: payload đã nhận cộng mảng fragment
+         */
+        long footprint() {
+            return bytes + slotBytes;
+        }
+
+        byte[] encodeNack() {
+            List<Integer> missing = new ArrayList<>();
+            for (int i = 0; i < fragments.length && missing.size() < MAX_NACK_INDEXES; i++) {
+                if (fragments[i] == null) missing.add(i);
+            }
+            ByteBuffer frame = ByteBuffer.allocate(NACK_HEADER + missing.size() * 2);
+            frame.put(MAGIC_0).put(MAGIC_1).put(FORMAT_VERSION).put(KIND_NACK).putLong(messageId)
+                    .putShort((short) missing.size());
+            for (int index : missing) {
+                frame.putShort((short) index);
+            }
+            return frame.array();
+        }
+    }
+}
@@ -17,6 +17,7 @@ public class ConfigManager {
     private static final String DEFAULT_SERVER_HOST = "localhost";
     private static final int DEFAULT_TCP_PORT = 8080;
     private static final int DEFAULT_UDP_PORT = 8081;
+    private static final int DEFAULT_SNAPSHOT_PORT = 8082;
     private static final int DEFAULT_HEARTBEAT_INTERVAL = 30000; // 30 seconds
     private static final int DEFAULT_CONNECTION_TIMEOUT = 10000; // 10 seconds
     private static final int DEFAULT_MAX_CLIENTS = 100;
@@ -38,12 +39,42 @@ public class ConfigManager {
         properties.setProperty("server.host", DEFAULT_SERVER_HOST);
         properties.setProperty("server.tcp.port", String.valueOf(DEFAULT_TCP_PORT));
         properties.setProperty("server.udp.port", String.valueOf(DEFAULT_UDP_PORT));
+        properties.setProperty("server.snapshot.port", String.valueOf(DEFAULT_SNAPSHOT_PORT));
         properties.setProperty("network.heartbeat.interval", String.valueOf(DEFAULT_HEARTBEAT_INTERVAL));
         properties.setProperty("network.connection.timeout", String.valueOf(DEFAULT_CONNECTION_TIMEOUT));
         properties.setProperty("server.max.clients", String.valueOf(DEFAULT_MAX_CLIENTS));
         properties.setProperty("client.auto.reconnect", "true");
+        properties.setProperty("client.reconnect.initial.ms", "500");
+        properties.setProperty("client.reconnect.max.ms", "30000");
+        properties.setProperty("client.replay.batch.size", "500");
         properties.setProperty("logging.level", "INFO");
         properties.setProperty("sync.batch.size", "10");
+        
+        // Rate limiting (tokens/second và burst cho từng loại message)
+        properties.setProperty("ratelimit.enabled", "true");
+        properties.setProperty("ratelimit.session.ttl.ms", "600000");
+        properties.setProperty("ratelimit.client_connect.rate", "1");
+        properties.setProperty("ratelimit.client_connect.burst", "10");
+        properties.setProperty("ratelimit.note_create.rate", "20");
+        properties.setProperty("ratelimit.note_create.burst", "40");
+        properties.setProperty("ratelimit.note_update.rate", "20");
+        properties.setProperty("ratelimit.note_update.burst", "40");
+        properties.setProperty("ratelimit.note_delete.rate", "20");
+        properties.setProperty("ratelimit.note_delete.burst", "40");
+        properties.setProperty("ratelimit.note_batch.rate", "100");
+        properties.setProperty("ratelimit.note_batch.burst", "500");
+        properties.setProperty("ratelimit.note_chunk.rate", "50");
+        properties.setProperty("ratelimit.note_chunk.burst", "200");
+        properties.setProperty("ratelimit.chunk_resume.rate", "1");
+        properties.setProperty("ratelimit.chunk_resume.burst", "10");
+        properties.setProperty("ratelimit.sync_request.rate", "0.5");
+        properties.setProperty("ratelimit.sync_request.burst", "5");
+        properties.setProperty("ratelimit.note_fetch.rate", "50");
+        properties.setProperty("ratelimit.note_fetch.burst", "200");
+        properties.setProperty("ratelimit.reconcile_request.rate", "0.2");
+        properties.setProperty("ratelimit.reconcile_request.burst", "2");
+        properties.setProperty("ratelimit.heartbeat.rate", "2");
+        properties.setProperty("ratelimit.heartbeat.burst", "10");
     }
     
     private void loadConfigFile() {
@@ -69,6 +100,10 @@ public class ConfigManager {
         return Integer.parseInt(properties.getProperty("server.udp.port", String.valueOf(DEFAULT_UDP_PORT)));
     }
     
+    public int getSnapshotPort() {
+        return Integer.parseInt(properties.getProperty("server.snapshot.port", String.valueOf(DEFAULT_SNAPSHOT_PORT)));
+    }
+    
     public int getHeartbeatInterval() {
         return Integer.parseInt(properties.getProperty("network.heartbeat.interval", String.valueOf(DEFAULT_HEARTBEAT_INTERVAL)));
     }
@@ -93,6 +128,49 @@ public class ConfigManager {
         return Integer.parseInt(properties.getProperty("sync.batch.size", "10"));
     }
     
+    public boolean isRateLimitEnabled() {
+        return getBooleanProperty("ratelimit.enabled", true);
+    }
+    
+    public int getIntProperty(String key, int defaultValue) {
+        String value = properties.getProperty(key);
+        if (value == null || value.trim().isEmpty()) return defaultValue;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            logger.warning("Invalid integer for " + key + ": " + value);
+            return defaultValue;
+        }
+    }
+    
+    public long getLongProperty(String key, long defaultValue) {
+        String value = properties.getProperty(key);
+        if (value == null || value.trim().isEmpty()) return defaultValue;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            logger.warning("Invalid long for " + key + ": " + value);
+            return defaultValue;
+        }
+    }
+    
+    public double getDoubleProperty(String key, double defaultValue) {
+        String value = properties.getProperty(key);
+        if (value == null || value.trim().isEmpty()) return defaultValue;
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            logger.warning("Invalid number for " + key + ": " + value);
+            return defaultValue;
+        }
+    }
+    
+    public boolean getBooleanProperty(String key, boolean defaultValue) {
+        String value = properties.getProperty(key);
+        if (value == null || value.trim().isEmpty()) return defaultValue;
+        return Boolean.parseBoolean(value.trim());
+    }
+    
     public String getProperty(String key) {
         return properties.getProperty(key);
     }
@@ -0,0 +1,77 @@
+package common.utils;
+
+/**
+ * Cây băm hai tầng của tập (note id -> version): 256 bucket theo prefix hash của id, root băm từ các bucket.
+ * Bucket hash là XOR của leaf hash nên cập nhật một note chỉ tốn O(1).
+ * Client và server dùng chung class này nên hash luôn khớp nhau.
+ */
+public class MerkleDigest {
+    public static final int BUCKETS = 256;
+    
+    private final long[] buckets = new long[BUCKETS];
+    
+    /**
+     * Bucket của note theo 8 bit đầu của hash id
+     */
+    public static int bucketOf(String noteId) {
+        return (int) (hashId(noteId) >>> 56);
+    }
+    
+    /**
+     * Hash của một leaf (id, version)
+     */
+    public static long leafHash(String noteId, long version) {
+        return mix(hashId(noteId) ^ mix(version + 0x9E3779B97F4A7C15L));
+    }
+    
+    /**
+     * Thêm leaf vào digest; gọi lại với cùng tham số sẽ gỡ leaf ra
+     */
+    public void toggle(String noteId, long version) {
+        buckets[bucketOf(noteId)] ^= leafHash(noteId, version);
+    }
+    
+    public long getBucket(int bucket) {
+        return buckets[bucket];
+    }
+    
+    public long[] getBuckets() {
+        return buckets.clone();
+    }
+    
+    public void clear() {
+        java.util.Arrays.fill(buckets, 0);
+    }
+    
+    public long getRoot() {
+        return rootOf(buckets);
+    }
+    
+    /**
+     * Root hash tính từ mảng bucket hash
+     */
+    public static long rootOf(long[] bucketHashes) {
+        long root = 0x84222325CBF29CE4L;
+        for (int i = 0; i < bucketHashes.length; i++) {
+            root = mix(root ^ bucketHashes[i] ^ i);
+        }
+        return root;
+    }
+    
+    // FNV-1a over the UTF-16 code units, then a final avalanche
+    private static long hashId(String noteId) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < noteId.length(); i++) {
+            hash ^= noteId.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+        return mix(hash);
+    }
+    
+    // SplitMix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
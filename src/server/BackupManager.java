@@ -0,0 +1,339 @@
+package server;
+
+import common.utils.ConfigManager;
+import common.utils.LoggerUtil;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Backup online của note store: một base snapshot toàn bộ notes, sau đó các bản incremental chứa notes và
+ * bản ghi xóa có change sequence lớn hơn backup trước. Dữ liệu được đọc qua snapshot MVCC trên connection riêng
+ * nên không giữ write lock. File NDJSON nén gzip nằm trong backup.dir, danh sách kèm CRC32 nằm trong backup.manifest;
+ * một chain là một base cùng các incremental nối tiếp nó.
+ */
+public class BackupManager {
+    private static final Logger logger = LoggerUtil.getLogger(BackupManager.class);
+    private static final String MANIFEST = "backup.manifest";
+    private static final String BASE = "base";
+    private static final String INCREMENTAL = "incr";
+
+    private final DatabaseManager databaseManager;
+    private final BulkTransfer bulkTransfer;
+    private final Path directory;
+    private final int batchSize;
+    private final AtomicLong backupsTaken = new AtomicLong();
+    private volatile Entry lastBackup;
+
+    public BackupManager(DatabaseManager databaseManager, BulkTransfer bulkTransfer) {
+        this.databaseManager = databaseManager;
+        this.bulkTransfer = bulkTransfer;
+        ConfigManager config = ConfigManager.getInstance();
+        this.directory = Paths.get(config.getProperty("backup.dir", "./backup"));
+        this.batchSize = Math.max(1, config.getIntProperty("bulk.import.batch.size", 1000));
+    }
+
+    /**
+     * Ghi backup tới sequence đã commit: incremental nối tiếp chain mới nhất, hoặc base nếu full, chưa có chain
+     * hay tombstone cần cho incremental đã bị dọn. Trả về null nếu không có gì mới
+     */
+    synchronized Entry backup(long sequence, boolean full) throws IOException, SQLException {
+        Files.createDirectories(directory);
+        List<Entry> chain = latestChain(readManifest(), Long.MAX_VALUE);
+        Entry last = chain.isEmpty() ? null : chain.get(chain.size() - 1);
+        if (last != null && last.to == sequence && (!full || chain.size() == 1)) return null;
+
+        long start = System.nanoTime();
+        Entry entry;
+        try (DatabaseManager.Snapshot snapshot = databaseManager.openSnapshot()) {
+            // The horizon is read inside the snapshot, so a prune or clear cannot slip in between check and scan
+            long horizon = snapshot.getSyncState(NoteManager.TOMBSTONE_HORIZON);
+            boolean base = full || last == null;
+            if (!base && (last.to < horizon || last.to > sequence)) {
+                logger.info("Deletions after sequence " + last.to + " are no longer tracked, taking a base backup");
+                base = true;
+            }
+            // Rows committed after the sequence was read may be included too; the next increment repeats them harmlessly
+            entry = base ? write(BASE, 0, sequence, snapshot) : write(INCREMENTAL, last.to, sequence, snapshot);
+        }
+        Files.write(directory.resolve(MANIFEST), (entry.toManifestLine() + "\n").getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        backupsTaken.incrementAndGet();
+        lastBackup = entry;
+        logger.info(entry + " in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+        return entry;
+    }
+
+    private Entry write(String type, long from, long to, DatabaseManager.Snapshot snapshot) throws IOException, SQLException {
+        String name = BASE.equals(type)
+                ? String.format("base-%012d.ndjson.gz", to)
+                : String.format("incr-%012d-%012d.ndjson.gz", from, to);
+        Path temp = directory.resolve(name + ".tmp");
+        CRC32 crc = new CRC32();
+        long notes;
+        long deletions = 0;
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(
+                new CheckedOutputStream(Files.newOutputStream(temp), crc), 64 * 1024), StandardCharsets.UTF_8), 64 * 1024)) {
+            // Deletions go first: on restore a note written later in the same file must win
+            if (INCREMENTAL.equals(type)) {
+                deletions = snapshot.scanDeletedIdsSince(from, id -> NoteJson.writeDeleted(out, id));
+            }
+            notes = snapshot.scanNotesChangedSince(BASE.equals(type) ? -1 : from,
+                    (note, contentLength, content) -> NoteJson.write(out, note, content));
+        } catch (IOException | SQLException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, directory.resolve(name), StandardCopyOption.REPLACE_EXISTING);
+        return new Entry(type, name, from, to, notes, deletions, crc.getValue(), LocalDateTime.now());
+    }
+
+    /**
+     * Kiểm tra chain mới nhất (chỉ gồm các backup tới sequence upTo): các file nối tiếp nhau, checksum khớp,
+     * mọi dòng đọc được và số note/bản ghi xóa khớp manifest. Ném IOException ở lỗi đầu tiên
+     */
+    synchronized String verify(long upTo) throws IOException {
+        List<Entry> chain = checkedChain(upTo, true);
+        long notes = 0;
+        long deletions = 0;
+        for (Entry entry : chain) {
+            long fileNotes = 0;
+            long fileDeletions = 0;
+            try (BufferedReader in = openEntry(entry)) {
+                String line;
+                long lineNumber = 0;
+                while ((line = in.readLine()) != null) {
+                    lineNumber++;
+                    if (line.trim().isEmpty()) continue;
+                    try {
+                        if (NoteJson.deletedId(line) != null) {
+                            fileDeletions++;
+                        } else {
+                            NoteJson.parse(line);
+                            fileNotes++;
+                        }
+                    } catch (IllegalArgumentException e) {
+                        throw new IOException(entry.file + " line " + lineNumber + ": " + e.getMessage());
+                    }
+                }
+            }
+            if (fileNotes != entry.notes || fileDeletions != entry.deletions) {
+                throw new IOException(String.format("%s: %d notes, %d deletions, manifest says %d, %d",
+                        entry.file, fileNotes, fileDeletions, entry.notes, entry.deletions));
+            }
+            notes += fileNotes;
+            deletions += fileDeletions;
+        }
+        String result = String.format("Backup chain OK: base at sequence %d + %d incremental(s) up to sequence %d, %d notes and %d deletions checked",
+                chain.get(0).to, chain.size() - 1, chain.get(chain.size() - 1).to, notes, deletions);
+        logger.info(result);
+        return result;
+    }
+
+    /**
+     * Chain mới nhất tới sequence upTo, đã kiểm tra các file nối tiếp nhau và (nếu checksums) CRC của từng file
+     */
+    synchronized List<Entry> checkedChain(long upTo, boolean checksums) throws IOException {
+        List<Entry> chain = latestChain(readManifest(), upTo);
+        if (chain.isEmpty()) {
+            throw new IOException("No backup" + (upTo < Long.MAX_VALUE ? " up to sequence " + upTo : "") + " in " + directory);
+        }
+        for (int i = 0; i < chain.size(); i++) {
+            Entry entry = chain.get(i);
+            if (i > 0 && entry.from != chain.get(i - 1).to) {
+                throw new IOException(entry.file + " does not follow sequence " + chain.get(i - 1).to);
+            }
+            Path file = directory.resolve(entry.file);
+            if (!Files.isRegularFile(file)) {
+                throw new IOException(entry.file + " is missing");
+            }
+            if (checksums && checksum(file) != entry.crc) {
+                throw new IOException(entry.file + ": checksum mismatch");
+            }
+        }
+        return chain;
+    }
+
+    /**
+     * Khôi phục store từ chain đã kiểm tra: xóa toàn bộ notes, nạp base bằng bulk import rồi áp dụng lần lượt
+     * các incremental. Note được gán change sequence mới từ firstSequence + 1; caller giữ write lock
+     */
+    synchronized String restore(List<Entry> chain, long firstSequence) throws IOException, SQLException {
+        long start = System.nanoTime();
+        databaseManager.deleteAllNotes();
+        AtomicLong next = new AtomicLong(firstSequence + 1);
+        bulkTransfer.importFrom(directory.resolve(chain.get(0).file), next::getAndAdd);
+        long sequence = Math.max(firstSequence, databaseManager.getMaxChangeSeq());
+        for (Entry entry : chain.subList(1, chain.size())) {
+            sequence = applyIncrement(entry, sequence);
+        }
+        String result = String.format("Restored backup up to sequence %d (base + %d incremental(s)): %d notes in %.1fs",
+                chain.get(chain.size() - 1).to, chain.size() - 1, databaseManager.countNotes(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) / 1000.0);
+        logger.info(result);
+        return result;
+    }
+
+    private long applyIncrement(Entry entry, long sequence) throws IOException, SQLException {
+        try (BufferedReader in = openEntry(entry);
+             DatabaseManager.BulkWriter writer = databaseManager.openBulkWriter()) {
+            String line;
+            long lineNumber = 0;
+            int pending = 0;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty()) continue;
+                try {
+                    String deletedId = NoteJson.deletedId(line);
+                    if (deletedId != null) {
+                        writer.delete(deletedId);
+                    } else {
+                        writer.add(NoteJson.parse(line), ++sequence);
+                    }
+                } catch (IllegalArgumentException e) {
+                    throw new IOException(entry.file + " line " + lineNumber + ": " + e.getMessage());
+                }
+                if (++pending == batchSize) {
+                    writer.flush();
+                    pending = 0;
+                }
+            }
+            writer.flush();
+        }
+        return sequence;
+    }
+
+    private List<Entry> readManifest() throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        Path manifest = directory.resolve(MANIFEST);
+        if (!Files.exists(manifest)) return entries;
+        int lineNumber = 0;
+        for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+            lineNumber++;
+            if (line.trim().isEmpty()) continue;
+            try {
+                entries.add(Entry.parse(line));
+            } catch (RuntimeException e) {
+                throw new IOException(MANIFEST + " line " + lineNumber + " is corrupt", e);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Base mới nhất có sequence không quá upTo cùng các incremental theo sau nó
+     */
+    private static List<Entry> latestChain(List<Entry> entries, long upTo) {
+        List<Entry> chain = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (entry.to > upTo) continue;
+            if (BASE.equals(entry.type)) {
+                chain.clear();
+                chain.add(entry);
+            } else if (!chain.isEmpty()) {
+                chain.add(entry);
+            }
+        }
+        return chain;
+    }
+
+    private BufferedReader openEntry(Entry entry) throws IOException {
+        return new BufferedReader(new InputStreamReader(new GZIPInputStream(
+                Files.newInputStream(directory.resolve(entry.file)), 64 * 1024), StandardCharsets.UTF_8), 64 * 1024);
+    }
+
+    private static long checksum(Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        try (InputStream in = new CheckedInputStream(Files.newInputStream(file), crc)) {
+            byte[] buffer = new byte[64 * 1024];
+            while (in.read(buffer) != -1) {}
+        }
+        return crc.getValue();
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("directory", directory.toString());
+        stats.put("backupsTaken", backupsTaken.get());
+        Entry last = lastBackup;
+        if (last != null) {
+            stats.put("lastBackup", last.file);
+            stats.put("lastBackupSequence", last.to);
+            stats.put("lastBackupAt", last.created);
+        }
+        return stats;
+    }
+
+    /**
+     * Một dòng của manifest: file backup và khoảng sequence (from, to] mà nó chứa
+     */
+    public static class Entry {
+        private final String type;
+        private final String file;
+        private final long from;
+        private final long to;
+        private final long notes;
+        private final long deletions;
+        private final long crc;
+        private final LocalDateTime created;
+
+        Entry(String type, String file, long from, long to, long notes, long deletions, long crc, LocalDateTime created) {
+            this.type = type;
+            this.file = file;
+            this.from = from;
+            this.to = to;
+            this.notes = notes;
+            this.deletions = deletions;
+            this.crc = crc;
+            this.created = created;
+        }
+
+        public boolean isBase() { return BASE.equals(type); }
+        public String getFile() { return file; }
+        public long getFromSequence() { return from; }
+        public long getToSequence() { return to; }
+        public long getNotes() { return notes; }
+        public long getDeletions() { return deletions; }
+
+        String toManifestLine() {
+            return String.join("\t", type, file, Long.toString(from), Long.toString(to), Long.toString(notes),
+                    Long.toString(deletions), Long.toHexString(crc), created.toString());
+        }
+
+        static Entry parse(String line) {
+            String[] fields = line.split("\t");
+            if (fields.length != 8 || !(BASE.equals(fields[0]) || INCREMENTAL.equals(fields[0]))) {
+                throw new IllegalArgumentException("Unexpected manifest line: " + line);
+            }
+            return new Entry(fields[0], fields[1], Long.parseLong(fields[2]), Long.parseLong(fields[3]),
+                    Long.parseLong(fields[4]), Long.parseLong(fields[5]), Long.parseLong(fields[6], 16),
+                    LocalDateTime.parse(fields[7]));
+        }
+
+        @Override
+        public String toString() {
+            return isBase()
+                    ? String.format("Base backup %s: %d notes at sequence %d", file, notes, to)
+                    : String.format("Incremental backup %s: %d notes, %d deletions, sequences (%d, %d]", file, notes, deletions, from, to);
+        }
+    }
+}
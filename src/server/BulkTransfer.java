@@ -0,0 +1,305 @@
+package server;
+
+import common.models.Note;
+import common.utils.ConfigManager;
+import common.utils.LoggerUtil;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntToLongFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Export/import toàn bộ note store ra/vào file NDJSON (một note mỗi dòng, file ".gz" được nén gzip).
+ * Export đọc bằng cursor và ghi thẳng ra file; import đọc file tuần tự, chia lô bulk.import.batch.size dòng
+ * cho bulk.import.threads luồng, mỗi luồng parse và ghi bằng JDBC batch trên connection riêng.
+ * Mỗi lô được giữ trước một dải change sequence theo thứ tự dòng, nên khi một id xuất hiện nhiều lần
+ * thì dòng sau cùng thắng dù các lô được ghi song song.
+ * Tiến độ được log mỗi bulk.progress.interval.ms.
+ */
+public class BulkTransfer {
+    private static final Logger logger = LoggerUtil.getLogger(BulkTransfer.class);
+    private static final int MAX_LOGGED_SKIPS = 10;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final Chunk END = new Chunk(0, 0, new ArrayList<>());
+
+    private final DatabaseManager databaseManager;
+    private final int threads;
+    private final int batchSize;
+    private final long progressIntervalMs;
+
+    public BulkTransfer(DatabaseManager databaseManager) {
+        this.databaseManager = databaseManager;
+        ConfigManager config = ConfigManager.getInstance();
+        this.threads = Math.max(1, config.getIntProperty("bulk.import.threads", Runtime.getRuntime().availableProcessors()));
+        this.batchSize = Math.max(1, config.getIntProperty("bulk.import.batch.size", 1000));
+        this.progressIntervalMs = Math.max(100, config.getLongProperty("bulk.progress.interval.ms", 5000));
+    }
+
+    /**
+     * Ghi toàn bộ notes ra file; file chỉ được thay khi export xong
+     */
+    public Report exportTo(Path file) throws IOException, SQLException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Progress progress = new Progress("Export");
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(openOutput(temp), StandardCharsets.UTF_8), 64 * 1024)) {
+            progress.start();
+            databaseManager.scanNotes((note, contentLength, content) -> {
+                NoteJson.write(out, note, content);
+                progress.done.incrementAndGet();
+            });
+        } catch (IOException | SQLException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        } finally {
+            progress.stop();
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        Report report = progress.report(0);
+        logger.info(report + " -> " + file);
+        return report;
+    }
+
+    /**
+     * Nạp notes từ file; reserve(n) trả về sequence đầu của dải n sequence dành cho một lô.
+     * Dòng không hợp lệ bị bỏ qua; lỗi DB dừng import, các lô đã commit vẫn được giữ.
+     * Caller công bố sequence sau khi xong
+     */
+    Report importFrom(Path file, IntToLongFunction reserve) throws IOException, SQLException {
+        Progress progress = new Progress("Import");
+        AtomicLong skipped = new AtomicLong();
+        AtomicReference<SQLException> failure = new AtomicReference<>();
+        // Bounded hand-off keeps memory flat: the reader waits while every worker is busy
+        BlockingQueue<Chunk> queue = new ArrayBlockingQueue<>(threads * 2);
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "BulkImport-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < threads; i++) {
+            workers.execute(() -> runWorker(queue, progress, skipped, failure));
+        }
+
+        progress.start();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(openInput(file), StandardCharsets.UTF_8), 64 * 1024)) {
+            List<String> lines = new ArrayList<>(batchSize);
+            long lineNumber = 0;
+            long firstLine = 1;
+            String line;
+            while ((line = in.readLine()) != null && failure.get() == null) {
+                lineNumber++;
+                if (line.trim().isEmpty()) continue;
+                if (lines.isEmpty()) firstLine = lineNumber;
+                lines.add(line);
+                if (lines.size() == batchSize) {
+                    queue.put(new Chunk(reserve.applyAsLong(lines.size()), firstLine, lines));
+                    lines = new ArrayList<>(batchSize);
+                }
+            }
+            if (!lines.isEmpty() && failure.get() == null) {
+                queue.put(new Chunk(reserve.applyAsLong(lines.size()), firstLine, lines));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Import interrupted");
+        } finally {
+            // Workers still drain the queue after a failure, so the end markers always fit in eventually
+            for (int i = 0; i < threads; i++) {
+                putUninterruptibly(queue, END);
+            }
+            workers.shutdown();
+            awaitUninterruptibly(workers);
+            progress.stop();
+        }
+
+        if (failure.get() != null) throw failure.get();
+        Report report = progress.report(skipped.get());
+        logger.info(report + " <- " + file);
+        return report;
+    }
+
+    private void runWorker(BlockingQueue<Chunk> queue, Progress progress, AtomicLong skipped, AtomicReference<SQLException> failure) {
+        DatabaseManager.BulkWriter writer = null;
+        try {
+            writer = databaseManager.openBulkWriter();
+        } catch (SQLException e) {
+            failure.compareAndSet(null, e);
+        }
+        try {
+            Chunk chunk;
+            while ((chunk = queue.take()) != END) {
+                if (writer == null || failure.get() != null) continue;
+                List<Note> notes = new ArrayList<>(chunk.lines.size());
+                for (int i = 0; i < chunk.lines.size(); i++) {
+                    try {
+                        notes.add(NoteJson.parse(chunk.lines.get(i)));
+                    } catch (IllegalArgumentException e) {
+                        notes.add(null);
+                        if (skipped.incrementAndGet() <= MAX_LOGGED_SKIPS) {
+                            logger.warning("Skipping invalid note near line " + (chunk.firstLine + i) + ": " + e.getMessage());
+                        }
+                    }
+                }
+                for (int attempt = 1; ; attempt++) {
+                    try {
+                        for (int i = 0; i < notes.size(); i++) {
+                            if (notes.get(i) != null) writer.add(notes.get(i), chunk.firstSequence + i);
+                        }
+                        writer.flush();
+                        progress.done.addAndGet(chunk.lines.size());
+                        break;
+                    } catch (SQLException e) {
+                        // Two batches inserting the same new id at once: one loses the race and simply goes again
+                        if (attempt < MAX_ATTEMPTS && isContention(e)) continue;
+                        logger.log(Level.SEVERE, "Import batch starting near line " + chunk.firstLine + " failed", e);
+                        failure.compareAndSet(null, e);
+                        break;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (writer != null) writer.close();
+        }
+    }
+
+    private static boolean isContention(SQLException e) {
+        // A batch failure wraps the statement's error: 23505 duplicate key, HYT00 lock timeout, 40001 deadlock
+        for (Throwable t = e; t instanceof SQLException; t = t.getCause() != null ? t.getCause() : ((SQLException) t).getNextException()) {
+            String state = ((SQLException) t).getSQLState();
+            if ("23505".equals(state) || "HYT00".equals(state) || "40001".equals(state)) return true;
+        }
+        return false;
+    }
+
+    private static InputStream openInput(Path file) throws IOException {
+        InputStream in = Files.newInputStream(file);
+        return file.toString().endsWith(".gz") ? new GZIPInputStream(in, 64 * 1024) : in;
+    }
+
+    private static OutputStream openOutput(Path temp) throws IOException {
+        OutputStream out = Files.newOutputStream(temp);
+        return temp.toString().endsWith(".gz.tmp") ? new GZIPOutputStream(out, 64 * 1024) : out;
+    }
+
+    private static void putUninterruptibly(BlockingQueue<Chunk> queue, Chunk chunk) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(chunk);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    private static void awaitUninterruptibly(ExecutorService executor) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (executor.awaitTermination(1, TimeUnit.MINUTES)) break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    private static class Chunk {
+        final long firstSequence;
+        final long firstLine;
+        final List<String> lines;
+
+        Chunk(long firstSequence, long firstLine, List<String> lines) {
+            this.firstSequence = firstSequence;
+            this.firstLine = firstLine;
+            this.lines = lines;
+        }
+    }
+
+    /**
+     * Đếm tiến độ và log định kỳ trên một thread riêng
+     */
+    private class Progress {
+        final String operation;
+        final AtomicLong done = new AtomicLong();
+        long startNanos;
+        ScheduledExecutorService reporter;
+
+        Progress(String operation) {
+            this.operation = operation;
+        }
+
+        void start() {
+            startNanos = System.nanoTime();
+            reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, operation + "-Progress");
+                thread.setDaemon(true);
+                return thread;
+            });
+            reporter.scheduleAtFixedRate(() -> logger.info(report(0).progressLine()),
+                    progressIntervalMs, progressIntervalMs, TimeUnit.MILLISECONDS);
+        }
+
+        void stop() {
+            if (reporter != null) reporter.shutdownNow();
+        }
+
+        Report report(long skipped) {
+            return new Report(operation, done.get() - skipped, skipped, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        }
+    }
+
+    /**
+     * Kết quả của một lần export/import
+     */
+    public static class Report {
+        private final String operation;
+        private final long notes;
+        private final long skipped;
+        private final long elapsedMs;
+
+        Report(String operation, long notes, long skipped, long elapsedMs) {
+            this.operation = operation;
+            this.notes = notes;
+            this.skipped = skipped;
+            this.elapsedMs = elapsedMs;
+        }
+
+        public String getOperation() { return operation; }
+        public long getNotes() { return notes; }
+        public long getSkipped() { return skipped; }
+        public long getElapsedMs() { return elapsedMs; }
+
+        public long getNotesPerSecond() {
+            return elapsedMs > 0 ? notes * 1000 / elapsedMs : notes;
+        }
+
+        String progressLine() {
+            return String.format("%s in progress: %d notes, %d notes/s", operation, notes, getNotesPerSecond());
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d notes (%d skipped) in %.1fs, %d notes/s",
+                    operation, notes, skipped, elapsedMs / 1000.0, getNotesPerSecond());
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package server;
+
+import common.models.Message;
+import common.models.MessageType;
+import common.models.Note;
+import common.models.NoteSummary;
+import common.models.SyncResponse;
+import common.utils.LoggerUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Consumer của change stream, broadcast thay đổi tới các client đã đăng ký.
+ * Các event của một batch được gom lại và gửi thành một NOTE_CHANGES cho mỗi client.
+ * Event bị drop được đọc lại từ change log và gửi trước event kế tiếp
+ */
+public class ChangeBroadcaster extends NoteChangeSubscriber {
+    private static final Logger logger = LoggerUtil.getLogger(ChangeBroadcaster.class);
+    
+    private final ClientManager clientManager;
+    private final NoteManager noteManager;
+    private final List<NoteChangeEvent> pendingBatch = new ArrayList<>();
+    private volatile long lastSequence;
+    // Dropped range (unrecoveredFrom, unrecoveredTo] not yet replayed; -1 when there is none
+    private volatile long unrecoveredFrom = -1;
+    private long unrecoveredTo;
+    // Replay frames are stamped only while nothing after the gap has been sent yet
+    private boolean stampRecovery;
+    private volatile long recoveredChanges;
+    
+    public ChangeBroadcaster(ClientManager clientManager, NoteManager noteManager) {
+        this.clientManager = clientManager;
+        this.noteManager = noteManager;
+    }
+    
+    @Override
+    protected void onChange(NoteChangeEvent event) {
+        if (unrecoveredFrom >= 0) recover();
+        if (event.getBatchEndSequence() > 0) {
+            pendingBatch.add(event);
+            if (event.getSequence() == event.getBatchEndSequence()) flushBatch();
+            return;
+        }
+        flushBatch();
+        
+        Message message;
+        Message summaryMessage;
+        switch (event.getType()) {
+            case CREATED:
+                message = new Message(MessageType.NOTE_CREATED, "SERVER", event.getNote());
+                summaryMessage = new Message(MessageType.NOTE_CREATED, "SERVER", new NoteSummary(event.getNote()));
+                break;
+            case UPDATED:
+                message = new Message(MessageType.NOTE_UPDATED, "SERVER", event.getNote());
+                summaryMessage = new Message(MessageType.NOTE_UPDATED, "SERVER", new NoteSummary(event.getNote()));
+                break;
+            case DELETED:
+                message = new Message(MessageType.NOTE_DELETED, "SERVER", event.getNoteId());
+                summaryMessage = message;
+                break;
+            default:
+                return;
+        }
+        // The sequence lets clients track what they have seen for session resumption
+        message.setSequence(stamp(event.getSequence()));
+        summaryMessage.setSequence(stamp(event.getSequence()));
+        clientManager.broadcastNoteChange(message, summaryMessage, event.getNoteId(), event.getAuthorId(), event.getOriginClientId());
+        lastSequence = event.getSequence();
+    }
+    
+    @Override
+    protected void onGap(long lastSequence, long nextSequence) {
+        super.onGap(lastSequence, nextSequence);
+        // The end of a batch may be among the dropped events: send what arrived of it
+        flushBatch();
+        // Replayed before the event after the gap is broadcast
+        if (unrecoveredFrom < 0) {
+            unrecoveredFrom = lastSequence;
+            stampRecovery = true;
+        }
+        unrecoveredTo = nextSequence - 1;
+        recover();
+    }
+    
+    /**
+     * Gửi lại các thay đổi trong khoảng bị drop từ change log. Nếu đọc lỗi thì thử lại ở event sau; trong lúc đó
+     * heartbeat ack giữ sequence trước khoảng trống và broadcast không mang sequence, để resume point của client
+     * không vượt qua phần bị thiếu
+     */
+    private void recover() {
+        long from = unrecoveredFrom;
+        while (from < unrecoveredTo) {
+            List<NoteChangeEvent> page = noteManager.getChangeEvents(from, unrecoveredTo);
+            if (page == null) {
+                unrecoveredFrom = from;
+                stampRecovery = false;
+                logger.warning("Could not replay dropped changes after " + from + ", retrying with the next event");
+                return;
+            }
+            if (page.isEmpty()) break;
+            long end = page.get(page.size() - 1).getSequence();
+            boolean stamped = stampRecovery;
+            clientManager.broadcastNoteChanges(page, (changes, metadataOnly) -> frame(changes, metadataOnly, end, stamped));
+            recoveredChanges += page.size();
+            from = end;
+        }
+        logger.info("Replayed dropped changes up to " + unrecoveredTo);
+        lastSequence = Math.max(lastSequence, unrecoveredTo);
+        unrecoveredFrom = -1;
+    }
+    
+    private long stamp(long sequence) {
+        return unrecoveredFrom >= 0 ? 0 : sequence;
+    }
+    
+    private void flushBatch() {
+        if (pendingBatch.isEmpty()) return;
+        long end = pendingBatch.get(pendingBatch.size() - 1).getSequence();
+        boolean stamped = unrecoveredFrom < 0;
+        clientManager.broadcastNoteChanges(pendingBatch, (changes, metadataOnly) -> frame(changes, metadataOnly, end, stamped));
+        lastSequence = end;
+        pendingBatch.clear();
+    }
+    
+    /**
+     * Frame NOTE_CHANGES cho một tập thay đổi, mang sequence của event cuối trong batch (0 nếu không được stamp)
+     */
+    private Message frame(List<NoteChangeEvent> changes, boolean metadataOnly, long sequence, boolean stamped) {
+        List<Note> notes = new ArrayList<>();
+        List<NoteSummary> summaries = new ArrayList<>();
+        List<String> deletedIds = new ArrayList<>();
+        for (NoteChangeEvent change : changes) {
+            if (change.getType() == NoteChangeEvent.Type.DELETED) {
+                deletedIds.add(change.getNoteId());
+            } else if (metadataOnly) {
+                summaries.add(new NoteSummary(change.getNote()));
+            } else {
+                notes.add(change.getNote());
+            }
+        }
+        SyncResponse delta = new SyncResponse(null, notes, sequence);
+        delta.setDeletedNoteIds(deletedIds);
+        if (metadataOnly) delta.setSummaries(summaries);
+        Message message = new Message(MessageType.NOTE_CHANGES, "SERVER", delta);
+        message.setSequence(stamped ? sequence : 0);
+        return message;
+    }
+    
+    /**
+     * Sequence mà mọi thay đổi tới đó đã được đưa vào hàng đợi gửi của các client; dừng trước khoảng bị drop
+     * chưa gửi lại được
+     */
+    public long getLastSequence() {
+        long from = unrecoveredFrom;
+        return from >= 0 ? from : lastSequence;
+    }
+    
+    public long getRecoveredChanges() {
+        return recoveredChanges;
+    }
+}
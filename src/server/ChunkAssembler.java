@@ -0,0 +1,275 @@
+package server;
+
+import common.models.BatchResult;
+import common.models.ChunkAck;
+import common.models.Note;
+import common.models.NoteChunk;
+import common.utils.ConfigManager;
+import common.utils.LoggerUtil;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Ghép các chunk upload của note lớn vào file tạm, rồi ghi vào DB bằng stream khi nhận đủ.
+ * Upload dở dang được giữ qua các lần kết nối lại (tới chunk.spool.ttl.ms) để client gửi tiếp từ offset đã ack;
+ * kết quả upload đã ghi được lưu trong DedupCache theo transferId nên upload lại sau khi mất ack cuối không ghi lần hai.
+ */
+public class ChunkAssembler {
+    private static final Logger logger = LoggerUtil.getLogger(ChunkAssembler.class);
+
+    private final NoteManager noteManager;
+    private final DedupCache dedupCache;
+    private final Path spoolDir;
+    private final long ttlMs;
+    private final long maxUploadChars;
+    private final Map<String, Spool> spools = new ConcurrentHashMap<>();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong rewinds = new AtomicLong();
+
+    public ChunkAssembler(NoteManager noteManager, DedupCache dedupCache) {
+        ConfigManager config = ConfigManager.getInstance();
+        this.noteManager = noteManager;
+        this.dedupCache = dedupCache;
+        this.spoolDir = Paths.get(config.getProperty("chunk.spool.dir", "data/uploads"));
+        this.ttlMs = config.getLongProperty("chunk.spool.ttl.ms", 600000);
+        this.maxUploadChars = config.getLongProperty("chunk.upload.max.chars", 67108864);
+        deleteStaleFiles();
+    }
+
+    /**
+     * Nhận một chunk của session, trả về ack với offset đã nhận (và kết quả nếu đây là chunk cuối).
+     * Spool thuộc về session đã gửi chunk đầu: session khác dùng cùng transferId không chạm được vào nó
+     */
+    public CompletableFuture<ChunkAck> accept(String clientId, NoteChunk chunk) {
+        String transferId = chunk.getTransferId();
+        String key = key(clientId, transferId);
+        Spool spool = spools.get(key);
+        if (chunk.getOffset() == 0 && chunk.getNote() != null) {
+            // A re-upload after the final CHUNK_ACK was lost is answered with the stored outcome
+            CompletableFuture<BatchResult.OperationResult> stored = dedupCache.find(clientId, transferId);
+            if (stored != null) {
+                return stored.thenApply(result -> complete(transferId, chunk.getNoteId(), chunk.getTotalLength(), result));
+            }
+            // The declared length is the client's word: refuse it before any disk is committed
+            if (chunk.getTotalLength() <= 0 || chunk.getTotalLength() > maxUploadChars) {
+                logger.warning("Rejected upload of " + chunk.getNoteId() + " declaring " + chunk.getTotalLength() + " chars");
+                return CompletableFuture.completedFuture(complete(chunk, 0, failed(chunk.getNoteId())));
+            }
+            // First chunk (or a restart after the spool was lost): begin a fresh spool
+            if (spool != null) discard(key, spool);
+            try {
+                spool = new Spool(clientId, chunk);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to open upload spool for " + chunk.getNoteId(), e);
+                return CompletableFuture.completedFuture(complete(chunk, 0, failed(chunk.getNoteId())));
+            }
+            spools.put(key, spool);
+        }
+        if (spool == null) {
+            return CompletableFuture.completedFuture(rewind(transferId, chunk.getNoteId(), 0));
+        }
+
+        synchronized (spool) {
+            if (chunk.getOffset() != spool.received) {
+                return CompletableFuture.completedFuture(rewind(transferId, chunk.getNoteId(), spool.received));
+            }
+            if (spool.received + chunk.getData().length() > spool.total) {
+                logger.warning("Upload of " + spool.noteId + " exceeds its declared " + spool.total + " chars");
+                discard(key, spool);
+                return CompletableFuture.completedFuture(complete(chunk, spool.received, failed(chunk.getNoteId())));
+            }
+            try {
+                spool.writer.write(chunk.getData());
+                spool.received += chunk.getData().length();
+                spool.lastTouched = System.currentTimeMillis();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to spool chunk " + chunk, e);
+                discard(key, spool);
+                return CompletableFuture.completedFuture(complete(chunk, spool.received, failed(chunk.getNoteId())));
+            }
+            if (spool.received < spool.total) {
+                return CompletableFuture.completedFuture(new ChunkAck(transferId, chunk.getNoteId(), spool.received));
+            }
+            spools.remove(key);
+            CompletableFuture<BatchResult.OperationResult> stored = dedupCache.begin(clientId, transferId);
+            if (stored != null) {
+                discard(key, spool);
+                long total = spool.total;
+                return stored.thenApply(result -> complete(chunk, total, result));
+            }
+            BatchResult.OperationResult result = store(spool);
+            dedupCache.complete(clientId, transferId, result);
+            return CompletableFuture.completedFuture(complete(chunk, spool.received, result));
+        }
+    }
+
+    /**
+     * Trả lời CHUNK_RESUME: offset server đã nhận, kết quả nếu upload đã được ghi,
+     * 0 nếu upload không còn (client gửi lại từ đầu)
+     */
+    public CompletableFuture<ChunkAck> resume(String clientId, ChunkAck request) {
+        Spool spool = spools.get(key(clientId, request.getTransferId()));
+        long offset = 0;
+        if (spool != null) {
+            synchronized (spool) {
+                spool.lastTouched = System.currentTimeMillis();
+                offset = spool.received;
+            }
+        } else {
+            CompletableFuture<BatchResult.OperationResult> stored = dedupCache.find(clientId, request.getTransferId());
+            if (stored != null) {
+                return stored.thenApply(result -> complete(request.getTransferId(), request.getNoteId(), request.getOffset(), result));
+            }
+        }
+        return CompletableFuture.completedFuture(rewind(request.getTransferId(), request.getNoteId(), offset));
+    }
+
+    /**
+     * Kết thúc upload với FAILED (ví dụ khi bị rate limit): spool bị bỏ, client nhận kết quả thay vì chờ ack
+     */
+    public ChunkAck reject(String clientId, String transferId, String noteId) {
+        String key = key(clientId, transferId);
+        Spool spool = spools.get(key);
+        if (spool != null) {
+            discard(key, spool);
+        }
+        ChunkAck ack = new ChunkAck(transferId, noteId, 0);
+        ack.setStatus(BatchResult.Status.FAILED);
+        return ack;
+    }
+
+    private BatchResult.OperationResult store(Spool spool) {
+        try {
+            spool.writer.close();
+            try (Reader content = Files.newBufferedReader(spool.file, StandardCharsets.UTF_8)) {
+                BatchResult.OperationResult result = noteManager.applyStreamed(spool.note, spool.create, content, spool.total, spool.clientId);
+                completed.incrementAndGet();
+                return result;
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.log(Level.WARNING, "Failed to store uploaded note " + spool.noteId, e);
+            return failed(spool.noteId);
+        } finally {
+            deleteQuietly(spool.file);
+        }
+    }
+
+    /**
+     * Xóa các upload bị bỏ dở quá chunk.spool.ttl.ms
+     */
+    public void expireSpools() {
+        long cutoff = System.currentTimeMillis() - ttlMs;
+        for (Map.Entry<String, Spool> entry : spools.entrySet()) {
+            if (entry.getValue().lastTouched < cutoff) {
+                discard(entry.getKey(), entry.getValue());
+                expired.incrementAndGet();
+            }
+        }
+    }
+
+    private static String key(String clientId, String transferId) {
+        return clientId + "/" + transferId;
+    }
+
+    private void discard(String key, Spool spool) {
+        spools.remove(key, spool);
+        synchronized (spool) {
+            try {
+                spool.writer.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+            deleteQuietly(spool.file);
+        }
+    }
+
+    private ChunkAck rewind(String transferId, String noteId, long offset) {
+        rewinds.incrementAndGet();
+        ChunkAck ack = new ChunkAck(transferId, noteId, offset);
+        ack.setRewind(true);
+        return ack;
+    }
+
+    private static ChunkAck complete(NoteChunk chunk, long offset, BatchResult.OperationResult result) {
+        return complete(chunk.getTransferId(), chunk.getNoteId(), offset, result);
+    }
+
+    private static ChunkAck complete(String transferId, String noteId, long offset, BatchResult.OperationResult result) {
+        ChunkAck ack = new ChunkAck(transferId, noteId, offset);
+        ack.setStatus(result.getStatus());
+        ack.setSequence(result.getSequence());
+        ack.setVersion(result.getVersion());
+        ack.setLastModified(result.getLastModified());
+        return ack;
+    }
+
+    private static BatchResult.OperationResult failed(String noteId) {
+        return new BatchResult.OperationResult(null, noteId, BatchResult.Status.FAILED, null);
+    }
+
+    private void deleteStaleFiles() {
+        if (!Files.isDirectory(spoolDir)) return;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(spoolDir, "upload-*")) {
+            for (Path file : files) {
+                deleteQuietly(file);
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to clean upload spool directory " + spoolDir, e);
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.fine("Could not delete " + file + ": " + e.getMessage());
+        }
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("activeUploads", spools.size());
+        stats.put("completedUploads", completed.get());
+        stats.put("expiredUploads", expired.get());
+        stats.put("rewinds", rewinds.get());
+        return stats;
+    }
+
+    private class Spool {
+        final String clientId;
+        final String noteId;
+        final Note note;
+        final boolean create;
+        final long total;
+        final Path file;
+        final Writer writer;
+        long received;
+        long lastTouched = System.currentTimeMillis();
+
+        Spool(String clientId, NoteChunk first) throws IOException {
+            this.clientId = clientId;
+            this.noteId = first.getNoteId();
+            this.note = first.getNote();
+            this.create = first.isCreate();
+            this.total = first.getTotalLength();
+            Files.createDirectories(spoolDir);
+            this.file = Files.createTempFile(spoolDir, "upload-", ".part");
+            this.writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -2,14 +2,19 @@ package server;
 
 import common.models.ClientInfo;
 import common.models.Message;
+import common.models.Subscription;
 import common.network.TCPConnection;
 import common.utils.LoggerUtil;
 import common.utils.ConfigManager;
 
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BiFunction;
 import java.util.logging.Logger;
 
 /**
@@ -21,12 +26,22 @@ public class ClientManager {
     private final Map<String, ClientInfo> clients;
     private final Map<String, TCPConnection> clientConnections;
     private final Map<TCPConnection, String> connectionToClientId;
+    // Clients that get UDP invalidation hints instead of TCP broadcasts
+    private final Map<String, InetSocketAddress> hintEndpoints;
+    // Binary UDP heartbeats identify the session by a random key handed out in CONNECT_ACK
+    private final Map<String, Long> heartbeatKeys;
+    private final Map<Long, String> heartbeatSessions;
+    private final SubscriptionIndex subscriptions;
     private final ConfigManager config;
     
     public ClientManager() {
         this.clients = new ConcurrentHashMap<>();
         this.clientConnections = new ConcurrentHashMap<>();
         this.connectionToClientId = new ConcurrentHashMap<>();
+        this.hintEndpoints = new ConcurrentHashMap<>();
+        this.heartbeatKeys = new ConcurrentHashMap<>();
+        this.heartbeatSessions = new ConcurrentHashMap<>();
+        this.subscriptions = new SubscriptionIndex();
         this.config = ConfigManager.getInstance();
     }
     
@@ -47,6 +62,19 @@ public class ClientManager {
         clients.put(clientId, clientInfo);
         clientConnections.put(clientId, connection);
         connectionToClientId.put(connection, clientId);
+        subscriptions.addClient(clientId);
+        
+        // The registered UDP address is usually the wildcard, so hints go to the TCP peer's address
+        InetAddress remote = connection.getRemoteInetAddress();
+        if (clientInfo.isInvalidationHints() && clientInfo.getPort() > 0 && remote != null) {
+            hintEndpoints.put(clientId, new InetSocketAddress(remote, clientInfo.getPort()));
+        }
+        
+        long key;
+        do {
+            key = ThreadLocalRandom.current().nextLong();
+        } while (key == 0 || heartbeatSessions.putIfAbsent(key, clientId) != null);
+        heartbeatKeys.put(clientId, key);
         
         logger.info("Client added: " + clientInfo);
         logger.info("Total active clients: " + clients.size());
@@ -60,6 +88,9 @@ public class ClientManager {
         
         ClientInfo client = clients.remove(clientId);
         TCPConnection connection = clientConnections.remove(clientId);
+        subscriptions.removeClient(clientId);
+        hintEndpoints.remove(clientId);
+        removeHeartbeatKey(clientId);
         
         if (connection != null) {
             connectionToClientId.remove(connection);
@@ -84,12 +115,38 @@ public class ClientManager {
         if (clientId != null) {
             clients.remove(clientId);
             clientConnections.remove(clientId);
+            subscriptions.removeClient(clientId);
+            hintEndpoints.remove(clientId);
+            removeHeartbeatKey(clientId);
             
             logger.info("Client removed by connection: " + clientId);
             logger.info("Total active clients: " + clients.size());
         }
     }
     
+    private void removeHeartbeatKey(String clientId) {
+        Long key = heartbeatKeys.remove(clientId);
+        if (key != null) {
+            heartbeatSessions.remove(key, clientId);
+        }
+    }
+    
+    /**
+     * Lấy heartbeat key của client (0 nếu không có)
+     */
+    public long getHeartbeatKey(String clientId) {
+        Long key = heartbeatKeys.get(clientId);
+        return key != null ? key : 0;
+    }
+    
+    /**
+     * Lấy client theo heartbeat key của heartbeat UDP nhị phân
+     */
+    public ClientInfo getClientByHeartbeatKey(long key) {
+        String clientId = heartbeatSessions.get(key);
+        return clientId != null ? clients.get(clientId) : null;
+    }
+    
     /**
      * Lấy client theo ID
      */
@@ -171,6 +228,109 @@ public class ClientManager {
                    (clientConnections.size() - failedClients.size()) + " clients");
     }
     
+    /**
+     * Broadcast thay đổi của một note chỉ tới các client đã đăng ký quan tâm
+     */
+    public void broadcastNoteChange(Message message, String noteId, String authorId, String excludeClientId) {
+        broadcastNoteChange(message, message, noteId, authorId, excludeClientId);
+    }
+    
+    /**
+     * Như trên, client metadata-only nhận summaryMessage (không có content)
+     */
+    public void broadcastNoteChange(Message message, Message summaryMessage, String noteId, String authorId, String excludeClientId) {
+        Set<String> targets = subscriptions.match(noteId, authorId);
+        targets.remove(excludeClientId);
+        
+        int delivered = 0;
+        for (String clientId : targets) {
+            // Hint clients pull the change themselves
+            if (hintEndpoints.containsKey(clientId)) continue;
+            ClientInfo client = clients.get(clientId);
+            boolean metadataOnly = client != null && client.isMetadataOnly();
+            if (sendMessageToClient(clientId, metadataOnly ? summaryMessage : message)) {
+                delivered++;
+            }
+        }
+        
+        logger.fine("Broadcasted message type " + message.getType() + " to " + delivered + " subscribed clients");
+    }
+    
+    /**
+     * Broadcast các thay đổi của một batch: mỗi client nhận một frame (do frames tạo, theo metadata-only)
+     * chứa chỉ thay đổi cuối của các note nó quan tâm; các client có cùng tập thay đổi dùng chung message
+     */
+    public void broadcastNoteChanges(List<NoteChangeEvent> events, BiFunction<List<NoteChangeEvent>, Boolean, Message> frames) {
+        Map<String, Map<String, NoteChangeEvent>> changesByClient = new HashMap<>();
+        for (NoteChangeEvent event : events) {
+            // A tombstone replayed from the change log has no author: every client gets it, removing a note
+            // the client does not have is a no-op there
+            Set<String> targets = event.getAuthorId() == null && event.getType() == NoteChangeEvent.Type.DELETED
+                    ? clients.keySet() : subscriptions.match(event.getNoteId(), event.getAuthorId());
+            for (String clientId : targets) {
+                // Hint clients pull the change themselves
+                if (clientId.equals(event.getOriginClientId()) || hintEndpoints.containsKey(clientId)) continue;
+                Map<String, NoteChangeEvent> changes = changesByClient.computeIfAbsent(clientId, k -> new LinkedHashMap<>());
+                changes.remove(event.getNoteId());
+                changes.put(event.getNoteId(), event);
+            }
+        }
+        
+        Map<List<NoteChangeEvent>, Message> shared = new HashMap<>();
+        Map<List<NoteChangeEvent>, Message> sharedSummaries = new HashMap<>();
+        int delivered = 0;
+        for (Map.Entry<String, Map<String, NoteChangeEvent>> entry : changesByClient.entrySet()) {
+            ClientInfo client = clients.get(entry.getKey());
+            boolean metadataOnly = client != null && client.isMetadataOnly();
+            List<NoteChangeEvent> changes = new ArrayList<>(entry.getValue().values());
+            Message message = (metadataOnly ? sharedSummaries : shared)
+                    .computeIfAbsent(changes, c -> frames.apply(c, metadataOnly));
+            if (sendMessageToClient(entry.getKey(), message)) {
+                delivered++;
+            }
+        }
+        
+        logger.fine("Broadcasted " + events.size() + " batched changes to " + delivered + " subscribed clients");
+    }
+    
+    /**
+     * Lấy địa chỉ UDP của các client nhận hint và quan tâm tới thay đổi của note
+     */
+    public List<InetSocketAddress> getHintEndpoints(String noteId, String authorId, String excludeClientId) {
+        if (hintEndpoints.isEmpty()) return Collections.emptyList();
+        List<InetSocketAddress> endpoints = new ArrayList<>();
+        for (String clientId : subscriptions.match(noteId, authorId)) {
+            if (clientId.equals(excludeClientId)) continue;
+            InetSocketAddress endpoint = hintEndpoints.get(clientId);
+            if (endpoint != null) endpoints.add(endpoint);
+        }
+        return endpoints;
+    }
+    
+    public int getHintClientCount() {
+        return hintEndpoints.size();
+    }
+    
+    /**
+     * Cập nhật subscription của client
+     */
+    public void subscribe(String clientId, Subscription subscription) {
+        if (clientExists(clientId)) {
+            subscriptions.subscribe(clientId, subscription);
+            logger.info("Client " + clientId + " subscribed: " + subscription);
+        }
+    }
+    
+    /**
+     * Hủy subscription của client
+     */
+    public void unsubscribe(String clientId, Subscription subscription) {
+        if (clientExists(clientId)) {
+            subscriptions.unsubscribe(clientId, subscription);
+            logger.info("Client " + clientId + " unsubscribed: " + subscription);
+        }
+    }
+    
     /**
      * Gửi message tới client cụ thể
      */
@@ -232,6 +392,9 @@ public class ClientManager {
             }
         }
         
+        for (String clientId : clients.keySet()) {
+            subscriptions.removeClient(clientId);
+        }
         clients.clear();
         clientConnections.clear();
         connectionToClientId.clear();
@@ -270,6 +433,9 @@ public class ClientManager {
         stats.put("totalClients", clients.size());
         stats.put("onlineClients", getOnlineClientCount());
         stats.put("maxClients", config.getMaxClients());
+        stats.put("subscribedClients", subscriptions.getSubscribedClientCount());
+        stats.put("subscriptionKeys", subscriptions.getKeyCount());
+        stats.put("hintClients", hintEndpoints.size());
         
         List<Map<String, Object>> clientList = new ArrayList<>();
         for (ClientInfo client : clients.values()) {
@@ -1,12 +1,34 @@
 package server;
 
 import common.models.Note;
+import common.models.NoteSummary;
+import java.io.IOException;
+import java.io.Reader;
 import java.sql.*;
 import java.util.*;
 
 public class DatabaseManager {
     private static final String DB_URL = "jdbc:h2:./data/notesync;AUTO_SERVER=TRUE";
+    // LENGTH comes from the LOB header, so summaries never read the content itself
+    private static final String SUMMARY_COLUMNS = "id, title, author_id, last_modified, version, LENGTH(content) AS content_length";
+    private static final String MERGE_NOTE_SQL = "MERGE INTO notes (id, title, content, author_id, created_at, last_modified, version, change_seq) "
+            + "KEY (id) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+    // Bulk writes may run alongside live writes and each other: a row only replaces an older change of the note
+    // and does not bring back a note deleted after it
+    private static final String MERGE_NEWER_NOTE_SQL = "MERGE INTO notes n USING (SELECT CAST(? AS VARCHAR(255)) AS id, "
+            + "CAST(? AS VARCHAR(1000)) AS title, CAST(? AS CLOB) AS content, CAST(? AS VARCHAR(255)) AS author_id, "
+            + "CAST(? AS TIMESTAMP) AS created_at, CAST(? AS TIMESTAMP) AS last_modified, CAST(? AS BIGINT) AS version, "
+            + "CAST(? AS BIGINT) AS change_seq) s ON n.id = s.id "
+            + "WHEN MATCHED AND n.change_seq < s.change_seq THEN UPDATE SET title = s.title, content = s.content, "
+            + "author_id = s.author_id, created_at = s.created_at, last_modified = s.last_modified, version = s.version, "
+            + "change_seq = s.change_seq "
+            + "WHEN NOT MATCHED AND NOT EXISTS (SELECT 1 FROM note_tombstones t WHERE t.id = s.id AND t.change_seq > s.change_seq) "
+            + "THEN INSERT (id, title, content, author_id, created_at, last_modified, version, change_seq) "
+            + "VALUES (s.id, s.title, s.content, s.author_id, s.created_at, s.last_modified, s.version, s.change_seq)";
+    private static final String MERGE_TOMBSTONE_SQL = "MERGE INTO note_tombstones (id, change_seq) KEY (id) VALUES (?, ?)";
     private Connection connection;
+    // Transactions run on their own connection so readers of the main one never see uncommitted rows
+    private Connection writeConnection;
     
     public DatabaseManager() throws SQLException {
         try {
@@ -32,52 +54,652 @@ public class DatabaseManager {
                 + "version BIGINT DEFAULT 1"
                 + ")";
         
+        // change_seq: change sequence của lần ghi cuối, dùng cho delta sync
+        String createTombstonesSQL = "CREATE TABLE IF NOT EXISTS note_tombstones ("
+                + "id VARCHAR(255) PRIMARY KEY,"
+                + "change_seq BIGINT NOT NULL"
+                + ")";
+        
+        String createSyncStateSQL = "CREATE TABLE IF NOT EXISTS sync_state ("
+                + "name VARCHAR(64) PRIMARY KEY,"
+                + "seq BIGINT NOT NULL"
+                + ")";
+        
         try (Statement stmt = connection.createStatement()) {
             stmt.execute(createTableSQL);
+            stmt.execute("ALTER TABLE notes ADD COLUMN IF NOT EXISTS change_seq BIGINT DEFAULT 0");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_notes_change_seq ON notes(change_seq)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_notes_last_modified ON notes(last_modified)");
+            stmt.execute(createTombstonesSQL);
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_tombstones_change_seq ON note_tombstones(change_seq)");
+            stmt.execute(createSyncStateSQL);
         }
     }
     
-    public void saveNote(Note note) throws SQLException {
-        String sql = "MERGE INTO notes VALUES (?, ?, ?, ?, ?, ?, ?)";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+    public void saveNote(Note note, long changeSeq) throws SQLException {
+        saveNote(note, changeSeq, null, 0);
+    }
+    
+    /**
+     * Lưu note với content đọc từ Reader (setCharacterStream) thay vì note.getContent(), dùng cho note lớn
+     */
+    public void saveNote(Note note, long changeSeq, Reader content, long contentLength) throws SQLException {
+        try (PreparedStatement pstmt = connection.prepareStatement(MERGE_NOTE_SQL)) {
+            bindNote(pstmt, note, changeSeq, content, contentLength);
+            pstmt.executeUpdate();
+        }
+        // A re-created note must not be deleted again by an older tombstone in a delta
+        try (PreparedStatement pstmt = connection.prepareStatement("DELETE FROM note_tombstones WHERE id = ?")) {
             pstmt.setString(1, note.getId());
-            pstmt.setString(2, note.getTitle());
-            pstmt.setString(3, note.getContent());
-            pstmt.setString(4, note.getAuthorId());
-            pstmt.setTimestamp(5, Timestamp.valueOf(note.getCreatedAt()));
-            pstmt.setTimestamp(6, Timestamp.valueOf(note.getLastModified()));
-            pstmt.setLong(7, note.getVersion());
             pstmt.executeUpdate();
         }
     }
     
+    private static void bindNote(PreparedStatement pstmt, Note note, long changeSeq, Reader content, long contentLength) throws SQLException {
+        pstmt.setString(1, note.getId());
+        pstmt.setString(2, note.getTitle());
+        if (content != null) {
+            pstmt.setCharacterStream(3, content, contentLength);
+        } else {
+            pstmt.setString(3, note.getContent());
+        }
+        pstmt.setString(4, note.getAuthorId());
+        pstmt.setTimestamp(5, Timestamp.valueOf(note.getCreatedAt()));
+        pstmt.setTimestamp(6, Timestamp.valueOf(note.getLastModified()));
+        pstmt.setLong(7, note.getVersion());
+        pstmt.setLong(8, changeSeq);
+    }
+    
+    /**
+     * Ghi trạng thái cuối của nhiều note trong một transaction (JDBC batch, một lần commit).
+     * Mỗi id xuất hiện tối đa một lần; lỗi làm rollback toàn bộ
+     */
+    public void writeChanges(Collection<NoteChangeEvent> changes) throws SQLException {
+        Connection conn = getWriteConnection();
+        try (PreparedStatement upsert = conn.prepareStatement(MERGE_NOTE_SQL);
+             PreparedStatement clearTombstone = conn.prepareStatement("DELETE FROM note_tombstones WHERE id = ?");
+             PreparedStatement delete = conn.prepareStatement("DELETE FROM notes WHERE id = ?");
+             PreparedStatement tombstone = conn.prepareStatement(MERGE_TOMBSTONE_SQL)) {
+            for (NoteChangeEvent change : changes) {
+                if (change.getType() == NoteChangeEvent.Type.DELETED) {
+                    delete.setString(1, change.getNoteId());
+                    delete.addBatch();
+                    tombstone.setString(1, change.getNoteId());
+                    tombstone.setLong(2, change.getSequence());
+                    tombstone.addBatch();
+                } else {
+                    bindNote(upsert, change.getNote(), change.getSequence(), null, 0);
+                    upsert.addBatch();
+                    clearTombstone.setString(1, change.getNoteId());
+                    clearTombstone.addBatch();
+                }
+            }
+            upsert.executeBatch();
+            clearTombstone.executeBatch();
+            delete.executeBatch();
+            tombstone.executeBatch();
+            conn.commit();
+        } catch (SQLException e) {
+            try {
+                conn.rollback();
+            } catch (SQLException rollbackError) {
+                e.addSuppressed(rollbackError);
+            }
+            throw e;
+        }
+    }
+    
+    private synchronized Connection getWriteConnection() throws SQLException {
+        if (writeConnection == null || writeConnection.isClosed()) {
+            writeConnection = DriverManager.getConnection(DB_URL, "sa", "");
+            writeConnection.setAutoCommit(false);
+        }
+        return writeConnection;
+    }
+    
     public List<Note> getAllNotes() throws SQLException {
         List<Note> notes = new ArrayList<>();
         try (Statement stmt = connection.createStatement();
              ResultSet rs = stmt.executeQuery("SELECT * FROM notes")) {
             while (rs.next()) {
-                Note note = new Note();
-                note.setId(rs.getString("id"));
-                note.setTitle(rs.getString("title"));
-                note.setContent(rs.getString("content"));
-                note.setAuthorId(rs.getString("author_id"));
-                note.setCreatedAt(rs.getTimestamp("created_at").toLocalDateTime());
-                note.setLastModified(rs.getTimestamp("last_modified").toLocalDateTime());
-                note.setVersion(rs.getLong("version"));
-                notes.add(note);
+                notes.add(readNote(rs));
+            }
+        }
+        return notes;
+    }
+    
+    public Note getNoteById(String id) throws SQLException {
+        try (PreparedStatement pstmt = connection.prepareStatement("SELECT * FROM notes WHERE id = ?")) {
+            pstmt.setString(1, id);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? readNote(rs) : null;
+            }
+        }
+    }
+    
+    /**
+     * Đọc metadata và content của note dưới dạng Reader, không tạo String cho toàn bộ content.
+     * Trả về false nếu note không tồn tại.
+     */
+    public boolean readNoteContent(String id, ContentReader reader) throws SQLException, IOException {
+        try (PreparedStatement pstmt = connection.prepareStatement(
+                "SELECT id, title, author_id, created_at, last_modified, version, LENGTH(content) AS content_length, content "
+                        + "FROM notes WHERE id = ?")) {
+            pstmt.setString(1, id);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) return false;
+                Reader content = rs.getCharacterStream("content");
+                try {
+                    reader.read(readNoteMeta(rs), rs.getLong("content_length"), content);
+                } finally {
+                    if (content != null) content.close();
+                }
+                return true;
+            }
+        }
+    }
+    
+    public interface ContentReader {
+        void read(Note note, long contentLength, Reader content) throws IOException;
+    }
+    
+    /**
+     * Duyệt toàn bộ notes theo change_seq bằng cursor lazy trên connection riêng (không nạp cả kết quả vào bộ nhớ,
+     * không chặn connection chính). Trả về số note đã duyệt
+     */
+    public long scanNotes(ContentReader reader) throws SQLException, IOException {
+        try (Snapshot snapshot = openSnapshot()) {
+            // Rows written before change sequences existed carry change_seq 0
+            return snapshot.scanNotesChangedSince(-1, reader);
+        }
+    }
+    
+    /**
+     * Mở một snapshot đọc nhất quán trên connection riêng (isolation SNAPSHOT của H2, MVCC nên không chặn ghi)
+     */
+    public Snapshot openSnapshot() throws SQLException {
+        return new Snapshot(DriverManager.getConnection(DB_URL, "sa", ""));
+    }
+    
+    public interface IdReader {
+        void read(String id) throws IOException;
+    }
+    
+    /**
+     * Các câu query trên cùng một snapshot thấy đúng trạng thái DB tại lần đọc đầu tiên,
+     * ghi đồng thời (kể cả TRUNCATE) chỉ hiện ra ở snapshot sau
+     */
+    public static class Snapshot implements AutoCloseable {
+        private final Connection conn;
+        
+        private Snapshot(Connection conn) throws SQLException {
+            this.conn = conn;
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("SET LAZY_QUERY_EXECUTION TRUE");
+                stmt.execute("SET SESSION CHARACTERISTICS AS TRANSACTION ISOLATION LEVEL SNAPSHOT");
+                conn.setAutoCommit(false);
+            } catch (SQLException e) {
+                conn.close();
+                throw e;
+            }
+        }
+        
+        public long getSyncState(String name) throws SQLException {
+            try (PreparedStatement pstmt = conn.prepareStatement("SELECT seq FROM sync_state WHERE name = ?")) {
+                pstmt.setString(1, name);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    return rs.next() ? rs.getLong(1) : 0;
+                }
+            }
+        }
+        
+        /**
+         * Duyệt notes có change_seq lớn hơn sequence cho trước theo thứ tự change_seq; trả về số note đã duyệt
+         */
+        public long scanNotesChangedSince(long changeSeq, ContentReader reader) throws SQLException, IOException {
+            long count = 0;
+            try (PreparedStatement pstmt = conn.prepareStatement(
+                    "SELECT id, title, author_id, created_at, last_modified, version, LENGTH(content) AS content_length, content "
+                            + "FROM notes WHERE change_seq > ? ORDER BY change_seq", ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                pstmt.setFetchSize(1000);
+                pstmt.setLong(1, changeSeq);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        Reader content = rs.getCharacterStream("content");
+                        try {
+                            reader.read(readNoteMeta(rs), rs.getLong("content_length"), content);
+                        } finally {
+                            if (content != null) content.close();
+                        }
+                        count++;
+                    }
+                }
+            }
+            return count;
+        }
+        
+        /**
+         * Duyệt id của các tombstone có change_seq lớn hơn sequence cho trước; trả về số id đã duyệt
+         */
+        public long scanDeletedIdsSince(long changeSeq, IdReader reader) throws SQLException, IOException {
+            long count = 0;
+            try (PreparedStatement pstmt = conn.prepareStatement(
+                    "SELECT id FROM note_tombstones WHERE change_seq > ? ORDER BY change_seq")) {
+                pstmt.setFetchSize(1000);
+                pstmt.setLong(1, changeSeq);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        reader.read(rs.getString(1));
+                        count++;
+                    }
+                }
+            }
+            return count;
+        }
+        
+        @Override
+        public void close() {
+            try { conn.rollback(); } catch (SQLException e) {}
+            try { conn.close(); } catch (SQLException e) {}
+        }
+    }
+    
+    /**
+     * Mở writer ghi note theo lô trên connection riêng; mỗi luồng import dùng một writer
+     */
+    public BulkWriter openBulkWriter() throws SQLException {
+        return new BulkWriter(DriverManager.getConnection(DB_URL, "sa", ""));
+    }
+    
+    /**
+     * Ghi note bằng MERGE theo JDBC batch, mỗi lần flush là một transaction; một dòng chỉ thay bản ghi có change_seq cũ hơn
+     */
+    public static class BulkWriter implements AutoCloseable {
+        private final Connection conn;
+        private final PreparedStatement upsert;
+        private final PreparedStatement delete;
+        private int pending;
+        
+        private BulkWriter(Connection conn) throws SQLException {
+            this.conn = conn;
+            try {
+                conn.setAutoCommit(false);
+                this.upsert = conn.prepareStatement(MERGE_NEWER_NOTE_SQL);
+                this.delete = conn.prepareStatement("DELETE FROM notes WHERE id = ?");
+            } catch (SQLException e) {
+                conn.close();
+                throw e;
+            }
+        }
+        
+        public void add(Note note, long changeSeq) throws SQLException {
+            bindNote(upsert, note, changeSeq, null, 0);
+            upsert.addBatch();
+            pending++;
+        }
+        
+        /**
+         * Xóa note (không ghi tombstone); trong một lần flush các lệnh xóa chạy trước các lệnh ghi
+         */
+        public void delete(String id) throws SQLException {
+            delete.setString(1, id);
+            delete.addBatch();
+            pending++;
+        }
+        
+        public void flush() throws SQLException {
+            if (pending == 0) return;
+            try {
+                delete.executeBatch();
+                upsert.executeBatch();
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                pending = 0;
+            }
+        }
+        
+        /**
+         * Đóng writer; phần chưa flush bị bỏ
+         */
+        @Override
+        public void close() {
+            try { upsert.close(); } catch (SQLException e) {}
+            try { delete.close(); } catch (SQLException e) {}
+            try { conn.rollback(); } catch (SQLException e) {}
+            try { conn.close(); } catch (SQLException e) {}
+        }
+    }
+    
+    private Note readNote(ResultSet rs) throws SQLException {
+        return readNoteMeta(rs).copyWithContent(rs.getString("content"));
+    }
+    
+    private static Note readNoteMeta(ResultSet rs) throws SQLException {
+        Note note = new Note();
+        note.setId(rs.getString("id"));
+        note.setTitle(rs.getString("title"));
+        note.setAuthorId(rs.getString("author_id"));
+        note.setCreatedAt(rs.getTimestamp("created_at").toLocalDateTime());
+        note.setLastModified(rs.getTimestamp("last_modified").toLocalDateTime());
+        note.setVersion(rs.getLong("version"));
+        return note;
+    }
+    
+    /**
+     * Lấy notes có change_seq lớn hơn sequence cho trước
+     */
+    public List<Note> getNotesChangedSince(long changeSeq) throws SQLException {
+        List<Note> notes = new ArrayList<>();
+        try (PreparedStatement pstmt = connection.prepareStatement("SELECT * FROM notes WHERE change_seq > ?")) {
+            pstmt.setLong(1, changeSeq);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    notes.add(readNote(rs));
+                }
+            }
+        }
+        return notes;
+    }
+    
+    /**
+     * Lấy notes sửa gần nhất bằng ORDER BY ... LIMIT trên index last_modified
+     */
+    public List<Note> getRecentNotes(int limit) throws SQLException {
+        List<Note> notes = new ArrayList<>();
+        try (PreparedStatement pstmt = connection.prepareStatement("SELECT * FROM notes ORDER BY last_modified DESC LIMIT ?")) {
+            pstmt.setInt(1, limit);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    notes.add(readNote(rs));
+                }
+            }
+        }
+        return notes;
+    }
+    
+    /**
+     * Lấy tối đa limit thay đổi (note ghi và tombstone) có change_seq lớn hơn sequence cho trước,
+     * theo thứ tự change_seq; chỉ đọc id, sequence và độ dài content
+     */
+    public List<ChangeRow> getChangeLog(long changeSeq, int limit) throws SQLException {
+        List<ChangeRow> rows = new ArrayList<>();
+        try (PreparedStatement pstmt = connection.prepareStatement(
+                "SELECT id, change_seq, FALSE AS deleted, LENGTH(content) AS content_length FROM notes WHERE change_seq > ? "
+                        + "UNION ALL SELECT id, change_seq, TRUE, 0 FROM note_tombstones WHERE change_seq > ? "
+                        + "ORDER BY change_seq LIMIT ?")) {
+            pstmt.setLong(1, changeSeq);
+            pstmt.setLong(2, changeSeq);
+            pstmt.setInt(3, limit);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    rows.add(new ChangeRow(rs.getString(1), rs.getLong(2), rs.getBoolean(3), rs.getLong(4)));
+                }
+            }
+        }
+        return rows;
+    }
+    
+    /**
+     * Một dòng của change log: note được ghi hoặc bị xóa tại changeSeq
+     */
+    public static class ChangeRow {
+        public final String id;
+        public final long changeSeq;
+        public final boolean deleted;
+        public final long contentLength;
+        
+        ChangeRow(String id, long changeSeq, boolean deleted, long contentLength) {
+            this.id = id;
+            this.changeSeq = changeSeq;
+            this.deleted = deleted;
+            this.contentLength = contentLength;
+        }
+    }
+    
+    /**
+     * Lấy summary của toàn bộ notes, không đọc cột content
+     */
+    public List<NoteSummary> getNoteSummaries() throws SQLException {
+        List<NoteSummary> summaries = new ArrayList<>();
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT " + SUMMARY_COLUMNS + " FROM notes")) {
+            while (rs.next()) {
+                summaries.add(readSummary(rs));
+            }
+        }
+        return summaries;
+    }
+    
+    /**
+     * Lấy summary của notes có change_seq lớn hơn sequence cho trước
+     */
+    public List<NoteSummary> getNoteSummariesChangedSince(long changeSeq) throws SQLException {
+        List<NoteSummary> summaries = new ArrayList<>();
+        try (PreparedStatement pstmt = connection.prepareStatement("SELECT " + SUMMARY_COLUMNS + " FROM notes WHERE change_seq > ?")) {
+            pstmt.setLong(1, changeSeq);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    summaries.add(readSummary(rs));
+                }
+            }
+        }
+        return summaries;
+    }
+    
+    /**
+     * Lấy version của toàn bộ notes (id -> version)
+     */
+    public Map<String, Long> getNoteVersions() throws SQLException {
+        Map<String, Long> versions = new HashMap<>();
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT id, version FROM notes")) {
+            while (rs.next()) {
+                versions.put(rs.getString(1), rs.getLong(2));
+            }
+        }
+        return versions;
+    }
+    
+    /**
+     * Lấy notes theo danh sách id bằng một câu IN (caller tự chia chunk)
+     */
+    public List<Note> getNotesByIds(List<String> ids) throws SQLException {
+        List<Note> notes = new ArrayList<>();
+        if (ids.isEmpty()) return notes;
+        try (PreparedStatement pstmt = connection.prepareStatement("SELECT * FROM notes WHERE id IN (" + placeholders(ids.size()) + ")")) {
+            bindIds(pstmt, ids);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    notes.add(readNote(rs));
+                }
             }
         }
         return notes;
     }
     
-    public boolean deleteNote(String id) throws SQLException {
+    /**
+     * Lấy summary theo danh sách id, không đọc cột content
+     */
+    public List<NoteSummary> getNoteSummariesByIds(List<String> ids) throws SQLException {
+        List<NoteSummary> summaries = new ArrayList<>();
+        if (ids.isEmpty()) return summaries;
+        try (PreparedStatement pstmt = connection.prepareStatement(
+                "SELECT " + SUMMARY_COLUMNS + " FROM notes WHERE id IN (" + placeholders(ids.size()) + ")")) {
+            bindIds(pstmt, ids);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    summaries.add(readSummary(rs));
+                }
+            }
+        }
+        return summaries;
+    }
+    
+    private static String placeholders(int count) {
+        StringBuilder sb = new StringBuilder(count * 2);
+        for (int i = 0; i < count; i++) {
+            sb.append(i == 0 ? "?" : ",?");
+        }
+        return sb.toString();
+    }
+    
+    private static void bindIds(PreparedStatement pstmt, List<String> ids) throws SQLException {
+        for (int i = 0; i < ids.size(); i++) {
+            pstmt.setString(i + 1, ids.get(i));
+        }
+    }
+    
+    private NoteSummary readSummary(ResultSet rs) throws SQLException {
+        NoteSummary summary = new NoteSummary();
+        summary.setId(rs.getString("id"));
+        summary.setTitle(rs.getString("title"));
+        summary.setAuthorId(rs.getString("author_id"));
+        summary.setLastModified(rs.getTimestamp("last_modified").toLocalDateTime());
+        summary.setVersion(rs.getLong("version"));
+        summary.setContentLength(rs.getLong("content_length"));
+        return summary;
+    }
+    
+    /**
+     * Lấy id của notes bị xóa sau sequence cho trước
+     */
+    public List<String> getDeletedIdsSince(long changeSeq) throws SQLException {
+        List<String> ids = new ArrayList<>();
+        try (PreparedStatement pstmt = connection.prepareStatement("SELECT id FROM note_tombstones WHERE change_seq > ?")) {
+            pstmt.setLong(1, changeSeq);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    ids.add(rs.getString(1));
+                }
+            }
+        }
+        return ids;
+    }
+    
+    public boolean deleteNote(String id, long changeSeq) throws SQLException {
+        boolean deleted;
         try (PreparedStatement pstmt = connection.prepareStatement("DELETE FROM notes WHERE id = ?")) {
             pstmt.setString(1, id);
-            return pstmt.executeUpdate() > 0;
+            deleted = pstmt.executeUpdate() > 0;
+        }
+        if (deleted) {
+            try (PreparedStatement pstmt = connection.prepareStatement(MERGE_TOMBSTONE_SQL)) {
+                pstmt.setString(1, id);
+                pstmt.setLong(2, changeSeq);
+                pstmt.executeUpdate();
+            }
+        }
+        return deleted;
+    }
+    
+    public int getTombstoneCount() throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM note_tombstones")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+    
+    /**
+     * Xóa các tombstone cũ nhất, chỉ giữ lại keep bản ghi; trả về sequence lớn nhất đã bị xóa
+     */
+    public long pruneTombstones(int keep) throws SQLException {
+        long horizon = 0;
+        String findSQL = "SELECT change_seq FROM note_tombstones ORDER BY change_seq DESC LIMIT 1 OFFSET ?";
+        try (PreparedStatement pstmt = connection.prepareStatement(findSQL)) {
+            pstmt.setInt(1, keep);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    horizon = rs.getLong(1);
+                }
+            }
+        }
+        if (horizon > 0) {
+            try (PreparedStatement pstmt = connection.prepareStatement("DELETE FROM note_tombstones WHERE change_seq <= ?")) {
+                pstmt.setLong(1, horizon);
+                pstmt.executeUpdate();
+            }
+        }
+        return horizon;
+    }
+    
+    /**
+     * Xóa toàn bộ notes và tombstones bằng TRUNCATE (không duyệt và ghi log từng dòng)
+     */
+    public void deleteAllNotes() throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("TRUNCATE TABLE notes");
+            stmt.execute("TRUNCATE TABLE note_tombstones");
+        }
+    }
+    
+    /**
+     * Xóa tombstone của các note đã được ghi lại sau sequence cho trước, mới hơn lần xóa (sau bulk import)
+     */
+    public int clearTombstonesRewrittenAfter(long changeSeq) throws SQLException {
+        try (PreparedStatement pstmt = connection.prepareStatement("DELETE FROM note_tombstones t WHERE EXISTS "
+                + "(SELECT 1 FROM notes n WHERE n.id = t.id AND n.change_seq > ? AND n.change_seq > t.change_seq)")) {
+            pstmt.setLong(1, changeSeq);
+            return pstmt.executeUpdate();
+        }
+    }
+    
+    public long countNotes() throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM notes")) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+    
+    /**
+     * Số note theo author, đếm trong DB thay vì nạp toàn bộ notes
+     */
+    public Map<String, Long> countNotesByAuthor() throws SQLException {
+        Map<String, Long> counts = new HashMap<>();
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COALESCE(author_id, 'Unknown'), COUNT(*) FROM notes GROUP BY author_id")) {
+            while (rs.next()) {
+                counts.merge(rs.getString(1), rs.getLong(2), Long::sum);
+            }
+        }
+        return counts;
+    }
+    
+    /**
+     * Sequence lớn nhất đã được ghi (notes, tombstones hoặc horizon)
+     */
+    public long getMaxChangeSeq() throws SQLException {
+        String sql = "SELECT GREATEST("
+                + "(SELECT COALESCE(MAX(change_seq), 0) FROM notes),"
+                + "(SELECT COALESCE(MAX(change_seq), 0) FROM note_tombstones),"
+                + "(SELECT COALESCE(MAX(seq), 0) FROM sync_state))";
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+    
+    public long getSyncState(String name) throws SQLException {
+        try (PreparedStatement pstmt = connection.prepareStatement("SELECT seq FROM sync_state WHERE name = ?")) {
+            pstmt.setString(1, name);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        }
+    }
+    
+    public void setSyncState(String name, long seq) throws SQLException {
+        try (PreparedStatement pstmt = connection.prepareStatement("MERGE INTO sync_state (name, seq) KEY (name) VALUES (?, ?)")) {
+            pstmt.setString(1, name);
+            pstmt.setLong(2, seq);
+            pstmt.executeUpdate();
         }
     }
     
     public void close() {
+        try { if (writeConnection != null) writeConnection.close(); } catch (SQLException e) {}
         try { if (connection != null) connection.close(); } catch (SQLException e) {}
     }
 }
@@ -0,0 +1,141 @@
+package server;
+
+import common.models.BatchResult;
+import common.utils.ConfigManager;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Kết quả của các mutation đã xử lý, theo (session, messageId/operationId). Client gửi lại cùng id
+ * (retry sau khi mất kết nối) nhận lại kết quả cũ mà không ghi DB hay broadcast lần nữa; bản gửi lại tới
+ * khi lần đầu còn đang chạy (từ kết nối khác) chờ kết quả của lần đó.
+ * Giới hạn bởi dedup.max.entries và dedup.window.ms; kết quả FAILED không được lưu để retry được thực hiện lại.
+ */
+public class DedupCache {
+    private final int maxEntries;
+    private final long windowMs;
+    // Insertion order is completion order (an entry moves to the end when it completes), so the eldest expire first
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public DedupCache() {
+        ConfigManager config = ConfigManager.getInstance();
+        this.maxEntries = Math.max(1, config.getIntProperty("dedup.max.entries", 100000));
+        this.windowMs = config.getLongProperty("dedup.window.ms", 600000);
+    }
+
+    /**
+     * Đăng ký bắt đầu xử lý mutation. Trả về null nếu id chưa gặp: caller xử lý và phải gọi complete.
+     * Ngược lại trả về kết quả (có thể chưa xong) của lần xử lý trước
+     */
+    public CompletableFuture<BatchResult.OperationResult> begin(String sessionId, String id) {
+        if (id == null) return null;
+        String key = key(sessionId, id);
+        synchronized (entries) {
+            Entry entry = live(key);
+            if (entry != null) {
+                hits.incrementAndGet();
+                return entry.result;
+            }
+            misses.incrementAndGet();
+            entries.put(key, new Entry(System.currentTimeMillis()));
+            trim();
+        }
+        return null;
+    }
+
+    /**
+     * Kết quả của mutation đã (hoặc đang) xử lý, null nếu chưa gặp hoặc đã hết hạn; không đăng ký gì
+     */
+    public CompletableFuture<BatchResult.OperationResult> find(String sessionId, String id) {
+        if (id == null) return null;
+        synchronized (entries) {
+            Entry entry = live(key(sessionId, id));
+            if (entry == null) return null;
+            hits.incrementAndGet();
+            return entry.result;
+        }
+    }
+
+    /**
+     * Ghi kết quả của mutation đã begin và trả lời các bản gửi lại đang chờ
+     */
+    public void complete(String sessionId, String id, BatchResult.OperationResult result) {
+        if (id == null) return;
+        String key = key(sessionId, id);
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.remove(key);
+            if (entry == null) entry = new Entry(0);
+            if (result.getStatus() != BatchResult.Status.FAILED) {
+                entry.completedAt = System.currentTimeMillis();
+                entries.put(key, entry);
+                trim();
+            }
+        }
+        entry.result.complete(result);
+    }
+
+    /**
+     * Xóa các kết quả ngoài cửa sổ thời gian
+     */
+    public void expire() {
+        long cutoff = System.currentTimeMillis() - windowMs;
+        synchronized (entries) {
+            Iterator<Entry> it = entries.values().iterator();
+            while (it.hasNext()) {
+                Entry entry = it.next();
+                if (entry.completedAt >= cutoff) break;
+                // A mutation still running keeps its place until it completes
+                if (entry.result.isDone()) it.remove();
+            }
+        }
+    }
+
+    private Entry live(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.result.isDone() && entry.completedAt < System.currentTimeMillis() - windowMs) {
+            entries.remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    private void trim() {
+        Iterator<Entry> it = entries.values().iterator();
+        while (entries.size() > maxEntries && it.hasNext()) {
+            // Dropping a running entry would strand the duplicates waiting on it
+            if (it.next().result.isDone()) it.remove();
+        }
+    }
+
+    private static String key(String sessionId, String id) {
+        return sessionId + "/" + id;
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        synchronized (entries) {
+            stats.put("entries", entries.size());
+        }
+        stats.put("duplicates", hits.get());
+        stats.put("lookups", hits.get() + misses.get());
+        return stats;
+    }
+
+    private static class Entry {
+        final CompletableFuture<BatchResult.OperationResult> result = new CompletableFuture<>();
+        // Start time while in progress, completion time afterwards
+        long completedAt;
+
+        Entry(long completedAt) {
+            this.completedAt = completedAt;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package server;
+
+import common.models.InvalidationHint;
+import common.network.UDPConnection;
+import common.utils.LoggerUtil;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Consumer của change stream, gửi InvalidationHint qua UDP tới các client chọn nhận hint.
+ * Hint chỉ là gợi ý (có thể mất); client tự kéo thay đổi qua TCP. Mỗi client nhận một hint cho cả batch.
+ */
+public class InvalidationNotifier extends NoteChangeSubscriber {
+    private static final Logger logger = LoggerUtil.getLogger(InvalidationNotifier.class);
+    
+    private final ClientManager clientManager;
+    private volatile UDPConnection udpConnection;
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    // Clients interested in the batch being received, hinted once at its last event
+    private final Set<InetSocketAddress> batchEndpoints = new LinkedHashSet<>();
+    
+    public InvalidationNotifier(ClientManager clientManager) {
+        this.clientManager = clientManager;
+    }
+    
+    /**
+     * Gắn socket UDP của server sau khi đã mở
+     */
+    public void attach(UDPConnection udpConnection) {
+        this.udpConnection = udpConnection;
+    }
+    
+    @Override
+    protected void onChange(NoteChangeEvent event) {
+        UDPConnection udp = udpConnection;
+        if (udp == null || !udp.isRunning()) return;
+        List<InetSocketAddress> endpoints = clientManager.getHintEndpoints(event.getNoteId(), event.getAuthorId(), event.getOriginClientId());
+        if (event.getBatchEndSequence() > 0) {
+            batchEndpoints.addAll(endpoints);
+            if (event.getSequence() != event.getBatchEndSequence()) return;
+            endpoints = new ArrayList<>(batchEndpoints);
+            batchEndpoints.clear();
+        }
+        if (endpoints.isEmpty()) return;
+        
+        // One encoding shared by every recipient
+        byte[] datagram = new InvalidationHint(InvalidationHint.Type.valueOf(event.getType().name()),
+                event.getSequence(), event.getNoteId()).encode();
+        for (InetSocketAddress endpoint : endpoints) {
+            try {
+                udp.sendDatagram(datagram, endpoint.getAddress(), endpoint.getPort());
+                sent.incrementAndGet();
+            } catch (IOException e) {
+                failed.incrementAndGet();
+                logger.fine("Failed to send hint to " + endpoint + ": " + e.getMessage());
+            }
+        }
+    }
+    
+    @Override
+    protected void onGap(long lastSequence, long nextSequence) {
+        super.onGap(lastSequence, nextSequence);
+        // A later hint carries a higher sequence and covers the unfinished batch
+        batchEndpoints.clear();
+    }
+    
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("hintsSent", sent.get());
+        stats.put("hintsFailed", failed.get());
+        stats.put("hintClients", clientManager.getHintClientCount());
+        return stats;
+    }
+}
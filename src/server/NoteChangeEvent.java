@@ -0,0 +1,54 @@
+package server;
+
+import common.models.Note;
+
+import java.time.LocalDateTime;
+
+/**
+ * Sự kiện thay đổi note, được phát theo thứ tự change sequence
+ */
+public class NoteChangeEvent {
+    // CHECKPOINT carries no change: it is published after drops so subscribers see gaps at the tail of the stream
+    public enum Type { CREATED, UPDATED, DELETED, CHECKPOINT }
+    
+    private final Type type;
+    private final long sequence;
+    private final String noteId;
+    private final String authorId;
+    private final Note note;
+    private final String originClientId;
+    private final LocalDateTime timestamp;
+    // Sequence of the last event of the batch this event belongs to, 0 for a single change
+    private long batchEndSequence;
+    
+    public NoteChangeEvent(Type type, long sequence, String noteId, String authorId, Note note, String originClientId) {
+        this.type = type;
+        this.sequence = sequence;
+        this.noteId = noteId;
+        this.authorId = authorId;
+        this.note = note;
+        this.originClientId = originClientId;
+        this.timestamp = LocalDateTime.now();
+    }
+    
+    // Getters
+    public Type getType() { return type; }
+    public long getSequence() { return sequence; }
+    public String getNoteId() { return noteId; }
+    public String getAuthorId() { return authorId; }
+    public Note getNote() { return note; }
+    public String getOriginClientId() { return originClientId; }
+    public LocalDateTime getTimestamp() { return timestamp; }
+    public long getBatchEndSequence() { return batchEndSequence; }
+    
+    /**
+     * Đánh dấu event thuộc một batch; chỉ gọi trước khi publish
+     */
+    void setBatchEndSequence(long batchEndSequence) { this.batchEndSequence = batchEndSequence; }
+    
+    @Override
+    public String toString() {
+        return String.format("NoteChangeEvent{type=%s, seq=%d, noteId='%s', origin='%s'}", 
+                           type, sequence, noteId, originClientId);
+    }
+}
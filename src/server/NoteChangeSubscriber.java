@@ -0,0 +1,69 @@
+package server;
+
+import common.utils.LoggerUtil;
+
+import java.util.concurrent.Flow;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Base subscriber cho change stream của NoteManager.
+ * Request từng event một nên buffer của publisher đóng vai trò backpressure.
+ */
+public abstract class NoteChangeSubscriber implements Flow.Subscriber<NoteChangeEvent> {
+    private static final Logger logger = LoggerUtil.getLogger(NoteChangeSubscriber.class);
+    
+    private Flow.Subscription subscription;
+    private long lastSequence;
+    
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        subscription.request(1);
+    }
+    
+    @Override
+    public void onNext(NoteChangeEvent event) {
+        try {
+            if (event.getType() == NoteChangeEvent.Type.CHECKPOINT) {
+                // Everything up to a checkpoint was either delivered before it or dropped
+                if (lastSequence > 0 && event.getSequence() > lastSequence) {
+                    onGap(lastSequence, event.getSequence() + 1);
+                }
+                lastSequence = Math.max(lastSequence, event.getSequence());
+                return;
+            }
+            if (lastSequence > 0 && event.getSequence() != lastSequence + 1) {
+                onGap(lastSequence, event.getSequence());
+            }
+            lastSequence = event.getSequence();
+            onChange(event);
+        } catch (Exception e) {
+            logger.log(Level.WARNING, getClass().getSimpleName() + " failed to handle " + event, e);
+        } finally {
+            subscription.request(1);
+        }
+    }
+    
+    @Override
+    public void onError(Throwable throwable) {
+        logger.log(Level.SEVERE, getClass().getSimpleName() + " change stream failed", throwable);
+    }
+    
+    @Override
+    public void onComplete() {
+        logger.info(getClass().getSimpleName() + " change stream completed");
+    }
+    
+    /**
+     * Xử lý một event thay đổi
+     */
+    protected abstract void onChange(NoteChangeEvent event);
+    
+    /**
+     * Được gọi khi phát hiện event bị mất (publisher drop do buffer đầy): các sequence trong (lastSequence, nextSequence)
+     */
+    protected void onGap(long lastSequence, long nextSequence) {
+        logger.warning(getClass().getSimpleName() + " missed change events between " + lastSequence + " and " + nextSequence);
+    }
+}
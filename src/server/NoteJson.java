@@ -0,0 +1,270 @@
+package server;
+
+import common.models.Note;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.time.LocalDateTime;
+
+/**
+ * Mã hóa note thành một dòng JSON (NDJSON) và đọc ngược lại:
+ * {"id","title","content","authorId","createdAt","lastModified","version"}, thời gian theo ISO-8601.
+ * Khi đọc, key không biết bị bỏ qua; thiếu id thì sinh id mới, thiếu thời gian thì lấy thời điểm hiện tại.
+ * Backup incremental ghi thêm bản ghi xóa dạng {"deleted":"<id>"}.
+ */
+final class NoteJson {
+    private NoteJson() {}
+
+    /**
+     * Ghi một note (content đọc từ Reader, có thể null) thành một dòng, kèm ký tự xuống dòng
+     */
+    static void write(Writer out, Note note, Reader content) throws IOException {
+        out.write("{\"id\":");
+        writeString(out, note.getId());
+        out.write(",\"title\":");
+        writeString(out, note.getTitle());
+        out.write(",\"content\":");
+        if (content == null) {
+            out.write("null");
+        } else {
+            out.write('"');
+            char[] buffer = new char[8192];
+            int read;
+            while ((read = content.read(buffer)) != -1) {
+                for (int i = 0; i < read; i++) {
+                    writeChar(out, buffer[i]);
+                }
+            }
+            out.write('"');
+        }
+        out.write(",\"authorId\":");
+        writeString(out, note.getAuthorId());
+        out.write(",\"createdAt\":");
+        writeString(out, note.getCreatedAt() != null ? note.getCreatedAt().toString() : null);
+        out.write(",\"lastModified\":");
+        writeString(out, note.getLastModified() != null ? note.getLastModified().toString() : null);
+        out.write(",\"version\":");
+        out.write(Long.toString(note.getVersion()));
+        out.write("}\n");
+    }
+
+    /**
+     * Ghi bản ghi xóa note thành một dòng
+     */
+    static void writeDeleted(Writer out, String id) throws IOException {
+        out.write("{\"deleted\":");
+        writeString(out, id);
+        out.write("}\n");
+    }
+
+    /**
+     * Id trong bản ghi xóa, null nếu dòng là một note
+     */
+    static String deletedId(String line) {
+        String trimmed = line.trim();
+        if (!trimmed.startsWith("{\"deleted\"")) return null;
+        Parser parser = new Parser(trimmed);
+        parser.expect('{');
+        parser.readString();
+        parser.expect(':');
+        String id = parser.readString();
+        parser.expect('}');
+        parser.expectEnd();
+        return id;
+    }
+
+    private static void writeString(Writer out, String value) throws IOException {
+        if (value == null) {
+            out.write("null");
+            return;
+        }
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            writeChar(out, value.charAt(i));
+        }
+        out.write('"');
+    }
+
+    private static void writeChar(Writer out, char c) throws IOException {
+        switch (c) {
+            case '"': out.write("\\\""); break;
+            case '\\': out.write("\\\\"); break;
+            case '\n': out.write("\\n"); break;
+            case '\r': out.write("\\r"); break;
+            case '\t': out.write("\\t"); break;
+            default:
+                if (c < 0x20) {
+                    out.write(String.format("\\u%04x", (int) c));
+                } else {
+                    out.write(c);
+                }
+        }
+    }
+
+    /**
+     * Đọc một dòng NDJSON thành note; ném IllegalArgumentException nếu dòng không hợp lệ
+     */
+    static Note parse(String line) {
+        Parser parser = new Parser(line);
+        String id = null;
+        String title = null;
+        String content = null;
+        String authorId = null;
+        String createdAt = null;
+        String lastModified = null;
+        long version = 1;
+
+        parser.expect('{');
+        if (!parser.consume('}')) {
+            do {
+                String key = parser.readString();
+                parser.expect(':');
+                switch (key) {
+                    case "id": id = parser.readNullableString(); break;
+                    case "title": title = parser.readNullableString(); break;
+                    case "content": content = parser.readNullableString(); break;
+                    case "authorId": authorId = parser.readNullableString(); break;
+                    case "createdAt": createdAt = parser.readNullableString(); break;
+                    case "lastModified": lastModified = parser.readNullableString(); break;
+                    case "version": version = parser.readLong(); break;
+                    default: parser.skipValue();
+                }
+            } while (parser.consume(','));
+            parser.expect('}');
+        }
+        parser.expectEnd();
+
+        Note note = new Note(title, content, authorId);
+        if (id != null) note.setId(id);
+        LocalDateTime now = note.getLastModified();
+        try {
+            note.setCreatedAt(createdAt != null ? LocalDateTime.parse(createdAt) : now);
+            note.setLastModified(lastModified != null ? LocalDateTime.parse(lastModified) : now);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid timestamp: " + e.getMessage(), e);
+        }
+        note.setVersion(version);
+        return note;
+    }
+
+    private static class Parser {
+        private final String text;
+        private int pos;
+
+        Parser(String text) {
+            this.text = text;
+        }
+
+        void skipWhitespace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) pos++;
+        }
+
+        boolean consume(char c) {
+            skipWhitespace();
+            if (pos < text.length() && text.charAt(pos) == c) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        void expect(char c) {
+            if (!consume(c)) throw error("'" + c + "' expected");
+        }
+
+        void expectEnd() {
+            skipWhitespace();
+            if (pos != text.length()) throw error("trailing characters");
+        }
+
+        String readNullableString() {
+            skipWhitespace();
+            if (text.startsWith("null", pos)) {
+                pos += 4;
+                return null;
+            }
+            return readString();
+        }
+
+        String readString() {
+            expect('"');
+            StringBuilder sb = null;
+            int start = pos;
+            while (pos < text.length()) {
+                char c = text.charAt(pos++);
+                if (c == '"') {
+                    return sb == null ? text.substring(start, pos - 1) : sb.toString();
+                }
+                if (c != '\\') {
+                    if (sb != null) sb.append(c);
+                    continue;
+                }
+                // Plain strings are returned as substrings; the builder is only needed once escapes appear
+                if (sb == null) sb = new StringBuilder(text.substring(start, pos - 1));
+                if (pos >= text.length()) break;
+                char escaped = text.charAt(pos++);
+                switch (escaped) {
+                    case '"': case '\\': case '/': sb.append(escaped); break;
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'u':
+                        if (pos + 4 > text.length()) throw error("bad unicode escape");
+                        try {
+                            sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw error("bad unicode escape");
+                        }
+                        pos += 4;
+                        break;
+                    default:
+                        throw error("bad escape");
+                }
+            }
+            throw error("unterminated string");
+        }
+
+        long readLong() {
+            skipWhitespace();
+            int start = pos;
+            if (pos < text.length() && text.charAt(pos) == '-') pos++;
+            while (pos < text.length() && Character.isDigit(text.charAt(pos))) pos++;
+            try {
+                return Long.parseLong(text.substring(start, pos));
+            } catch (NumberFormatException e) {
+                throw error("number expected");
+            }
+        }
+
+        void skipValue() {
+            skipWhitespace();
+            if (pos >= text.length()) throw error("value expected");
+            char c = text.charAt(pos);
+            if (c == '"') {
+                readString();
+            } else if (c == '{' || c == '[') {
+                char close = c == '{' ? '}' : ']';
+                pos++;
+                if (consume(close)) return;
+                do {
+                    if (c == '{') {
+                        readString();
+                        expect(':');
+                    }
+                    skipValue();
+                } while (consume(','));
+                expect(close);
+            } else {
+                // Number, true, false or null
+                while (pos < text.length() && ",}] \t".indexOf(text.charAt(pos)) < 0) pos++;
+            }
+        }
+
+        IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at column " + pos);
+        }
+    }
+}
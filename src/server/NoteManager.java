@@ -1,11 +1,29 @@
 package server;
 
+import common.models.BatchResult;
 import common.models.Note;
+import common.models.NoteBatch;
+import common.models.NoteOperation;
+import common.models.NoteSummary;
+import common.models.SyncResponse;
+import common.utils.ConfigManager;
 import common.utils.LoggerUtil;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Path;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -15,24 +33,87 @@ import java.util.stream.Collectors;
  */
 public class NoteManager {
     private static final Logger logger = LoggerUtil.getLogger(NoteManager.class);
+    static final String TOMBSTONE_HORIZON = "tombstone_horizon";
+    // Rough serialized size of one entry besides its id and content, for UDP page budgets
+    private static final int PAGE_ENTRY_OVERHEAD = 200;
+    
     private final DatabaseManager databaseManager;
-    // currentVersion sẽ được quản lý bởi logic trong DB trong tương lai,
-    // tạm thời vẫn giữ để đảm bảo các chức năng khác hoạt động
+    // currentVersion là change sequence của lần ghi cuối đã commit, mỗi row lưu change_seq của nó
     private final AtomicLong currentVersion; 
+    
+    // Deltas older than the tombstone horizon cannot report deletions and fall back to full sync
+    private final int maxTombstones;
+    private volatile long tombstoneHorizon;
+    private int tombstoneCount;
+    
+    // Change stream: mutations are applied and published under writeLock so that
+    // event order always matches change sequence order
+    private final Object writeLock = new Object();
+    // Guarded by writeLock: highest sequence handed to a running import, not yet published
+    private long reservedSequence;
+    private boolean importing;
+    private final ExecutorService eventExecutor;
+    private final SubmissionPublisher<NoteChangeEvent> changePublisher;
+    private final AtomicLong droppedEvents = new AtomicLong();
+    // After a drop a checkpoint follows, so a drop at the end of a burst is noticed without waiting for the next write
+    private static final long CHECKPOINT_DELAY_MS = 100;
+    private final ScheduledExecutorService checkpointTimer;
+    private final AtomicBoolean checkpointPending = new AtomicBoolean();
+    private final int fetchChunkSize;
+    private final BulkTransfer bulkTransfer;
+    private final BackupManager backupManager;
 
     public NoteManager() throws SQLException {
         this.databaseManager = new DatabaseManager();
         // Khởi tạo version từ DB hoặc bắt đầu từ 0
-        this.currentVersion = new AtomicLong(0); 
+        this.currentVersion = new AtomicLong(databaseManager.getMaxChangeSeq()); 
+        this.tombstoneHorizon = databaseManager.getSyncState(TOMBSTONE_HORIZON);
+        this.tombstoneCount = databaseManager.getTombstoneCount();
+        
+        ConfigManager config = ConfigManager.getInstance();
+        this.maxTombstones = config.getIntProperty("sync.tombstone.max", 10000);
+        this.fetchChunkSize = Math.max(1, config.getIntProperty("sync.fetch.chunk.size", 500));
+        AtomicInteger threadCount = new AtomicInteger();
+        this.eventExecutor = Executors.newFixedThreadPool(config.getIntProperty("events.threads", 2), r -> {
+            Thread thread = new Thread(r, "NoteChange-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.changePublisher = new SubmissionPublisher<>(eventExecutor, config.getIntProperty("events.buffer.size", 1024));
+        this.checkpointTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "NoteChange-Checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.bulkTransfer = new BulkTransfer(databaseManager);
+        this.backupManager = new BackupManager(databaseManager, bulkTransfer);
+    }
+
+    /**
+     * Lấy change stream (CDC) của notes, event được phát theo thứ tự change sequence
+     */
+    public Flow.Publisher<NoteChangeEvent> getChangeStream() {
+        return changePublisher;
     }
 
     /**
      * Thêm note mới
      */
     public void addNote(Note note) {
+        addNote(note, null);
+    }
+
+    /**
+     * Thêm note mới, originClientId là client gửi thay đổi
+     */
+    public void addNote(Note note, String originClientId) {
         try {
-            databaseManager.saveNote(note);
-            incrementVersion();
+            synchronized (writeLock) {
+                long sequence = nextSequence();
+                databaseManager.saveNote(note, sequence);
+                commitSequence(sequence);
+                publish(new NoteChangeEvent(NoteChangeEvent.Type.CREATED, sequence, note.getId(), note.getAuthorId(), note, originClientId));
+            }
             logger.info("Note added: " + note.getId());
         } catch (SQLException e) {
             logger.log(Level.SEVERE, "Error adding note", e);
@@ -44,27 +125,43 @@ public class NoteManager {
      * Cập nhật note
      */
     public void updateNote(Note note) {
+        updateNote(note, null);
+    }
+
+    /**
+     * Cập nhật note, trả về false nếu bị conflict hoặc note không tồn tại
+     */
+    public boolean updateNote(Note note, String originClientId) {
+        return applyUpdate(note, originClientId) == BatchResult.Status.APPLIED;
+    }
+
+    private BatchResult.Status applyUpdate(Note note, String originClientId) {
         if (note == null || note.getId() == null) {
             throw new IllegalArgumentException("Note and note ID cannot be null");
         }
         
         try {
-            // Lấy note hiện có từ DB để kiểm tra
-            Note existingNote = getNote(note.getId());
-            if (existingNote != null) {
+            synchronized (writeLock) {
+                // Lấy note hiện có từ DB để kiểm tra
+                Note existingNote = getNote(note.getId());
+                if (existingNote == null) {
+                    logger.warning("Attempt to update non-existent note: " + note.getId());
+                    return BatchResult.Status.NOT_FOUND;
+                }
                 if (note.getVersion() < existingNote.getVersion()) {
                     logger.warning("Version conflict for note: " + note.getId());
-                    return;
+                    return BatchResult.Status.CONFLICT;
                 }
                 
                 note.updateLastModified();
-                databaseManager.saveNote(note); // Dùng saveNote cho cả update (MERGE)
-                incrementVersion();
-                
-                logger.info("Note updated: " + note.getId() + " by " + note.getAuthorId());
-            } else {
-                logger.warning("Attempt to update non-existent note: " + note.getId());
+                long sequence = nextSequence();
+                databaseManager.saveNote(note, sequence); // Dùng saveNote cho cả update (MERGE)
+                commitSequence(sequence);
+                publish(new NoteChangeEvent(NoteChangeEvent.Type.UPDATED, sequence, note.getId(), note.getAuthorId(), note, originClientId));
             }
+            
+            logger.info("Note updated: " + note.getId() + " by " + note.getAuthorId());
+            return BatchResult.Status.APPLIED;
         } catch (SQLException e) {
             logger.log(Level.SEVERE, "Error updating note", e);
             throw new RuntimeException("Failed to update note", e);
@@ -75,16 +172,246 @@ public class NoteManager {
      * Xóa note
      */
     public boolean deleteNote(String noteId) {
+        return deleteNote(noteId, null);
+    }
+
+    /**
+     * Xóa note, originClientId là client gửi thay đổi. Trả về false nếu note không tồn tại;
+     * lỗi DB được ném ra dưới dạng RuntimeException để không bị hiểu nhầm là NOT_FOUND
+     */
+    public boolean deleteNote(String noteId, String originClientId) {
         try {
-            boolean deleted = databaseManager.deleteNote(noteId);
+            boolean deleted;
+            synchronized (writeLock) {
+                // Author is needed so author subscribers also hear about the deletion
+                Note existing = databaseManager.getNoteById(noteId);
+                long sequence = nextSequence();
+                deleted = databaseManager.deleteNote(noteId, sequence);
+                if (deleted) {
+                    commitSequence(sequence);
+                    pruneTombstonesIfNeeded();
+                    String authorId = existing != null ? existing.getAuthorId() : null;
+                    publish(new NoteChangeEvent(NoteChangeEvent.Type.DELETED, sequence, noteId, authorId, null, originClientId));
+                }
+            }
             if (deleted) {
-                incrementVersion();
                 logger.info("Note deleted: " + noteId);
             }
             return deleted;
         } catch (SQLException e) {
             logger.log(Level.SEVERE, "Error deleting note", e);
-            return false;
+            throw new RuntimeException("Failed to delete note", e);
+        }
+    }
+
+    /**
+     * Áp dụng một thao tác create/update/delete, kết quả kèm change sequence đã commit;
+     * lỗi DB được ném ra dưới dạng RuntimeException
+     */
+    public BatchResult.OperationResult applyOperation(NoteOperation operation, String originClientId) {
+        // writeLock is reentrant: right after an applied write the current version is that write's sequence
+        synchronized (writeLock) {
+            BatchResult.Status status;
+            switch (operation.getType()) {
+                case CREATE:
+                    addNote(operation.getNote(), originClientId);
+                    status = BatchResult.Status.APPLIED;
+                    break;
+                case UPDATE:
+                    status = applyUpdate(operation.getNote(), originClientId);
+                    break;
+                case DELETE:
+                    status = deleteNote(operation.getNoteId(), originClientId) ? BatchResult.Status.APPLIED : BatchResult.Status.NOT_FOUND;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown operation type: " + operation.getType());
+            }
+            BatchResult.OperationResult result = new BatchResult.OperationResult(operation.getOperationId(), operation.getNoteId(), status, null);
+            if (status == BatchResult.Status.APPLIED) {
+                result.setSequence(currentVersion.get());
+                // The note was stamped in place (version, lastModified); the client adopts these values
+                if (operation.getType() != NoteOperation.Type.DELETE) result.setCommitted(operation.getNote());
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Áp dụng batch trong một transaction, mỗi thao tác có kết quả riêng. Trạng thái hiện có được đọc một lần,
+     * mỗi note chỉ được ghi với trạng thái cuối cùng và các event được đánh dấu cùng batch để broadcast
+     * thành một frame. Lỗi DB làm rollback cả batch: mọi thao tác đã chấp nhận trả về FAILED
+     */
+    public BatchResult applyBatch(NoteBatch batch, String originClientId) {
+        BatchResult result = new BatchResult(batch.getBatchId());
+        List<NoteOperation> operations = batch.getOperations();
+        if (operations == null || operations.isEmpty()) return result;
+        
+        synchronized (writeLock) {
+            Map<String, NoteSummary> existing;
+            try {
+                existing = loadExisting(operations);
+            } catch (SQLException e) {
+                logger.log(Level.SEVERE, "Error reading notes for batch " + batch.getBatchId(), e);
+                for (NoteOperation operation : operations) {
+                    result.addResult(operation, BatchResult.Status.FAILED, e.getMessage());
+                }
+                return result;
+            }
+            
+            long sequence = nextSequence() - 1;
+            List<NoteChangeEvent> events = new ArrayList<>();
+            // Final state per note, the only thing written to the database
+            Map<String, NoteChangeEvent> finalChanges = new LinkedHashMap<>();
+            for (NoteOperation operation : operations) {
+                NoteChangeEvent event = null;
+                BatchResult.Status status = BatchResult.Status.APPLIED;
+                String error = null;
+                String noteId = operation.getNoteId();
+                Note note = operation.getNote();
+                NoteSummary current = noteId != null ? existing.get(noteId) : null;
+                
+                if (noteId == null || (operation.getType() != NoteOperation.Type.DELETE && (note == null || !noteId.equals(note.getId())))) {
+                    status = BatchResult.Status.FAILED;
+                    error = "Invalid operation";
+                } else if (operation.getType() == NoteOperation.Type.CREATE) {
+                    event = new NoteChangeEvent(NoteChangeEvent.Type.CREATED, sequence + 1, noteId, note.getAuthorId(), note, originClientId);
+                } else if (current == null) {
+                    status = BatchResult.Status.NOT_FOUND;
+                } else if (operation.getType() == NoteOperation.Type.DELETE) {
+                    event = new NoteChangeEvent(NoteChangeEvent.Type.DELETED, sequence + 1, noteId, current.getAuthorId(), null, originClientId);
+                } else if (note.getVersion() < current.getVersion()) {
+                    status = BatchResult.Status.CONFLICT;
+                } else {
+                    note.updateLastModified();
+                    event = new NoteChangeEvent(NoteChangeEvent.Type.UPDATED, sequence + 1, noteId, note.getAuthorId(), note, originClientId);
+                }
+                
+                BatchResult.OperationResult operationResult = new BatchResult.OperationResult(operation.getOperationId(), noteId, status, error);
+                if (event != null) {
+                    sequence = event.getSequence();
+                    operationResult.setSequence(sequence);
+                    if (note != null && event.getType() != NoteChangeEvent.Type.DELETED) operationResult.setCommitted(note);
+                    // Later operations of the batch see this one
+                    if (event.getType() == NoteChangeEvent.Type.DELETED) {
+                        existing.remove(noteId);
+                    } else {
+                        existing.put(noteId, new NoteSummary(note));
+                    }
+                    finalChanges.remove(noteId);
+                    finalChanges.put(noteId, event);
+                    events.add(event);
+                }
+                result.getResults().add(operationResult);
+            }
+            if (events.isEmpty()) return result;
+            
+            try {
+                databaseManager.writeChanges(finalChanges.values());
+            } catch (SQLException e) {
+                logger.log(Level.SEVERE, "Batch " + batch.getBatchId() + " rolled back", e);
+                for (BatchResult.OperationResult operationResult : result.getResults()) {
+                    if (operationResult.getStatus() == BatchResult.Status.APPLIED) {
+                        operationResult.setStatus(BatchResult.Status.FAILED);
+                        operationResult.setError(e.getMessage());
+                        operationResult.setSequence(0);
+                    }
+                }
+                return result;
+            }
+            commitSequence(sequence);
+            
+            for (NoteChangeEvent event : events) {
+                if (events.size() > 1) event.setBatchEndSequence(sequence);
+                publish(event);
+            }
+            try {
+                for (NoteChangeEvent event : finalChanges.values()) {
+                    if (event.getType() == NoteChangeEvent.Type.DELETED) pruneTombstonesIfNeeded();
+                }
+            } catch (SQLException e) {
+                logger.log(Level.WARNING, "Error pruning tombstones after batch " + batch.getBatchId(), e);
+            }
+        }
+        
+        logger.info("Batch " + batch.getBatchId() + " applied: " + operations.size() + " operations");
+        return result;
+    }
+    
+    /**
+     * Summary hiện có của các note trong batch, đọc theo từng chunk sync.fetch.chunk.size id
+     */
+    private Map<String, NoteSummary> loadExisting(List<NoteOperation> operations) throws SQLException {
+        Set<String> ids = new LinkedHashSet<>();
+        for (NoteOperation operation : operations) {
+            if (operation.getNoteId() != null && operation.getType() != NoteOperation.Type.CREATE) {
+                ids.add(operation.getNoteId());
+            }
+        }
+        Map<String, NoteSummary> existing = new HashMap<>();
+        List<String> idList = new ArrayList<>(ids);
+        for (int from = 0; from < idList.size(); from += fetchChunkSize) {
+            List<String> chunk = idList.subList(from, Math.min(idList.size(), from + fetchChunkSize));
+            for (NoteSummary summary : databaseManager.getNoteSummariesByIds(chunk)) {
+                existing.put(summary.getId(), summary);
+            }
+        }
+        return existing;
+    }
+
+    /**
+     * Tạo/cập nhật note với content đọc từ Reader (upload theo chunk); content không được giữ trong bộ nhớ.
+     * Event phát ra mang note không có content, client tải content khi cần.
+     */
+    public BatchResult.OperationResult applyStreamed(Note note, boolean create, Reader content, long contentLength, String originClientId) {
+        if (note == null || note.getId() == null) {
+            throw new IllegalArgumentException("Note and note ID cannot be null");
+        }
+        
+        long sequence;
+        try {
+            synchronized (writeLock) {
+                if (!create) {
+                    // Version check from the summary so the existing content is not loaded
+                    List<NoteSummary> existing = databaseManager.getNoteSummariesByIds(Collections.singletonList(note.getId()));
+                    if (existing.isEmpty()) {
+                        logger.warning("Attempt to update non-existent note: " + note.getId());
+                        return new BatchResult.OperationResult(null, note.getId(), BatchResult.Status.NOT_FOUND, null);
+                    }
+                    if (note.getVersion() < existing.get(0).getVersion()) {
+                        logger.warning("Version conflict for note: " + note.getId());
+                        return new BatchResult.OperationResult(null, note.getId(), BatchResult.Status.CONFLICT, null);
+                    }
+                    note.updateLastModified();
+                }
+                
+                Note metadata = note.copyWithContent(null);
+                sequence = nextSequence();
+                databaseManager.saveNote(metadata, sequence, content, contentLength);
+                commitSequence(sequence);
+                publish(new NoteChangeEvent(create ? NoteChangeEvent.Type.CREATED : NoteChangeEvent.Type.UPDATED,
+                        sequence, note.getId(), note.getAuthorId(), metadata, originClientId));
+            }
+            
+            logger.info("Note " + (create ? "added" : "updated") + " from stream: " + note.getId() + " (" + contentLength + " chars)");
+            BatchResult.OperationResult result = new BatchResult.OperationResult(null, note.getId(), BatchResult.Status.APPLIED, null);
+            result.setSequence(sequence);
+            result.setCommitted(note);
+            return result;
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Error saving streamed note", e);
+            throw new RuntimeException("Failed to save streamed note", e);
+        }
+    }
+
+    /**
+     * Đọc content của note qua Reader (tải note lớn theo chunk); false nếu note không tồn tại
+     */
+    public boolean readNoteContent(String noteId, DatabaseManager.ContentReader reader) throws IOException {
+        try {
+            return databaseManager.readNoteContent(noteId, reader);
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Error reading note content", e);
+            throw new IOException("Failed to read note content", e);
         }
     }
 
@@ -93,12 +420,7 @@ public class NoteManager {
      */
     public Note getNote(String noteId) {
         try {
-            // Giả sử bạn sẽ thêm phương thức getNoteById vào DatabaseManager
-            List<Note> allNotes = databaseManager.getAllNotes();
-            return allNotes.stream()
-                           .filter(n -> n.getId().equals(noteId))
-                           .findFirst()
-                           .orElse(null);
+            return databaseManager.getNoteById(noteId);
         } catch (SQLException e) {
             logger.log(Level.SEVERE, "Error getting note by ID", e);
             return null;
@@ -117,6 +439,18 @@ public class NoteManager {
         }
     }
 
+    /**
+     * Lấy version của toàn bộ notes (id -> version)
+     */
+    public Map<String, Long> getNoteVersions() {
+        try {
+            return databaseManager.getNoteVersions();
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Error getting note versions", e);
+            return new HashMap<>();
+        }
+    }
+
     /**
      * Lấy notes theo author từ DB
      */
@@ -132,34 +466,215 @@ public class NoteManager {
     }
 
     /**
-     * Lấy notes sau một version cụ thể
+     * Lấy notes thay đổi sau một change sequence cụ thể
      */
     public List<Note> getNotesAfterVersion(long version) {
         try {
-            return databaseManager.getAllNotes().stream()
-                    .filter(note -> note.getVersion() > version)
-                    .collect(Collectors.toList());
+            return databaseManager.getNotesChangedSince(version);
         } catch (SQLException e) {
             logger.log(Level.SEVERE, "Error getting notes after version", e);
             return new ArrayList<>();
         }
     }
 
+    /**
+     * Tạo phản hồi full sync với toàn bộ notes
+     */
+    public SyncResponse getFullSync(String clientId) {
+        return getFullSync(clientId, false);
+    }
+
+    /**
+     * Tạo phản hồi full sync; metadataOnly chỉ trả về NoteSummary (không đọc content)
+     */
+    public SyncResponse getFullSync(String clientId, boolean metadataOnly) {
+        // Read the sequence first: rows written meanwhile are simply resent by the next delta
+        long version = currentVersion.get();
+        SyncResponse response;
+        if (metadataOnly) {
+            response = new SyncResponse(clientId, new ArrayList<>(), version);
+            try {
+                response.setSummaries(databaseManager.getNoteSummaries());
+            } catch (SQLException e) {
+                logger.log(Level.SEVERE, "Error getting note summaries", e);
+                response.setErrorMessage("Failed to read notes");
+            }
+        } else {
+            response = new SyncResponse(clientId, getAllNotes(), version);
+        }
+        response.setDeletedNoteIds(new ArrayList<>());
+        response.setFullSync(true);
+        return response;
+    }
+
+    /**
+     * Tạo phản hồi delta sync từ sinceVersion; trả về full sync nếu version quá cũ
+     * (tombstone đã bị dọn) hoặc lớn hơn version của server
+     */
+    public SyncResponse getChangesSince(String clientId, long sinceVersion) {
+        return getChangesSince(clientId, sinceVersion, false);
+    }
+
+    /**
+     * Delta sync như trên, metadataOnly chỉ trả về NoteSummary
+     */
+    public SyncResponse getChangesSince(String clientId, long sinceVersion, boolean metadataOnly) {
+        long version = currentVersion.get();
+        if (needsFullSync(sinceVersion)) {
+            return getFullSync(clientId, metadataOnly);
+        }
+        
+        try {
+            SyncResponse response;
+            if (metadataOnly) {
+                response = new SyncResponse(clientId, new ArrayList<>(), version);
+                response.setSummaries(databaseManager.getNoteSummariesChangedSince(sinceVersion));
+            } else {
+                response = new SyncResponse(clientId, databaseManager.getNotesChangedSince(sinceVersion), version);
+            }
+            response.setDeletedNoteIds(databaseManager.getDeletedIdsSince(sinceVersion));
+            return response;
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Error getting changes since " + sinceVersion, e);
+            SyncResponse response = new SyncResponse(clientId, new ArrayList<>(), version);
+            response.setErrorMessage("Failed to read changes");
+            return response;
+        }
+    }
+
+    /**
+     * Targeted sync: lấy các note theo id, mỗi chunk sync.fetch.chunk.size id là một SyncResponse
+     * được đưa ngay cho sink. Id không còn tồn tại được báo là đã xóa.
+     */
+    public void getNotesByIds(String clientId, Collection<String> noteIds, boolean metadataOnly, Consumer<SyncResponse> sink) {
+        List<String> ids = new ArrayList<>(new LinkedHashSet<>(noteIds));
+        long version = currentVersion.get();
+        
+        for (int from = 0; from < ids.size(); from += fetchChunkSize) {
+            List<String> chunk = ids.subList(from, Math.min(ids.size(), from + fetchChunkSize));
+            SyncResponse response = new SyncResponse(clientId, new ArrayList<>(), version);
+            response.setTargeted(true);
+            try {
+                Set<String> missing = new LinkedHashSet<>(chunk);
+                if (metadataOnly) {
+                    List<NoteSummary> summaries = databaseManager.getNoteSummariesByIds(chunk);
+                    for (NoteSummary summary : summaries) {
+                        missing.remove(summary.getId());
+                    }
+                    response.setSummaries(summaries);
+                } else {
+                    List<Note> notes = databaseManager.getNotesByIds(chunk);
+                    for (Note note : notes) {
+                        missing.remove(note.getId());
+                    }
+                    response.setNotes(notes);
+                }
+                response.setDeletedNoteIds(new ArrayList<>(missing));
+            } catch (SQLException e) {
+                logger.log(Level.SEVERE, "Error fetching notes by id", e);
+                response.setErrorMessage("Failed to read notes");
+            }
+            sink.accept(response);
+        }
+    }
+
     /**
      * Lấy notes gần đây nhất
      */
     public List<Note> getRecentNotes(int limit) {
         try {
-            return databaseManager.getAllNotes().stream()
-                    .sorted(Comparator.comparing(Note::getLastModified).reversed())
-                    .limit(limit)
-                    .collect(Collectors.toList());
+            return databaseManager.getRecentNotes(limit);
         } catch (SQLException e) {
             logger.log(Level.SEVERE, "Error getting recent notes", e);
             return new ArrayList<>();
         }
     }
 
+    /**
+     * Delta sync theo trang cho UDP: tối đa maxChanges thay đổi sau sinceVersion, dừng sớm khi ước lượng
+     * kích thước vượt maxBytes (luôn có ít nhất một thay đổi). Trang chưa hết có moreAvailable và syncVersion
+     * là sequence của thay đổi cuối trong trang để client hỏi tiếp. Version quá cũ cần full sync qua TCP.
+     */
+    public SyncResponse getChangesPage(String clientId, long sinceVersion, boolean metadataOnly, int maxChanges, int maxBytes) {
+        long version = currentVersion.get();
+        SyncResponse response = new SyncResponse(clientId, new ArrayList<>(), version);
+        if (sinceVersion > 0 && needsFullSync(sinceVersion)) {
+            response.setErrorMessage("Full sync required");
+            return response;
+        }
+
+        try {
+            List<DatabaseManager.ChangeRow> rows = databaseManager.getChangeLog(Math.max(0, sinceVersion), maxChanges + 1);
+            List<String> written = new ArrayList<>();
+            List<String> deleted = new ArrayList<>();
+            long lastSeq = sinceVersion;
+            long bytes = 0;
+            int taken = 0;
+            boolean more = false;
+            for (DatabaseManager.ChangeRow row : rows) {
+                // Rows of an import still running sit above the published version
+                if (row.changeSeq > version) break;
+                long size = PAGE_ENTRY_OVERHEAD + row.id.length() + (metadataOnly ? 0 : row.contentLength);
+                if (taken == maxChanges || (taken > 0 && bytes + size > maxBytes)) {
+                    more = true;
+                    break;
+                }
+                (row.deleted ? deleted : written).add(row.id);
+                bytes += size;
+                lastSeq = row.changeSeq;
+                taken++;
+            }
+
+            if (metadataOnly) {
+                response.setSummaries(databaseManager.getNoteSummariesByIds(written));
+            } else {
+                response.setNotes(databaseManager.getNotesByIds(written));
+            }
+            response.setDeletedNoteIds(deleted);
+            response.setMoreAvailable(more);
+            // Without more pages the client is caught up to everything this read saw
+            response.setSyncVersion(more ? lastSeq : Math.max(version, lastSeq));
+            return response;
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Error reading change page since " + sinceVersion, e);
+            response.setErrorMessage("Failed to read changes");
+            return response;
+        }
+    }
+
+    /**
+     * Đọc lại từ change log các thay đổi có sequence trong (afterSequence, upToSequence], tối đa sync.fetch.chunk.size
+     * dòng, để bù event bị drop. Mỗi note chỉ còn trạng thái mới nhất; tombstone không có author. Null nếu lỗi DB
+     */
+    public List<NoteChangeEvent> getChangeEvents(long afterSequence, long upToSequence) {
+        try {
+            List<DatabaseManager.ChangeRow> rows = new ArrayList<>();
+            List<String> written = new ArrayList<>();
+            for (DatabaseManager.ChangeRow row : databaseManager.getChangeLog(afterSequence, fetchChunkSize)) {
+                if (row.changeSeq > upToSequence) break;
+                rows.add(row);
+                if (!row.deleted) written.add(row.id);
+            }
+            Map<String, Note> notes = new HashMap<>();
+            for (Note note : databaseManager.getNotesByIds(written)) {
+                notes.put(note.getId(), note);
+            }
+            
+            List<NoteChangeEvent> events = new ArrayList<>(rows.size());
+            for (DatabaseManager.ChangeRow row : rows) {
+                Note note = row.deleted ? null : notes.get(row.id);
+                // A row gone between the two reads was deleted since, which is also its final state
+                events.add(note == null
+                        ? new NoteChangeEvent(NoteChangeEvent.Type.DELETED, row.changeSeq, row.id, null, null, null)
+                        : new NoteChangeEvent(NoteChangeEvent.Type.UPDATED, row.changeSeq, row.id, note.getAuthorId(), note, null));
+            }
+            return events;
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Error reading change log after " + afterSequence, e);
+            return null;
+        }
+    }
+
     /**
      * Tìm kiếm notes theo title hoặc content
      */
@@ -190,10 +705,66 @@ public class NoteManager {
     }
 
     /**
-     * Tăng version
+     * Delta từ sinceVersion không thể tạo được (tombstone đã bị dọn hoặc version không hợp lệ)
+     */
+    public boolean needsFullSync(long sinceVersion) {
+        return sinceVersion <= 0 || sinceVersion < tombstoneHorizon || sinceVersion > currentVersion.get();
+    }
+
+    /**
+     * Sequence cho lần ghi tiếp theo (chỉ gọi trong writeLock)
+     */
+    private long nextSequence() {
+        return Math.max(currentVersion.get(), reservedSequence) + 1;
+    }
+
+    /**
+     * Công bố sequence sau khi ghi DB thành công, reader chỉ thấy version đã commit
      */
-    private void incrementVersion() {
-        currentVersion.incrementAndGet();
+    private void commitSequence(long sequence) {
+        currentVersion.set(sequence);
+    }
+
+    /**
+     * Giữ số tombstone trong giới hạn, dọn theo đợt để không chạy sau mỗi lần xóa
+     */
+    private void pruneTombstonesIfNeeded() throws SQLException {
+        tombstoneCount++;
+        if (tombstoneCount > maxTombstones + maxTombstones / 10) {
+            long horizon = databaseManager.pruneTombstones(maxTombstones);
+            if (horizon > 0) {
+                databaseManager.setSyncState(TOMBSTONE_HORIZON, horizon);
+                tombstoneHorizon = horizon;
+            }
+            tombstoneCount = databaseManager.getTombstoneCount();
+            logger.info("Pruned tombstones up to sequence " + horizon);
+        }
+    }
+
+    /**
+     * Phát event tới các subscriber; nếu buffer (events.buffer.size) của subscriber đã đầy thì event bị drop ngay
+     * (subscriber tự phát hiện qua khoảng trống trong sequence và đọc lại bằng getChangeEvents)
+     */
+    private void publish(NoteChangeEvent event) {
+        // Never waits: this runs under writeLock, so blocking here would stall every writer behind one slow subscriber
+        changePublisher.offer(event, (subscriber, dropped) -> {
+            droppedEvents.incrementAndGet();
+            logger.warning("Change event dropped for slow subscriber: " + dropped);
+            if (checkpointPending.compareAndSet(false, true)) {
+                checkpointTimer.schedule(this::publishCheckpoint, CHECKPOINT_DELAY_MS, TimeUnit.MILLISECONDS);
+            }
+            return false;
+        });
+    }
+
+    /**
+     * Phát checkpoint với sequence đã commit; nếu lại bị drop thì publish lên lịch checkpoint khác
+     */
+    private void publishCheckpoint() {
+        synchronized (writeLock) {
+            checkpointPending.set(false);
+            publish(new NoteChangeEvent(NoteChangeEvent.Type.CHECKPOINT, currentVersion.get(), null, null, null, null));
+        }
     }
 
     /**
@@ -201,7 +772,7 @@ public class NoteManager {
      */
     public int getNoteCount() {
         try {
-            return databaseManager.getAllNotes().size();
+            return (int) databaseManager.countNotes();
         } catch (SQLException e) {
             logger.log(Level.SEVERE, "Error getting note count", e);
             return 0;
@@ -215,16 +786,120 @@ public class NoteManager {
         return getNote(noteId) != null;
     }
 
+    /**
+     * Duyệt toàn bộ notes bằng cursor (content dạng Reader), không nạp tất cả vào bộ nhớ
+     */
+    public void scanNotes(DatabaseManager.ContentReader reader) throws SQLException, IOException {
+        databaseManager.scanNotes(reader);
+    }
+
+    /**
+     * Ghi toàn bộ notes ra file NDJSON (".gz" thì nén); đọc bằng cursor riêng nên không chặn ghi
+     */
+    public BulkTransfer.Report exportNotes(Path file) throws IOException, SQLException {
+        return bulkTransfer.exportTo(file);
+    }
+
+    /**
+     * Nạp notes từ file NDJSON (ghi đè bản cũ hơn của note cùng id). writeLock chỉ được giữ khi cấp dải sequence
+     * cho từng lô, nên các thay đổi khác vẫn chạy trong lúc import. Không phát change event: subscriber thấy
+     * khoảng trống ở event kế tiếp, client nhận notes qua delta sync, hoặc full sync nếu có thay đổi khác
+     * đã commit trong lúc import (version của client khi đó có thể đã vượt qua các dòng import ghi sau)
+     */
+    public BulkTransfer.Report importNotes(Path file) throws IOException, SQLException {
+        long committedBefore;
+        synchronized (writeLock) {
+            if (importing) throw new IllegalStateException("An import is already running");
+            importing = true;
+            committedBefore = currentVersion.get();
+        }
+        try {
+            return bulkTransfer.importFrom(file, this::reserveSequences);
+        } finally {
+            synchronized (writeLock) {
+                importing = false;
+                // Batches committed before a failure stay, so their sequences are published either way
+                if (currentVersion.get() == committedBefore) {
+                    commitSequence(Math.max(committedBefore, reservedSequence));
+                } else {
+                    long sequence = nextSequence();
+                    databaseManager.setSyncState(TOMBSTONE_HORIZON, sequence);
+                    tombstoneHorizon = sequence;
+                    commitSequence(sequence);
+                }
+                reservedSequence = 0;
+                int revived = databaseManager.clearTombstonesRewrittenAfter(committedBefore);
+                tombstoneCount = Math.max(0, tombstoneCount - revived);
+            }
+        }
+    }
+
+    /**
+     * Cấp count sequence liên tiếp cho một lô import, trả về sequence đầu; chưa được công bố cho reader
+     */
+    private long reserveSequences(int count) {
+        synchronized (writeLock) {
+            long first = nextSequence();
+            reservedSequence = first + count - 1;
+            return first;
+        }
+    }
+
+    /**
+     * Ghi backup online tới version hiện tại (incremental, hoặc base nếu full hay chain không nối tiếp được).
+     * Đọc qua snapshot riêng nên không giữ writeLock; trả về null nếu không có thay đổi từ backup trước
+     */
+    public BackupManager.Entry backup(boolean full) throws IOException, SQLException {
+        return backupManager.backup(currentVersion.get(), full);
+    }
+
+    /**
+     * Kiểm tra chain backup tới sequence upTo (Long.MAX_VALUE: mới nhất) mà không động vào store
+     */
+    public String verifyBackup(long upTo) throws IOException {
+        return backupManager.verify(upTo);
+    }
+
+    /**
+     * Thay toàn bộ store bằng chain backup tới sequence upTo. Checksum được kiểm tra trước khi xóa dữ liệu;
+     * giữ writeLock suốt quá trình và không phát change event, như import
+     */
+    public String restoreBackup(long upTo) throws IOException, SQLException {
+        synchronized (writeLock) {
+            if (importing) throw new IllegalStateException("An import is running");
+            List<BackupManager.Entry> chain = backupManager.checkedChain(upTo, true);
+            long firstSequence = currentVersion.get();
+            try {
+                return backupManager.restore(chain, firstSequence);
+            } finally {
+                // Same as clear: the store was replaced under every client, so their versions become too old
+                long sequence = Math.max(firstSequence, databaseManager.getMaxChangeSeq()) + 1;
+                databaseManager.setSyncState(TOMBSTONE_HORIZON, sequence);
+                tombstoneHorizon = sequence;
+                tombstoneCount = databaseManager.getTombstoneCount();
+                commitSequence(sequence);
+            }
+        }
+    }
+
+    public Map<String, Object> getBackupStatistics() {
+        return backupManager.getStatistics();
+    }
+
     /**
      * Clear tất cả notes (for testing)
      */
     public void clearAllNotes() {
         try {
-            List<Note> allNotes = databaseManager.getAllNotes();
-            for (Note note : allNotes) {
-                databaseManager.deleteNote(note.getId());
+            synchronized (writeLock) {
+                databaseManager.deleteAllNotes();
+                // Keep the sequence monotonic; every existing client version becomes too old
+                long sequence = nextSequence();
+                databaseManager.setSyncState(TOMBSTONE_HORIZON, sequence);
+                tombstoneHorizon = sequence;
+                tombstoneCount = 0;
+                commitSequence(sequence);
             }
-            currentVersion.set(0);
             logger.info("All notes cleared");
         } catch (SQLException e) {
             logger.log(Level.SEVERE, "Error clearing all notes", e);
@@ -236,17 +911,15 @@ public class NoteManager {
      */
     public Map<String, Object> getStatistics() {
         try {
-            List<Note> allNotes = databaseManager.getAllNotes();
             Map<String, Object> stats = new HashMap<>();
-            stats.put("totalNotes", allNotes.size());
+            stats.put("totalNotes", databaseManager.countNotes());
             stats.put("currentVersion", currentVersion.get());
+            stats.put("tombstoneHorizon", tombstoneHorizon);
+            stats.put("changeSubscribers", changePublisher.getNumberOfSubscribers());
+            stats.put("changeEventLag", changePublisher.estimateMaximumLag());
+            stats.put("droppedChangeEvents", droppedEvents.get());
             
-            Map<String, Long> authorStats = allNotes.stream()
-                    .collect(Collectors.groupingBy(
-                        note -> note.getAuthorId() != null ? note.getAuthorId() : "Unknown",
-                        Collectors.counting()
-                    ));
-            stats.put("notesByAuthor", authorStats);
+            stats.put("notesByAuthor", databaseManager.countNotesByAuthor());
             
             return stats;
         } catch (SQLException e) {
@@ -259,6 +932,9 @@ public class NoteManager {
      * Đóng kết nối DB khi server dừng
      */
     public void close() {
+        checkpointTimer.shutdownNow();
+        changePublisher.close();
+        eventExecutor.shutdown();
         if (databaseManager != null) {
             databaseManager.close();
         }
@@ -5,10 +5,16 @@ import common.network.*;
 import common.utils.*;
 import java.sql.SQLException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
@@ -21,11 +27,31 @@ public class NoteSyncServer {
     private final ConfigManager config;
     private final NoteManager noteManager;
     private final ClientManager clientManager;
+    private final RateLimiter rateLimiter;
+    private final ReconcileIndex reconcileIndex;
+    private final ChangeBroadcaster changeBroadcaster;
+    private final InvalidationNotifier invalidationNotifier;
+    private final ResumeRing resumeRing;
+    private final SyncSnapshotCache snapshotCache;
+    private final SnapshotTransferServer snapshotTransfer; // null unless snapshots are file-backed
+    private final ChunkAssembler chunkAssembler;
+    private final DedupCache dedupCache = new DedupCache();
+    private final int chunkThreshold;
+    private final int chunkSize;
+    private final int udpSyncMaxChanges;
+    private final int udpSyncMaxBytes;
+    private final AtomicLong binaryHeartbeats = new AtomicLong();
+    // Resume tokens are only valid for the server instance that issued them (the ring is in memory)
+    private final String serverEpoch = Utils.generateId();
     
     private ServerSocket tcpServerSocket;
     private UDPConnection udpConnection;
     private boolean isRunning;
     private final ExecutorService threadPool;
+    // Content fetches run here so a large note streamed to a slow reader never holds the connection's receiver thread
+    private final ExecutorService contentSenders;
+    private final int chunkSendWindow;
+    private final long chunkSendTimeoutMs;
     
     public NoteSyncServer() {
         this.config = ConfigManager.getInstance();
@@ -36,7 +62,32 @@ public class NoteSyncServer {
             throw new RuntimeException("Database initialization failed", e);
         }
         this.clientManager = new ClientManager();
+        this.rateLimiter = new RateLimiter(config);
+        
+        // Fan-out runs on the change stream's executor instead of the handler thread
+        this.changeBroadcaster = new ChangeBroadcaster(clientManager, noteManager);
+        this.noteManager.getChangeStream().subscribe(changeBroadcaster);
+        this.invalidationNotifier = new InvalidationNotifier(clientManager);
+        this.noteManager.getChangeStream().subscribe(invalidationNotifier);
+        this.resumeRing = new ResumeRing(noteManager, config.getIntProperty("sync.resume.ring.size", 10000),
+                noteManager.getCurrentVersion(), config.getLongProperty("sync.resume.catchup.ms", 200));
+        this.noteManager.getChangeStream().subscribe(resumeRing);
+        this.snapshotCache = new SyncSnapshotCache(noteManager);
+        this.snapshotTransfer = snapshotCache.isFileBacked()
+                ? new SnapshotTransferServer(config.getSnapshotPort(),
+                        config.getLongProperty("sync.snapshot.ticket.ttl.ms", 60000), config.getConnectionTimeout())
+                : null;
+        this.chunkAssembler = new ChunkAssembler(noteManager, dedupCache);
+        this.chunkThreshold = config.getIntProperty("chunk.threshold.chars", 262144);
+        this.chunkSize = Math.max(1024, config.getIntProperty("chunk.size.chars", 65536));
+        this.udpSyncMaxChanges = Math.max(1, config.getIntProperty("udp.sync.max.changes", 200));
+        this.udpSyncMaxBytes = config.getIntProperty("udp.sync.max.bytes", 60000);
+        this.reconcileIndex = new ReconcileIndex(noteManager);
+        this.noteManager.getChangeStream().subscribe(reconcileIndex);
         this.threadPool = Executors.newCachedThreadPool();
+        this.contentSenders = Executors.newFixedThreadPool(Math.max(1, config.getIntProperty("chunk.send.threads", 4)));
+        this.chunkSendWindow = Math.max(1, config.getIntProperty("chunk.send.window", 8));
+        this.chunkSendTimeoutMs = config.getLongProperty("chunk.send.timeout.ms", 30000);
         this.isRunning = false;
     }
     
@@ -54,8 +105,13 @@ public class NoteSyncServer {
         // Start UDP server
         startUDPServer();
         
+        if (snapshotTransfer != null) {
+            snapshotTransfer.start(threadPool);
+        }
+        
         // Start background tasks
         startHeartbeatChecker();
+        startBackupScheduler();
         
         isRunning = true;
         logger.info("Note Sync Server started successfully");
@@ -99,7 +155,7 @@ public class NoteSyncServer {
     }
     
     private void startUDPServer() throws IOException {
-        udpConnection = new UDPConnection(config.getUdpPort());
+        udpConnection = new UDPConnection(config.getUdpPort(), config.getBooleanProperty("udp.channel.enabled", false));
         udpConnection.setMessageHandler(new UDPConnection.MessageHandler() {
             @Override
             public void handleMessage(Message message, java.net.InetAddress sender, int senderPort) {
@@ -112,7 +168,10 @@ public class NoteSyncServer {
             }
         });
         
+        udpConnection.setDatagramHandler(this::handleHeartbeatDatagram);
+        
         udpConnection.startListening();
+        invalidationNotifier.attach(udpConnection);
     }
     
     private void handleTCPClient(TCPConnection connection) {
@@ -142,6 +201,11 @@ public class NoteSyncServer {
         try {
             logger.info("Handling TCP message: " + message.getType() + " from " + message.getSenderId());
             
+            if (!rateLimiter.tryAcquire(getRateLimitKey(message, connection), message.getType(), permits(message))) {
+                rejectThrottled(message, connection);
+                return;
+            }
+            
             switch (message.getType()) {
                 case CLIENT_CONNECT:
                     handleClientConnect(message, connection);
@@ -150,20 +214,41 @@ public class NoteSyncServer {
                     handleClientDisconnect(message, connection);
                     break;
                 case NOTE_CREATE:
-                    handleNoteCreate(message);
+                    handleNoteCreate(message, connection);
                     break;
                 case NOTE_UPDATE:
-                    handleNoteUpdate(message);
+                    handleNoteUpdate(message, connection);
                     break;
                 case NOTE_DELETE:
-                    handleNoteDelete(message);
+                    handleNoteDelete(message, connection);
+                    break;
+                case NOTE_BATCH:
+                    handleNoteBatch(message, connection);
                     break;
                 case SYNC_REQUEST:
                     handleSyncRequest(message, connection);
                     break;
+                case NOTE_FETCH:
+                    contentSenders.execute(() -> handleNoteFetch(message, connection));
+                    break;
+                case NOTE_CHUNK:
+                    handleNoteChunk(message, connection);
+                    break;
+                case CHUNK_RESUME:
+                    handleChunkResume(message, connection);
+                    break;
+                case RECONCILE_REQUEST:
+                    handleReconcileRequest(message, connection);
+                    break;
                 case HEARTBEAT:
                     handleHeartbeat(message, connection);
                     break;
+                case SUBSCRIBE:
+                    handleSubscribe(message, connection);
+                    break;
+                case UNSUBSCRIBE:
+                    handleUnsubscribe(message, connection);
+                    break;
                 default:
                     logger.warning("Unknown message type: " + message.getType());
             }
@@ -175,7 +260,15 @@ public class NoteSyncServer {
     
     private void handleUDPMessage(Message message, java.net.InetAddress sender, int senderPort) {
         try {
-            logger.info("Handling UDP message: " + message.getType() + " from " + sender + ":" + senderPort);
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("Handling UDP message: " + message.getType() + " from " + sender + ":" + senderPort);
+            }
+            
+            // Over-limit UDP requests are dropped silently, the client simply retries later.
+            // The sender id in a datagram is not authenticated, so the bucket belongs to the endpoint
+            if (!rateLimiter.tryAcquire("udp:" + sender.getHostAddress() + ":" + senderPort, message.getType())) {
+                return;
+            }
             
             switch (message.getType()) {
                 case HEARTBEAT:
@@ -195,19 +288,32 @@ public class NoteSyncServer {
     private void handleClientConnect(Message message, TCPConnection connection) {
         ClientInfo clientInfo = message.getPayload(ClientInfo.class);
         if (clientInfo != null) {
+            // Register first: every change committed from here on is broadcast to the client
             clientManager.addClient(clientInfo, connection);
+            String clientId = clientInfo.getClientId();
             
-            // Send connection acknowledgment
-            Message ackMessage = new Message(MessageType.CONNECT_ACK, "SERVER", "Connected successfully");
-            connection.sendMessage(ackMessage);
+            // A reconnect with a token from this server gets the missed events straight from the ring
+            ResumeToken token = clientInfo.getResumeToken();
+            boolean resumable = token != null && serverEpoch.equals(token.getServerEpoch()) && clientId.equals(token.getClientId());
+            long committed = noteManager.getCurrentVersion();
+            SyncResponse resumed = resumable
+                    ? resumeRing.resume(clientId, token.getSequence(), committed, clientInfo.isMetadataOnly())
+                    : null;
             
-            // Send current notes to client
-            List<Note> allNotes = noteManager.getAllNotes();
-            SyncResponse syncResponse = new SyncResponse(clientInfo.getClientId(), allNotes, noteManager.getCurrentVersion());
-            Message syncMessage = new Message(MessageType.SYNC_RESPONSE, "SERVER", syncResponse);
-            connection.sendMessage(syncMessage);
+            // Send connection acknowledgment with the token for the next reconnect
+            ResumeToken newToken = new ResumeToken(serverEpoch, clientId, resumed != null ? resumed.getSyncVersion() : committed);
+            newToken.setHeartbeatKey(clientManager.getHeartbeatKey(clientId));
+            connection.sendMessage(new Message(MessageType.CONNECT_ACK, "SERVER", newToken));
             
-            logger.info("Client connected: " + clientInfo);
+            if (resumed != null) {
+                connection.sendMessage(new Message(MessageType.SYNC_RESPONSE, "SERVER", resumed));
+            } else {
+                // Outside the ring window: a delta when the client has a replica, otherwise everything
+                long since = resumable ? Math.max(token.getSequence(), clientInfo.getLastSyncVersion()) : clientInfo.getLastSyncVersion();
+                sendSync(connection, clientId, since, clientInfo.isMetadataOnly());
+            }
+            
+            logger.info("Client connected: " + clientInfo + (resumable ? " (resume from " + token.getSequence() + ")" : ""));
         }
     }
     
@@ -216,55 +322,286 @@ public class NoteSyncServer {
         connection.close();
     }
     
-    private void handleNoteCreate(Message message) {
+    private void handleNoteCreate(Message message, TCPConnection connection) {
         Note note = message.getPayload(Note.class);
         if (note != null) {
-            noteManager.addNote(note);
-            
-            // Broadcast to all clients
-            broadcastNoteChange(MessageType.NOTE_CREATED, note, message.getSenderId());
-            logger.info("Note created: " + note.getId());
+            applyOnce(message, connection, new NoteOperation(NoteOperation.Type.CREATE, note)).thenAccept(result -> acknowledge(message, connection, result));
         }
     }
     
-    private void handleNoteUpdate(Message message) {
+    private void handleNoteUpdate(Message message, TCPConnection connection) {
         Note note = message.getPayload(Note.class);
         if (note != null) {
-            noteManager.updateNote(note);
-            
-            // Broadcast to all clients
-            broadcastNoteChange(MessageType.NOTE_UPDATED, note, message.getSenderId());
-            logger.info("Note updated: " + note.getId());
+            applyOnce(message, connection, new NoteOperation(NoteOperation.Type.UPDATE, note)).thenAccept(result -> acknowledge(message, connection, result));
         }
     }
     
-    private void handleNoteDelete(Message message) {
+    private void handleNoteDelete(Message message, TCPConnection connection) {
         String noteId = (String) message.getPayload();
         if (noteId != null) {
-            noteManager.deleteNote(noteId);
-            
-            // Broadcast to all clients
-            broadcastNoteChange(MessageType.NOTE_DELETED, noteId, message.getSenderId());
-            logger.info("Note deleted: " + noteId);
+            applyOnce(message, connection, new NoteOperation(noteId)).thenAccept(result -> acknowledge(message, connection, result));
         }
     }
     
+    /**
+     * Áp dụng mutation đơn một lần cho mỗi (session, messageId); retry nhận lại kết quả đã lưu,
+     * hoặc kết quả của lần đầu khi lần đó còn đang chạy trên kết nối khác
+     */
+    private CompletableFuture<BatchResult.OperationResult> applyOnce(Message message, TCPConnection connection, NoteOperation operation) {
+        String sessionId = getSessionId(connection);
+        CompletableFuture<BatchResult.OperationResult> previous = dedupCache.begin(sessionId, message.getMessageId());
+        if (previous != null) {
+            logger.fine("Duplicate " + message.getType() + " " + message.getMessageId() + " answered from cache");
+            return previous;
+        }
+        operation.setOperationId(message.getMessageId());
+        BatchResult.OperationResult result;
+        try {
+            result = noteManager.applyOperation(operation, message.getSenderId());
+            logger.info(message.getType() + " " + operation.getNoteId() + ": " + result.getStatus());
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, message.getType() + " failed for " + operation.getNoteId(), e);
+            result = new BatchResult.OperationResult(message.getMessageId(), operation.getNoteId(), BatchResult.Status.FAILED, e.getMessage());
+        }
+        dedupCache.complete(sessionId, message.getMessageId(), result);
+        return CompletableFuture.completedFuture(result);
+    }
+    
+    /**
+     * Gửi MUTATION_ACK mang kết quả (và change sequence) của mutation, correlationId là messageId của request
+     */
+    private void acknowledge(Message request, TCPConnection connection, BatchResult.OperationResult result) {
+        Message ack = new Message(MessageType.MUTATION_ACK, "SERVER", result);
+        ack.setCorrelationId(request.getMessageId());
+        connection.sendMessage(ack);
+    }
+    
+    private void handleNoteBatch(Message message, TCPConnection connection) {
+        NoteBatch batch = message.getPayload(NoteBatch.class);
+        if (batch == null) return;
+        
+        // A replay after a lost NOTE_BATCH_RESULT repeats operation ids: only the unseen ones are applied,
+        // the others are answered with the earlier outcome (waiting for it if still running elsewhere)
+        String sessionId = getSessionId(connection);
+        List<NoteOperation> operations = batch.getOperations() != null ? batch.getOperations() : new ArrayList<>();
+        Map<String, CompletableFuture<BatchResult.OperationResult>> known = new HashMap<>();
+        List<NoteOperation> fresh = new ArrayList<>();
+        for (NoteOperation operation : operations) {
+            if (known.containsKey(operation.getOperationId())) continue;
+            CompletableFuture<BatchResult.OperationResult> previous = dedupCache.begin(sessionId, operation.getOperationId());
+            if (previous != null) {
+                known.put(operation.getOperationId(), previous);
+            } else {
+                fresh.add(operation);
+            }
+        }
+        
+        NoteBatch pending = new NoteBatch(fresh);
+        pending.setBatchId(batch.getBatchId());
+        List<BatchResult.OperationResult> applied;
+        try {
+            applied = noteManager.applyBatch(pending, message.getSenderId()).getResults();
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Batch " + batch.getBatchId() + " failed", e);
+            applied = new ArrayList<>();
+            for (NoteOperation operation : fresh) {
+                applied.add(new BatchResult.OperationResult(operation.getOperationId(), operation.getNoteId(), BatchResult.Status.FAILED, e.getMessage()));
+            }
+        }
+        for (BatchResult.OperationResult result : applied) {
+            dedupCache.complete(sessionId, result.getOperationId(), result);
+            known.put(result.getOperationId(), CompletableFuture.completedFuture(result));
+        }
+        
+        List<CompletableFuture<BatchResult.OperationResult>> results = new ArrayList<>();
+        for (NoteOperation operation : operations) {
+            results.add(known.get(operation.getOperationId()));
+        }
+        CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).thenRun(() -> {
+            BatchResult result = new BatchResult(batch.getBatchId());
+            for (CompletableFuture<BatchResult.OperationResult> operationResult : results) {
+                result.getResults().add(operationResult.join());
+            }
+            connection.sendMessage(new Message(MessageType.NOTE_BATCH_RESULT, "SERVER", result));
+        });
+    }
+    
     private void handleSyncRequest(Message message, TCPConnection connection) {
         SyncRequest syncRequest = message.getPayload(SyncRequest.class);
         if (syncRequest != null) {
-            List<Note> notes;
-            
-            if (syncRequest.isFullSync()) {
-                notes = noteManager.getAllNotes();
-            } else {
-                notes = noteManager.getNotesAfterVersion(syncRequest.getLastSyncVersion());
+            if (syncRequest.getRequestedNoteIds() != null && !syncRequest.getRequestedNoteIds().isEmpty()) {
+                // Targeted resync: stream one response per chunk instead of building the whole answer
+                noteManager.getNotesByIds(syncRequest.getClientId(), syncRequest.getRequestedNoteIds(), syncRequest.isMetadataOnly(),
+                        chunk -> connection.sendMessage(new Message(MessageType.SYNC_RESPONSE, "SERVER", chunk)));
+                logger.info("Targeted sync handled for client: " + syncRequest.getClientId() + " ("
+                        + syncRequest.getRequestedNoteIds().size() + " ids)");
+                return;
             }
             
-            SyncResponse syncResponse = new SyncResponse(syncRequest.getClientId(), notes, noteManager.getCurrentVersion());
-            Message responseMessage = new Message(MessageType.SYNC_RESPONSE, "SERVER", syncResponse);
-            connection.sendMessage(responseMessage);
+            long since = syncRequest.isFullSync() ? 0 : syncRequest.getLastSyncVersion();
+            sendSync(connection, syncRequest.getClientId(), since, syncRequest.isMetadataOnly());
             
-            logger.info("Sync request handled for client: " + syncRequest.getClientId());
+            logger.info("Sync request handled for client: " + syncRequest);
+        }
+    }
+    
+    /**
+     * Gửi delta từ since; nếu cần full sync thì gửi snapshot dùng chung, kèm delta khi snapshot cũ hơn version hiện tại
+     */
+    private void sendSync(TCPConnection connection, String clientId, long since, boolean metadataOnly) {
+        if (!noteManager.needsFullSync(since)) {
+            connection.sendMessage(new Message(MessageType.SYNC_RESPONSE, "SERVER",
+                    noteManager.getChangesSince(clientId, since, metadataOnly)));
+            return;
+        }
+        
+        SyncSnapshotCache.Snapshot snapshot = snapshotCache.get(metadataOnly);
+        if (snapshot == null) {
+            connection.sendMessage(new Message(MessageType.SYNC_RESPONSE, "SERVER", noteManager.getFullSync(clientId, metadataOnly)));
+            return;
+        }
+        if (snapshot.getFile() != null) {
+            // The client downloads the file from the snapshot port, then asks for the delta from the ticket's sequence
+            SnapshotTicket ticket = issueSnapshotTicket(snapshot);
+            connection.sendMessage(new Message(MessageType.SYNC_RESPONSE, "SERVER",
+                    ticket != null ? ticket : noteManager.getFullSync(clientId, metadataOnly)));
+            return;
+        }
+        connection.sendMessage(new Message(MessageType.SYNC_RESPONSE, "SERVER", snapshot.getPayload()));
+        if (snapshot.getSequence() < noteManager.getCurrentVersion()) {
+            connection.sendMessage(new Message(MessageType.SYNC_RESPONSE, "SERVER",
+                    noteManager.getChangesSince(clientId, snapshot.getSequence(), metadataOnly)));
+        }
+    }
+    
+    private SnapshotTicket issueSnapshotTicket(SyncSnapshotCache.Snapshot snapshot) {
+        try {
+            return snapshotTransfer.issue(snapshot);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to open snapshot file " + snapshot.getFile(), e);
+            return null;
+        }
+    }
+    
+    private void handleNoteFetch(Message message, TCPConnection connection) {
+        String noteId = message.getPayload(String.class);
+        if (noteId == null) return;
+        
+        boolean found;
+        try {
+            found = noteManager.readNoteContent(noteId, (note, length, content) -> {
+                if (length > chunkThreshold) {
+                    sendContentChunks(connection, note, length, content);
+                } else {
+                    connection.sendMessage(new Message(MessageType.NOTE_SYNC, "SERVER", note.copyWithContent(readAll(content, (int) length))));
+                }
+            });
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to send content of " + noteId, e);
+            sendFetchFailed(message, connection, noteId);
+            return;
+        }
+        // A note that is gone by now is reported as deleted so the client drops its summary
+        if (!found) {
+            connection.sendMessage(new Message(MessageType.NOTE_DELETED, "SERVER", noteId));
+        }
+    }
+    
+    /**
+     * Báo client bỏ NOTE_FETCH đang chờ của noteId, correlationId là messageId của request
+     */
+    private void sendFetchFailed(Message request, TCPConnection connection, String noteId) {
+        Message reply = new Message(MessageType.NOTE_FETCH_FAILED, "SERVER", noteId);
+        reply.setCorrelationId(request.getMessageId());
+        connection.sendMessage(reply);
+    }
+    
+    /**
+     * Gửi content lớn thành từng NOTE_CHUNK đọc trực tiếp từ DB; chỉ xếp thêm chunk khi hàng đợi gửi của kết nối
+     * còn dưới chunk.send.window message, nên cả note không bị dồn vào bộ nhớ
+     */
+    private void sendContentChunks(TCPConnection connection, Note note, long length, Reader content) throws IOException {
+        String transferId = Utils.generateId();
+        char[] buffer = new char[chunkSize];
+        long offset = 0;
+        while (offset < length) {
+            int read = fill(content, buffer);
+            if (read <= 0) throw new IOException("Content of " + note.getId() + " ended at " + offset + " of " + length);
+            NoteChunk chunk = new NoteChunk(transferId, note.getId(), offset, length, new String(buffer, 0, read));
+            if (offset == 0) chunk.setNote(note);
+            boolean queued;
+            try {
+                queued = connection.sendMessage(new Message(MessageType.NOTE_CHUNK, "SERVER", chunk), chunkSendWindow, chunkSendTimeoutMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while sending " + note.getId());
+            }
+            if (!queued) throw new IOException("Client stopped reading chunks of " + note.getId() + " at " + offset + " of " + length);
+            offset += read;
+        }
+    }
+    
+    private static int fill(Reader reader, char[] buffer) throws IOException {
+        int total = 0;
+        while (total < buffer.length) {
+            int read = reader.read(buffer, total, buffer.length - total);
+            if (read < 0) break;
+            total += read;
+        }
+        return total;
+    }
+    
+    private static String readAll(Reader reader, int length) throws IOException {
+        if (reader == null) return null;
+        StringBuilder sb = new StringBuilder(length);
+        char[] buffer = new char[8192];
+        int read;
+        while ((read = reader.read(buffer)) >= 0) {
+            sb.append(buffer, 0, read);
+        }
+        return sb.toString();
+    }
+    
+    private void handleNoteChunk(Message message, TCPConnection connection) {
+        NoteChunk chunk = message.getPayload(NoteChunk.class);
+        if (chunk != null && chunk.getTransferId() != null && chunk.getData() != null) {
+            chunkAssembler.accept(getSessionId(connection), chunk).thenAccept(ack -> {
+                connection.sendMessage(new Message(MessageType.CHUNK_ACK, "SERVER", ack));
+                if (ack.isComplete()) {
+                    logger.info("Chunked upload of " + chunk.getNoteId() + " finished: " + ack.getStatus());
+                }
+            });
+        }
+    }
+    
+    private void handleChunkResume(Message message, TCPConnection connection) {
+        ChunkAck request = message.getPayload(ChunkAck.class);
+        if (request != null && request.getTransferId() != null) {
+            chunkAssembler.resume(getSessionId(connection), request)
+                    .thenAccept(ack -> connection.sendMessage(new Message(MessageType.CHUNK_ACK, "SERVER", ack)));
+        }
+    }
+    
+    private void handleReconcileRequest(Message message, TCPConnection connection) {
+        ReconcileRequest request = message.getPayload(ReconcileRequest.class);
+        if (request != null) {
+            ReconcileResponse response = reconcileIndex.reconcile(request);
+            connection.sendMessage(new Message(MessageType.RECONCILE_RESPONSE, "SERVER", response));
+            logger.info("Reconcile handled for client: " + request.getClientId() + " -> " + response);
+        }
+    }
+    
+    private void handleSubscribe(Message message, TCPConnection connection) {
+        ClientInfo client = clientManager.getClientByConnection(connection);
+        if (client != null) {
+            clientManager.subscribe(client.getClientId(), message.getPayload(Subscription.class));
+        }
+    }
+    
+    private void handleUnsubscribe(Message message, TCPConnection connection) {
+        ClientInfo client = clientManager.getClientByConnection(connection);
+        if (client != null) {
+            clientManager.unsubscribe(client.getClientId(), message.getPayload(Subscription.class));
         }
     }
     
@@ -273,8 +610,9 @@ public class NoteSyncServer {
         if (client != null) {
             client.updateLastSeen();
             
-            // Send heartbeat acknowledgment
+            // Send heartbeat acknowledgment; every broadcast up to this sequence is already queued ahead of it
             Message ackMessage = new Message(MessageType.HEARTBEAT_ACK, "SERVER", "OK");
+            ackMessage.setSequence(changeBroadcaster.getLastSequence());
             connection.sendMessage(ackMessage);
         }
     }
@@ -294,11 +632,41 @@ public class NoteSyncServer {
         }
     }
     
+    /**
+     * Heartbeat UDP nhị phân: cập nhật lastSeen và trả ACK cùng kích thước, kèm cờ BEHIND
+     * khi client chưa có thay đổi mới nhất
+     */
+    private void handleHeartbeatDatagram(ByteBuffer data, java.net.InetAddress sender, int senderPort) {
+        HeartbeatDatagram ping = HeartbeatDatagram.decode(data);
+        if (ping == null || ping.getKind() != HeartbeatDatagram.Kind.PING) return;
+        
+        ClientInfo client = clientManager.getClientByHeartbeatKey(ping.getHeartbeatKey());
+        long current = noteManager.getCurrentVersion();
+        int flags;
+        if (client == null) {
+            flags = HeartbeatDatagram.FLAG_UNKNOWN_SESSION;
+        } else {
+            if (!rateLimiter.tryAcquire(client.getClientId(), MessageType.HEARTBEAT)) return;
+            client.updateLastSeen();
+            flags = ping.getChangeSequence() < current ? HeartbeatDatagram.FLAG_BEHIND : 0;
+        }
+        binaryHeartbeats.incrementAndGet();
+        try {
+            udpConnection.sendDatagram(new HeartbeatDatagram(HeartbeatDatagram.Kind.ACK, flags, ping.getHeartbeatKey(),
+                    ping.getSequence(), current).encode(), sender, senderPort);
+        } catch (IOException e) {
+            logger.fine("Error sending heartbeat ack to " + sender + ":" + senderPort + ": " + e.getMessage());
+        }
+    }
+    
     private void handleUDPSyncRequest(Message message, java.net.InetAddress sender, int senderPort) {
-        // Handle UDP sync request (simpler than TCP)
+        // Light poll: one page of changes after the client's version, the client asks again while moreAvailable
         try {
-            List<Note> recentNotes = noteManager.getRecentNotes(10);
-            SyncResponse syncResponse = new SyncResponse(message.getSenderId(), recentNotes, noteManager.getCurrentVersion());
+            SyncRequest request = message.getPayload(SyncRequest.class);
+            long since = request != null ? request.getLastSyncVersion() : 0;
+            boolean metadataOnly = request != null && request.isMetadataOnly();
+            SyncResponse syncResponse = noteManager.getChangesPage(message.getSenderId(), since, metadataOnly,
+                    udpSyncMaxChanges, udpSyncMaxBytes);
             Message responseMessage = new Message(MessageType.SYNC_RESPONSE, "SERVER", syncResponse);
             udpConnection.sendMessage(responseMessage, sender, senderPort);
         } catch (IOException e) {
@@ -306,9 +674,84 @@ public class NoteSyncServer {
         }
     }
     
-    private void broadcastNoteChange(MessageType messageType, Object payload, String excludeClientId) {
-        Message broadcastMessage = new Message(messageType, "SERVER", payload);
-        clientManager.broadcastMessage(broadcastMessage, excludeClientId);
+    /**
+     * Session key dùng cho rate limiting: clientId nếu đã đăng ký, ngược lại là địa chỉ remote
+     */
+    private String getSessionId(TCPConnection connection) {
+        ClientInfo client = clientManager.getClientByConnection(connection);
+        return client != null ? client.getClientId() : connection.getRemoteAddress();
+    }
+    
+    /**
+     * Bucket rate limit của request: CLIENT_CONNECT và request trước khi đăng ký tính theo IP (không theo port),
+     * để mở kết nối mới không lấy được quota mới
+     */
+    private String getRateLimitKey(Message message, TCPConnection connection) {
+        ClientInfo client = message.getType() != MessageType.CLIENT_CONNECT ? clientManager.getClientByConnection(connection) : null;
+        if (client != null) return client.getClientId();
+        java.net.InetAddress remote = connection.getRemoteInetAddress();
+        return "ip:" + (remote != null ? remote.getHostAddress() : connection.getRemoteAddress());
+    }
+    
+    /**
+     * Số token của request: NOTE_BATCH tính theo số operation
+     */
+    private static int permits(Message message) {
+        if (message.getType() != MessageType.NOTE_BATCH) return 1;
+        NoteBatch batch = message.getPayload(NoteBatch.class);
+        return batch != null && batch.getOperations() != null ? batch.getOperations().size() : 1;
+    }
+    
+    /**
+     * Trả lời request bị throttle sao cho request đang chờ phía client kết thúc (FAILED được client xếp lại hàng đợi)
+     */
+    private void rejectThrottled(Message message, TCPConnection connection) {
+        String error = "Rate limit exceeded for " + message.getType();
+        switch (message.getType()) {
+            case NOTE_CREATE:
+            case NOTE_UPDATE:
+            case NOTE_DELETE:
+                acknowledge(message, connection, new BatchResult.OperationResult(message.getMessageId(), null,
+                        BatchResult.Status.FAILED, error));
+                break;
+            case NOTE_BATCH:
+                NoteBatch batch = message.getPayload(NoteBatch.class);
+                if (batch == null) break;
+                BatchResult result = new BatchResult(batch.getBatchId());
+                for (NoteOperation operation : batch.getOperations() != null ? batch.getOperations() : new ArrayList<NoteOperation>()) {
+                    result.getResults().add(new BatchResult.OperationResult(operation.getOperationId(), operation.getNoteId(),
+                            BatchResult.Status.FAILED, error));
+                }
+                connection.sendMessage(new Message(MessageType.NOTE_BATCH_RESULT, "SERVER", result));
+                break;
+            case NOTE_CHUNK:
+                NoteChunk chunk = message.getPayload(NoteChunk.class);
+                if (chunk != null && chunk.getTransferId() != null) {
+                    connection.sendMessage(new Message(MessageType.CHUNK_ACK, "SERVER",
+                            chunkAssembler.reject(getSessionId(connection), chunk.getTransferId(), chunk.getNoteId())));
+                }
+                break;
+            case CHUNK_RESUME:
+                ChunkAck request = message.getPayload(ChunkAck.class);
+                if (request != null && request.getTransferId() != null) {
+                    connection.sendMessage(new Message(MessageType.CHUNK_ACK, "SERVER",
+                            chunkAssembler.reject(getSessionId(connection), request.getTransferId(), request.getNoteId())));
+                }
+                break;
+            case SYNC_REQUEST:
+            case NOTE_FETCH:
+            case RECONCILE_REQUEST:
+                // Echo the request with the refill time so the client can send it again instead of staying stale
+                long retryAfterMs = rateLimiter.getRetryAfterMs(getRateLimitKey(message, connection), message.getType(), permits(message));
+                Message notice = new Message(MessageType.THROTTLED, "SERVER", new RateLimitNotice(message.getType(), message.getPayload(), retryAfterMs));
+                notice.setCorrelationId(message.getMessageId());
+                connection.sendMessage(notice);
+                break;
+            case HEARTBEAT:
+                break;
+            default:
+                sendErrorMessage(connection, error);
+        }
     }
     
     private void sendErrorMessage(TCPConnection connection, String errorMessage) {
@@ -321,6 +764,12 @@ public class NoteSyncServer {
             while (isRunning) {
                 try {
                     clientManager.checkClientHeartbeats();
+                    rateLimiter.evictIdleSessions();
+                    chunkAssembler.expireSpools();
+                    dedupCache.expire();
+                    if (snapshotTransfer != null) {
+                        snapshotTransfer.expireTickets();
+                    }
                     Thread.sleep(config.getHeartbeatInterval());
                 } catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
@@ -330,6 +779,27 @@ public class NoteSyncServer {
         });
     }
     
+    /**
+     * Backup incremental định kỳ mỗi backup.interval.ms (0 = tắt), chạy song song với các thao tác ghi
+     */
+    private void startBackupScheduler() {
+        long interval = config.getLongProperty("backup.interval.ms", 0);
+        if (interval <= 0) return;
+        threadPool.submit(() -> {
+            while (isRunning) {
+                try {
+                    Thread.sleep(interval);
+                    noteManager.backup(false);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (IOException | SQLException | RuntimeException e) {
+                    logger.log(Level.SEVERE, "Scheduled backup failed", e);
+                }
+            }
+        });
+    }
+    
     public void stop() {
         if (!isRunning) return;
         logger.info("Stopping Note Sync Server...");
@@ -349,17 +819,26 @@ public class NoteSyncServer {
             udpConnection.stop();
         }
         
+        if (snapshotTransfer != null) {
+            snapshotTransfer.stop();
+        }
+        
         // Disconnect all clients
         clientManager.disconnectAllClients();
         
-        // Shutdown thread pool
+        // Shutdown thread pools
         threadPool.shutdown();
+        contentSenders.shutdown();
         try {
             if (!threadPool.awaitTermination(5, TimeUnit.SECONDS)) {
                 threadPool.shutdownNow();
             }
+            if (!contentSenders.awaitTermination(5, TimeUnit.SECONDS)) {
+                contentSenders.shutdownNow();
+            }
         } catch (InterruptedException e) {
             threadPool.shutdownNow();
+            contentSenders.shutdownNow();
         }
         
         if (noteManager != null) {
@@ -373,6 +852,135 @@ public class NoteSyncServer {
         return isRunning;
     }
     
+    /**
+     * Lấy thống kê tổng hợp của server
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("clients", clientManager.getStatistics());
+        stats.put("notes", noteManager.getStatistics());
+        stats.put("rateLimit", rateLimiter.getStatistics());
+        stats.put("resume", resumeRing.getStatistics());
+        stats.put("recoveredChangeEvents", changeBroadcaster.getRecoveredChanges());
+        stats.put("snapshot", snapshotCache.getStatistics());
+        stats.put("hints", invalidationNotifier.getStatistics());
+        stats.put("chunks", chunkAssembler.getStatistics());
+        stats.put("dedup", dedupCache.getStatistics());
+        stats.put("backup", noteManager.getBackupStatistics());
+        if (udpConnection != null) {
+            Map<String, Object> udp = udpConnection.getStatistics();
+            udp.put("binaryHeartbeats", binaryHeartbeats.get());
+            stats.put("udp", udp);
+        }
+        if (snapshotTransfer != null) {
+            stats.put("snapshotTransfer", snapshotTransfer.getStatistics());
+        }
+        return stats;
+    }
+    
+    /**
+     * Ghi toàn bộ notes ra file NDJSON
+     */
+    public BulkTransfer.Report exportNotes(Path file) throws IOException, SQLException {
+        return noteManager.exportNotes(file);
+    }
+    
+    /**
+     * Nạp notes từ file NDJSON rồi dựng lại reconcile index (import không phát change event)
+     */
+    public BulkTransfer.Report importNotes(Path file) throws IOException, SQLException {
+        try {
+            return noteManager.importNotes(file);
+        } finally {
+            reconcileIndex.rebuild();
+        }
+    }
+    
+    /**
+     * Xóa toàn bộ notes (TRUNCATE); mọi client phải full sync lại
+     */
+    public void clearNotes() {
+        noteManager.clearAllNotes();
+        reconcileIndex.rebuild();
+    }
+    
+    /**
+     * Ghi backup online (incremental nếu được, full thì luôn tạo base mới); null nếu không có thay đổi
+     */
+    public BackupManager.Entry backup(boolean full) throws IOException, SQLException {
+        return noteManager.backup(full);
+    }
+    
+    /**
+     * Kiểm tra chain backup tới sequence upTo
+     */
+    public String verifyBackup(long upTo) throws IOException {
+        return noteManager.verifyBackup(upTo);
+    }
+    
+    /**
+     * Khôi phục store từ backup tới sequence upTo rồi dựng lại reconcile index; mọi client phải full sync lại
+     */
+    public String restoreBackup(long upTo) throws IOException, SQLException {
+        try {
+            return noteManager.restoreBackup(upTo);
+        } finally {
+            reconcileIndex.rebuild();
+        }
+    }
+    
+    /**
+     * Lệnh console: stats, export <file>, import <file>, clear, backup [full|verify [seq]], restore [seq]
+     */
+    private void runCommand(String input) {
+        String[] parts = input.split("\\s+", 2);
+        String command = parts[0].toLowerCase();
+        String argument = parts.length > 1 ? parts[1].trim() : "";
+        try {
+            switch (command) {
+                case "stats":
+                    getStatistics().forEach((key, value) -> System.out.println(key + ": " + value));
+                    break;
+                case "export":
+                case "import":
+                    if (argument.isEmpty()) {
+                        System.out.println("Usage: " + command + " <file.ndjson[.gz]>");
+                    } else {
+                        System.out.println("export".equals(command) ? exportNotes(Paths.get(argument)) : importNotes(Paths.get(argument)));
+                    }
+                    break;
+                case "clear":
+                    clearNotes();
+                    System.out.println("All notes cleared");
+                    break;
+                case "backup":
+                    if (argument.startsWith("verify")) {
+                        System.out.println(verifyBackup(parseSequence(argument.substring("verify".length()).trim())));
+                    } else if (argument.isEmpty() || "full".equalsIgnoreCase(argument)) {
+                        BackupManager.Entry entry = backup(!argument.isEmpty());
+                        System.out.println(entry != null ? entry : "No changes since the last backup");
+                    } else {
+                        System.out.println("Usage: backup [full | verify [sequence]]");
+                    }
+                    break;
+                case "restore":
+                    System.out.println(restoreBackup(parseSequence(argument)));
+                    break;
+                default:
+                    if (!command.isEmpty()) System.out.println("Unknown command: " + command);
+            }
+        } catch (IOException | SQLException | IllegalStateException e) {
+            logger.log(Level.WARNING, "Command failed: " + input, e);
+            System.out.println(command + " failed: " + e.getMessage());
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid sequence: " + e.getMessage());
+        }
+    }
+    
+    private static long parseSequence(String argument) {
+        return argument.isEmpty() ? Long.MAX_VALUE : Long.parseLong(argument);
+    }
+    
     public static void main(String[] args) {
         LoggerUtil.initializeLogging();
         
@@ -383,13 +991,14 @@ public class NoteSyncServer {
             
             // Keep server running
             Scanner scanner = new Scanner(System.in);
-            System.out.println("Server is running. Type 'quit' to stop:");
+            System.out.println("Server is running. Commands: stats, export <file>, import <file>, clear, backup [full|verify [seq]], restore [seq], quit");
             
             while (server.isRunning()) {
-                String input = scanner.nextLine();
-                if ("quit".equalsIgnoreCase(input.trim())) {
+                String input = scanner.nextLine().trim();
+                if ("quit".equalsIgnoreCase(input)) {
                     break;
                 }
+                server.runCommand(input);
             }
             
             scanner.close();
@@ -0,0 +1,192 @@
+package server;
+
+import common.models.MessageType;
+import common.utils.ConfigManager;
+import common.utils.LoggerUtil;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Giới hạn tần suất request của từng client bằng token bucket theo MessageType.
+ * Bucket được giữ sau khi client ngắt kết nối, nên kết nối lại không làm đầy lại quota.
+ */
+public class RateLimiter {
+    private static final Logger logger = LoggerUtil.getLogger(RateLimiter.class);
+    private final boolean enabled;
+    private final long idleEvictNanos;
+    private final Map<MessageType, Limit> limits;
+    private final Map<String, SessionBuckets> sessions;
+    private final Map<MessageType, AtomicLong> allowedCounts;
+    private final Map<MessageType, AtomicLong> throttledCounts;
+
+    public RateLimiter() {
+        this(ConfigManager.getInstance());
+    }
+
+    public RateLimiter(ConfigManager config) {
+        this.enabled = config.isRateLimitEnabled();
+        this.limits = new EnumMap<>(MessageType.class);
+        this.sessions = new ConcurrentHashMap<>();
+        this.allowedCounts = new EnumMap<>(MessageType.class);
+        this.throttledCounts = new EnumMap<>(MessageType.class);
+
+        for (MessageType type : MessageType.values()) {
+            String prefix = "ratelimit." + type.name().toLowerCase() + ".";
+            double rate = config.getDoubleProperty(prefix + "rate", 0);
+            if (rate > 0) {
+                double burst = Math.max(1, config.getDoubleProperty(prefix + "burst", rate));
+                limits.put(type, new Limit(rate, burst));
+                allowedCounts.put(type, new AtomicLong());
+                throttledCounts.put(type, new AtomicLong());
+            }
+        }
+
+        // A bucket is only dropped once it would have refilled anyway, so eviction never hands out extra tokens
+        long evict = TimeUnit.MILLISECONDS.toNanos(config.getLongProperty("ratelimit.session.ttl.ms", 600000));
+        for (Limit limit : limits.values()) {
+            evict = Math.max(evict, (long) Math.ceil(limit.burst / limit.tokensPerNano));
+        }
+        this.idleEvictNanos = evict;
+
+        if (enabled) {
+            logger.info("Rate limiting enabled for " + limits.keySet());
+        }
+    }
+
+    /**
+     * Lấy một token cho request của session, trả về false nếu vượt giới hạn
+     */
+    public boolean tryAcquire(String sessionId, MessageType type) {
+        return tryAcquire(sessionId, type, 1);
+    }
+
+    /**
+     * Lấy nhiều token cùng lúc (ví dụ NOTE_BATCH tính theo số operation)
+     */
+    public boolean tryAcquire(String sessionId, MessageType type, int permits) {
+        if (!enabled || sessionId == null || type == null) return true;
+
+        Limit limit = limits.get(type);
+        if (limit == null) return true;
+
+        SessionBuckets session = sessions.computeIfAbsent(sessionId, id -> new SessionBuckets());
+        boolean allowed = session.bucket(type, limit).tryConsume(System.nanoTime(), Math.max(1, permits));
+
+        if (allowed) {
+            allowedCounts.get(type).incrementAndGet();
+        } else {
+            throttledCounts.get(type).incrementAndGet();
+            logger.fine("Throttled " + type + " from " + sessionId);
+        }
+        return allowed;
+    }
+
+    /**
+     * Thời gian (ms) tới khi session có lại đủ token cho permits request loại type, 0 nếu không bị giới hạn
+     */
+    public long getRetryAfterMs(String sessionId, MessageType type, int permits) {
+        Limit limit = limits.get(type);
+        if (!enabled || sessionId == null || limit == null) return 0;
+        SessionBuckets session = sessions.get(sessionId);
+        if (session == null) return 0;
+        long nanos = session.bucket(type, limit).nanosUntil(System.nanoTime(), Math.max(1, permits));
+        return TimeUnit.NANOSECONDS.toMillis(nanos + TimeUnit.MILLISECONDS.toNanos(1) - 1);
+    }
+
+    /**
+     * Dọn các session không hoạt động lâu hơn ratelimit.session.ttl.ms (kể cả client đã ngắt kết nối)
+     */
+    public void evictIdleSessions() {
+        long cutoff = System.nanoTime() - idleEvictNanos;
+        sessions.values().removeIf(session -> session.lastAccessNanos < cutoff);
+    }
+
+    public long getThrottledCount(MessageType type) {
+        AtomicLong count = throttledCounts.get(type);
+        return count != null ? count.get() : 0;
+    }
+
+    /**
+     * Lấy thống kê throttling
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("trackedSessions", sessions.size());
+
+        Map<String, Long> allowed = new HashMap<>();
+        Map<String, Long> throttled = new HashMap<>();
+        for (MessageType type : limits.keySet()) {
+            allowed.put(type.name(), allowedCounts.get(type).get());
+            throttled.put(type.name(), throttledCounts.get(type).get());
+        }
+        stats.put("allowed", allowed);
+        stats.put("throttled", throttled);
+        return stats;
+    }
+
+    private static class Limit {
+        final double tokensPerNano;
+        final double burst;
+
+        Limit(double ratePerSecond, double burst) {
+            this.tokensPerNano = ratePerSecond / TimeUnit.SECONDS.toNanos(1);
+            this.burst = burst;
+        }
+    }
+
+    private static class SessionBuckets {
+        private final Map<MessageType, TokenBucket> buckets = new EnumMap<>(MessageType.class);
+        volatile long lastAccessNanos = System.nanoTime();
+
+        synchronized TokenBucket bucket(MessageType type, Limit limit) {
+            lastAccessNanos = System.nanoTime();
+            TokenBucket bucket = buckets.get(type);
+            if (bucket == null) {
+                bucket = new TokenBucket(limit);
+                buckets.put(type, bucket);
+            }
+            return bucket;
+        }
+    }
+
+    private static class TokenBucket {
+        private final Limit limit;
+        private double tokens;
+        private long lastRefillNanos;
+
+        TokenBucket(Limit limit) {
+            this.limit = limit;
+            this.tokens = limit.burst;
+            this.lastRefillNanos = System.nanoTime();
+        }
+
+        synchronized boolean tryConsume(long now, int permits) {
+            refill(now);
+            // A request larger than the burst needs a full bucket and leaves it in debt, repaid at the normal rate
+            if (tokens >= Math.min(permits, limit.burst)) {
+                tokens -= permits;
+                return true;
+            }
+            return false;
+        }
+
+        synchronized long nanosUntil(long now, int permits) {
+            refill(now);
+            double missing = Math.min(permits, limit.burst) - tokens;
+            return missing > 0 ? (long) Math.ceil(missing / limit.tokensPerNano) : 0;
+        }
+
+        private void refill(long now) {
+            long elapsed = now - lastRefillNanos;
+            if (elapsed > 0) {
+                tokens = Math.min(limit.burst, tokens + elapsed * limit.tokensPerNano);
+                lastRefillNanos = now;
+            }
+        }
+    }
+}
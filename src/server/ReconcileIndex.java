@@ -0,0 +1,103 @@
+package server;
+
+import common.models.ReconcileRequest;
+import common.models.ReconcileResponse;
+import common.utils.LoggerUtil;
+import common.utils.MerkleDigest;
+
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * Merkle digest của toàn bộ notes trên server, cập nhật tăng dần từ change stream.
+ * Dùng để client kiểm tra replica bằng vài KB hash thay vì full sync.
+ */
+public class ReconcileIndex extends NoteChangeSubscriber {
+    private static final Logger logger = LoggerUtil.getLogger(ReconcileIndex.class);
+    
+    private final NoteManager noteManager;
+    private final MerkleDigest digest = new MerkleDigest();
+    private final List<Map<String, Long>> versionsByBucket;
+    
+    public ReconcileIndex(NoteManager noteManager) {
+        this.noteManager = noteManager;
+        this.versionsByBucket = new ArrayList<>(MerkleDigest.BUCKETS);
+        for (int i = 0; i < MerkleDigest.BUCKETS; i++) {
+            versionsByBucket.add(new HashMap<>());
+        }
+        rebuild();
+    }
+    
+    /**
+     * Dựng lại digest từ database
+     */
+    public synchronized void rebuild() {
+        digest.clear();
+        for (Map<String, Long> bucket : versionsByBucket) {
+            bucket.clear();
+        }
+        Map<String, Long> versions = noteManager.getNoteVersions();
+        for (Map.Entry<String, Long> entry : versions.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+        logger.info("Reconcile index built: " + versions.size() + " notes");
+    }
+    
+    @Override
+    protected synchronized void onChange(NoteChangeEvent event) {
+        switch (event.getType()) {
+            case CREATED:
+            case UPDATED:
+                put(event.getNoteId(), event.getNote().getVersion());
+                break;
+            case DELETED:
+                remove(event.getNoteId());
+                break;
+            default:
+                break;
+        }
+    }
+    
+    @Override
+    protected void onGap(long lastSequence, long nextSequence) {
+        // Dropped events (or a clear, which publishes none) leave the digest unknown
+        super.onGap(lastSequence, nextSequence);
+        rebuild();
+    }
+    
+    /**
+     * So sánh digest của client với server, trả về entries của các bucket bị lệch
+     */
+    public synchronized ReconcileResponse reconcile(ReconcileRequest request) {
+        long root = digest.getRoot();
+        long[] clientBuckets = request.getBucketHashes();
+        if (request.getRootHash() == root && clientBuckets != null) {
+            return new ReconcileResponse(root, true);
+        }
+        
+        ReconcileResponse response = new ReconcileResponse(root, false);
+        boolean comparable = clientBuckets != null && clientBuckets.length == MerkleDigest.BUCKETS;
+        for (int i = 0; i < MerkleDigest.BUCKETS; i++) {
+            if (!comparable || clientBuckets[i] != digest.getBucket(i)) {
+                response.getBucketEntries().put(i, new HashMap<>(versionsByBucket.get(i)));
+            }
+        }
+        return response;
+    }
+    
+    private void put(String noteId, long version) {
+        Map<String, Long> bucket = versionsByBucket.get(MerkleDigest.bucketOf(noteId));
+        Long previous = bucket.put(noteId, version);
+        if (previous != null) {
+            digest.toggle(noteId, previous);
+        }
+        digest.toggle(noteId, version);
+    }
+    
+    private void remove(String noteId) {
+        Long previous = versionsByBucket.get(MerkleDigest.bucketOf(noteId)).remove(noteId);
+        if (previous != null) {
+            digest.toggle(noteId, previous);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package server;
+
+import common.models.NoteSummary;
+import common.models.SyncResponse;
+import common.utils.LoggerUtil;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Ring buffer các change gần nhất (chỉ id, loại và sequence) để client kết nối lại nhận phần bị lỡ
+ * bằng một lần đọc theo id thay vì delta/full sync quét database. Nội dung note không nằm trong ring.
+ */
+public class ResumeRing extends NoteChangeSubscriber {
+    private static final Logger logger = LoggerUtil.getLogger(ResumeRing.class);
+    
+    private final NoteManager noteManager;
+    // Parallel arrays keep each slot to an id reference and a sequence, never a note body
+    private final String[] noteIds;
+    private final long[] sequences;
+    private final boolean[] deletions;
+    private final long catchUpTimeoutNanos;
+    private int start;
+    private int size;
+    // Every event with sequence > floor and <= head is in the ring
+    private long floor;
+    private long head;
+    private long resumed;
+    private long misses;
+    
+    public ResumeRing(NoteManager noteManager, int capacity, long initialSequence, long catchUpTimeoutMs) {
+        this.noteManager = noteManager;
+        this.noteIds = new String[Math.max(1, capacity)];
+        this.sequences = new long[noteIds.length];
+        this.deletions = new boolean[noteIds.length];
+        this.floor = initialSequence;
+        this.head = initialSequence;
+        this.catchUpTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(catchUpTimeoutMs);
+    }
+    
+    @Override
+    protected synchronized void onChange(NoteChangeEvent event) {
+        if (size == noteIds.length) {
+            floor = sequences[start];
+            noteIds[start] = null;
+            start = (start + 1) % noteIds.length;
+            size--;
+        }
+        int slot = (start + size) % noteIds.length;
+        noteIds[slot] = event.getNoteId();
+        sequences[slot] = event.getSequence();
+        deletions[slot] = event.getType() == NoteChangeEvent.Type.DELETED;
+        size++;
+        head = event.getSequence();
+        notifyAll();
+    }
+    
+    @Override
+    protected synchronized void onGap(long lastSequence, long nextSequence) {
+        super.onGap(lastSequence, nextSequence);
+        // Nothing before the gap can be replayed any more
+        Arrays.fill(noteIds, null);
+        start = 0;
+        size = 0;
+        floor = nextSequence - 1;
+        head = floor;
+    }
+    
+    /**
+     * Tạo delta từ các change sau sequence since, chờ ring bắt kịp committedSequence rồi đọc nội dung
+     * các note đó từ database. Trả về null nếu since nằm ngoài cửa sổ của ring hoặc đọc lỗi.
+     */
+    public SyncResponse resume(String clientId, long since, long committedSequence, boolean metadataOnly) {
+        List<String> changedIds = new ArrayList<>();
+        List<String> deletedIds = new ArrayList<>();
+        long version;
+        synchronized (this) {
+            // The ring is fed asynchronously; events it has not seen yet may already have been broadcast
+            long deadline = System.nanoTime() + catchUpTimeoutNanos;
+            while (head < committedSequence) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) break;
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            if (since < floor || since > head || head < committedSequence) {
+                misses++;
+                return null;
+            }
+            
+            // Only the latest change per note matters to the client
+            Map<String, Boolean> latest = new LinkedHashMap<>();
+            for (int i = 0; i < size; i++) {
+                int slot = (start + i) % noteIds.length;
+                if (sequences[slot] > since) {
+                    latest.remove(noteIds[slot]);
+                    latest.put(noteIds[slot], deletions[slot]);
+                }
+            }
+            for (Map.Entry<String, Boolean> entry : latest.entrySet()) {
+                (entry.getValue() ? deletedIds : changedIds).add(entry.getKey());
+            }
+            version = head;
+        }
+        
+        // Bodies are read outside the lock; a row newer than head is harmless, the client just sees it twice
+        SyncResponse response = new SyncResponse(clientId, new ArrayList<>(), version);
+        List<NoteSummary> summaries = new ArrayList<>();
+        boolean[] failed = new boolean[1];
+        noteManager.getNotesByIds(clientId, changedIds, metadataOnly, chunk -> {
+            if (chunk.getErrorMessage() != null) {
+                failed[0] = true;
+                return;
+            }
+            response.getNotes().addAll(chunk.getNotes());
+            if (chunk.getSummaries() != null) summaries.addAll(chunk.getSummaries());
+            // Rows gone since the ring saw them were deleted later; the delete event follows anyway
+            deletedIds.addAll(chunk.getDeletedNoteIds());
+        });
+        synchronized (this) {
+            if (failed[0]) {
+                misses++;
+                return null;
+            }
+            resumed++;
+        }
+        
+        response.setDeletedNoteIds(deletedIds);
+        if (metadataOnly) response.setSummaries(summaries);
+        logger.fine("Resumed " + clientId + " from " + since + " to " + version + ": "
+                + (changedIds.size() + deletedIds.size()) + " notes");
+        return response;
+    }
+    
+    public synchronized Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("events", size);
+        stats.put("capacity", noteIds.length);
+        stats.put("floor", floor);
+        stats.put("head", head);
+        stats.put("resumed", resumed);
+        stats.put("misses", misses);
+        return stats;
+    }
+}
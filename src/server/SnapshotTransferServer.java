@@ -0,0 +1,179 @@
+package server;
+
+import common.models.SnapshotTicket;
+import common.utils.LoggerUtil;
+import common.utils.Utils;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Cổng phụ phát file snapshot bằng FileChannel.transferTo: kernel copy thẳng từ page cache ra socket,
+ * heap của server không phụ thuộc kích thước snapshot.
+ * Giao thức: client gửi token (writeUTF), server trả 8 byte độ dài (-1 nếu token không hợp lệ) rồi nội dung file.
+ */
+public class SnapshotTransferServer {
+    private static final Logger logger = LoggerUtil.getLogger(SnapshotTransferServer.class);
+
+    private final int port;
+    private final long ticketTtlMs;
+    private final int readTimeoutMs;
+    private final Map<String, PendingTransfer> pending = new ConcurrentHashMap<>();
+    private final AtomicLong transfers = new AtomicLong();
+    private final AtomicLong bytesTransferred = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    private ServerSocketChannel serverChannel;
+    private volatile boolean running;
+
+    public SnapshotTransferServer(int port, long ticketTtlMs, int readTimeoutMs) {
+        this.port = port;
+        this.ticketTtlMs = ticketTtlMs;
+        this.readTimeoutMs = readTimeoutMs;
+    }
+
+    public void start(ExecutorService executor) throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        running = true;
+
+        executor.submit(() -> {
+            while (running && serverChannel.isOpen()) {
+                try {
+                    SocketChannel client = serverChannel.accept();
+                    executor.submit(() -> serve(client));
+                } catch (IOException e) {
+                    if (running) {
+                        logger.log(Level.SEVERE, "Error accepting snapshot connection", e);
+                    }
+                }
+            }
+        });
+        logger.info("Snapshot transfer port: " + port);
+    }
+
+    /**
+     * Cấp vé cho một snapshot file; mở file ngay để snapshot mới thay thế nó cũng không ảnh hưởng.
+     * Trả về null nếu file không còn.
+     */
+    public SnapshotTicket issue(SyncSnapshotCache.Snapshot snapshot) throws IOException {
+        FileChannel file;
+        try {
+            file = FileChannel.open(snapshot.getFile(), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            // Replaced by a newer build between lookup and open
+            return null;
+        }
+        String token = Utils.generateId();
+        pending.put(token, new PendingTransfer(file, snapshot.getSize(), System.currentTimeMillis() + ticketTtlMs));
+        return new SnapshotTicket(token, port, snapshot.getSequence(), snapshot.getSize(), snapshot.isCompressed());
+    }
+
+    private void serve(SocketChannel client) {
+        PendingTransfer transfer = null;
+        try (SocketChannel socket = client) {
+            socket.socket().setSoTimeout(readTimeoutMs);
+            String token = new DataInputStream(socket.socket().getInputStream()).readUTF();
+            transfer = pending.remove(token);
+
+            ByteBuffer header = ByteBuffer.allocate(Long.BYTES);
+            header.putLong(transfer != null ? transfer.length : -1).flip();
+            while (header.hasRemaining()) {
+                socket.write(header);
+            }
+            if (transfer == null) {
+                rejected.incrementAndGet();
+                logger.warning("Unknown or expired snapshot ticket from " + socket.getRemoteAddress());
+                return;
+            }
+
+            long position = 0;
+            while (position < transfer.length) {
+                position += transfer.file.transferTo(position, transfer.length - position, socket);
+            }
+            transfers.incrementAndGet();
+            bytesTransferred.addAndGet(position);
+            logger.fine("Snapshot sent to " + socket.getRemoteAddress() + ": " + position + " bytes");
+        } catch (SocketTimeoutException e) {
+            logger.warning("Snapshot client sent no ticket within " + readTimeoutMs + "ms");
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Snapshot transfer failed", e);
+        } finally {
+            if (transfer != null) {
+                transfer.close();
+            }
+        }
+    }
+
+    /**
+     * Đóng các vé quá hạn chưa được dùng
+     */
+    public void expireTickets() {
+        long now = System.currentTimeMillis();
+        pending.entrySet().removeIf(entry -> {
+            if (entry.getValue().expiresAt > now) return false;
+            entry.getValue().close();
+            expired.incrementAndGet();
+            return true;
+        });
+    }
+
+    public void stop() {
+        running = false;
+        if (serverChannel != null) {
+            try {
+                serverChannel.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Error closing snapshot server channel", e);
+            }
+        }
+        pending.values().forEach(PendingTransfer::close);
+        pending.clear();
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("transfers", transfers.get());
+        stats.put("bytesTransferred", bytesTransferred.get());
+        stats.put("pendingTickets", pending.size());
+        stats.put("expiredTickets", expired.get());
+        stats.put("rejectedTickets", rejected.get());
+        return stats;
+    }
+
+    private static class PendingTransfer {
+        final FileChannel file;
+        final long length;
+        final long expiresAt;
+
+        PendingTransfer(FileChannel file, long length, long expiresAt) {
+            this.file = file;
+            this.length = length;
+            this.expiresAt = expiresAt;
+        }
+
+        void close() {
+            try {
+                file.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+}
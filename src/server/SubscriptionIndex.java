@@ -0,0 +1,136 @@
+package server;
+
+import common.models.Subscription;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index key -> clients để broadcast chỉ tới các client quan tâm.
+ * Client chưa đăng ký key nào sẽ nhận tất cả thay đổi.
+ */
+public class SubscriptionIndex {
+    private static final String AUTHOR_PREFIX = "author:";
+    private static final String NOTE_PREFIX = "note:";
+
+    private final Map<String, Set<String>> clientsByKey;
+    private final Map<String, Set<String>> keysByClient;
+    private final Set<String> wildcardClients;
+
+    public SubscriptionIndex() {
+        this.clientsByKey = new ConcurrentHashMap<>();
+        this.keysByClient = new ConcurrentHashMap<>();
+        this.wildcardClients = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Đăng ký client mới, mặc định nhận tất cả thay đổi
+     */
+    public synchronized void addClient(String clientId) {
+        removeClient(clientId);
+        wildcardClients.add(clientId);
+    }
+
+    /**
+     * Xóa client và toàn bộ subscription của nó
+     */
+    public synchronized void removeClient(String clientId) {
+        wildcardClients.remove(clientId);
+        Set<String> keys = keysByClient.remove(clientId);
+        if (keys != null) {
+            for (String key : keys) {
+                unindex(key, clientId);
+            }
+        }
+    }
+
+    /**
+     * Thêm các key vào subscription của client
+     */
+    public synchronized void subscribe(String clientId, Subscription subscription) {
+        if (subscription == null || subscription.isEmpty()) return;
+
+        Set<String> keys = keysByClient.computeIfAbsent(clientId, id -> new HashSet<>());
+        for (String key : toKeys(subscription)) {
+            if (keys.add(key)) {
+                clientsByKey.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(clientId);
+            }
+        }
+        wildcardClients.remove(clientId);
+    }
+
+    /**
+     * Bỏ các key khỏi subscription; subscription null sẽ đưa client về chế độ nhận tất cả
+     */
+    public synchronized void unsubscribe(String clientId, Subscription subscription) {
+        Set<String> keys = keysByClient.get(clientId);
+        if (subscription == null || subscription.isEmpty()) {
+            addClient(clientId);
+            return;
+        }
+        if (keys == null) return;
+
+        for (String key : toKeys(subscription)) {
+            if (keys.remove(key)) {
+                unindex(key, clientId);
+            }
+        }
+        if (keys.isEmpty()) {
+            keysByClient.remove(clientId);
+            wildcardClients.add(clientId);
+        }
+    }
+
+    /**
+     * Lấy các client quan tâm tới thay đổi của một note
+     */
+    public Set<String> match(String noteId, String authorId) {
+        Set<String> result = new HashSet<>(wildcardClients);
+        if (authorId != null) {
+            addAll(result, clientsByKey.get(AUTHOR_PREFIX + authorId));
+        }
+        if (noteId != null) {
+            addAll(result, clientsByKey.get(NOTE_PREFIX + noteId));
+        }
+        return result;
+    }
+
+    public int getSubscribedClientCount() {
+        return keysByClient.size();
+    }
+
+    public int getKeyCount() {
+        return clientsByKey.size();
+    }
+
+    private void unindex(String key, String clientId) {
+        Set<String> clients = clientsByKey.get(key);
+        if (clients != null) {
+            clients.remove(clientId);
+            if (clients.isEmpty()) {
+                clientsByKey.remove(key);
+            }
+        }
+    }
+
+    private static void addAll(Set<String> target, Set<String> source) {
+        if (source != null) {
+            target.addAll(source);
+        }
+    }
+
+    private static List<String> toKeys(Subscription subscription) {
+        List<String> keys = new ArrayList<>();
+        if (subscription.getAuthorIds() != null) {
+            for (String authorId : subscription.getAuthorIds()) {
+                keys.add(AUTHOR_PREFIX + authorId);
+            }
+        }
+        if (subscription.getNoteIds() != null) {
+            for (String noteId : subscription.getNoteIds()) {
+                keys.add(NOTE_PREFIX + noteId);
+            }
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,217 @@
+package server;
+
+import common.models.EncodedPayload;
+import common.models.NoteSummary;
+import common.models.SnapshotStream;
+import common.models.SyncResponse;
+import common.utils.ConfigManager;
+import common.utils.LoggerUtil;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.*;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Full-sync snapshot đã serialize sẵn, dùng chung cho mọi client cần full sync.
+ * Snapshot được tạo lại lazily khi đã cũ hơn sync.snapshot.max.lag thay đổi;
+ * client nhận snapshot cũ hơn version hiện tại sẽ được gửi thêm delta từ version của snapshot.
+ * Khi bật sync.snapshot.file.enabled, snapshot được ghi thẳng từ cursor DB ra file (định dạng SnapshotStream)
+ * thay vì giữ trên heap.
+ */
+public class SyncSnapshotCache {
+    private static final Logger logger = LoggerUtil.getLogger(SyncSnapshotCache.class);
+    
+    private final NoteManager noteManager;
+    private final boolean compress;
+    private final long maxLag;
+    private final Path fileDir; // null: snapshots are kept in memory
+    // Index 0: full notes, 1: metadata-only
+    private final AtomicReferenceArray<Snapshot> snapshots = new AtomicReferenceArray<>(2);
+    private final Object[] buildLocks = { new Object(), new Object() };
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong builds = new AtomicLong();
+    
+    public SyncSnapshotCache(NoteManager noteManager) {
+        ConfigManager config = ConfigManager.getInstance();
+        this.noteManager = noteManager;
+        this.compress = config.getBooleanProperty("sync.snapshot.compress", true);
+        this.maxLag = Math.max(0, config.getLongProperty("sync.snapshot.max.lag", 1000));
+        this.fileDir = config.getBooleanProperty("sync.snapshot.file.enabled", false)
+                ? Paths.get(config.getProperty("sync.snapshot.file.dir", "data/snapshots")) : null;
+        if (fileDir != null) {
+            deleteStaleFiles();
+        }
+    }
+    
+    public boolean isFileBacked() {
+        return fileDir != null;
+    }
+    
+    /**
+     * Lấy snapshot hiện tại, tạo lại nếu quá cũ; null nếu không encode được
+     */
+    public Snapshot get(boolean metadataOnly) {
+        int mode = metadataOnly ? 1 : 0;
+        Snapshot snapshot = snapshots.get(mode);
+        if (isUsable(snapshot)) {
+            hits.incrementAndGet();
+            return snapshot;
+        }
+        
+        // Single flight: a login wave waits for one build instead of each client reading the table
+        synchronized (buildLocks[mode]) {
+            snapshot = snapshots.get(mode);
+            if (isUsable(snapshot)) {
+                hits.incrementAndGet();
+                return snapshot;
+            }
+            Snapshot previous = snapshot;
+            try {
+                long start = System.nanoTime();
+                if (fileDir != null) {
+                    snapshot = writeFile(metadataOnly);
+                } else {
+                    SyncResponse response = noteManager.getFullSync(null, metadataOnly);
+                    if (!response.isSuccess()) return null;
+                    snapshot = new Snapshot(response.getSyncVersion(), EncodedPayload.encode(response, compress));
+                }
+                snapshots.set(mode, snapshot);
+                builds.incrementAndGet();
+                logger.info("Sync snapshot built" + (metadataOnly ? " (metadata)" : "") + ": version " + snapshot.getSequence()
+                        + ", " + snapshot.getSize() + " bytes in " + (System.nanoTime() - start) / 1_000_000 + "ms");
+            } catch (IOException | SQLException e) {
+                logger.log(Level.SEVERE, "Failed to encode sync snapshot", e);
+                return null;
+            }
+            if (previous != null && previous.getFile() != null && !previous.getFile().equals(snapshot.getFile())) {
+                // Transfers already in progress keep reading through their open channel; on Windows an open file
+                // cannot be deleted, it is then left for the next startup's cleanup
+                try {
+                    Files.deleteIfExists(previous.getFile());
+                } catch (IOException e) {
+                    logger.fine("Could not delete old snapshot " + previous.getFile() + ": " + e.getMessage());
+                }
+            }
+            return snapshot;
+        }
+    }
+    
+    /**
+     * Ghi snapshot ra file bằng cursor: từng note (hoặc summary) được ghi ngay khi đọc, heap không tăng theo số note
+     */
+    private Snapshot writeFile(boolean metadataOnly) throws IOException, SQLException {
+        Files.createDirectories(fileDir);
+        // Read the sequence first: rows written meanwhile are simply resent by the follow-up delta
+        long version = noteManager.getCurrentVersion();
+        SyncResponse header = new SyncResponse(null, new ArrayList<>(), version);
+        header.setDeletedNoteIds(new ArrayList<>());
+        header.setFullSync(true);
+        if (metadataOnly) header.setSummaries(new ArrayList<>());
+        String name = "snapshot-" + (metadataOnly ? "metadata" : "full") + "-" + version;
+        Path temp = fileDir.resolve(name + ".tmp");
+        Path file = fileDir.resolve(name + ".bin");
+        try (SnapshotStream out = new SnapshotStream(Files.newOutputStream(temp), compress, header)) {
+            noteManager.scanNotes((note, contentLength, content) -> {
+                if (metadataOnly) {
+                    NoteSummary summary = new NoteSummary(note);
+                    summary.setContentLength(contentLength);
+                    out.write(summary);
+                } else {
+                    out.write(note.copyWithContent(content != null ? readFully(content, contentLength) : null));
+                }
+            });
+            out.finish();
+        } catch (IOException | SQLException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return new Snapshot(version, file, Files.size(file), compress);
+    }
+    
+    private static String readFully(Reader content, long contentLength) throws IOException {
+        StringBuilder sb = new StringBuilder((int) Math.min(contentLength, Integer.MAX_VALUE - 8));
+        char[] buffer = new char[8192];
+        int read;
+        while ((read = content.read(buffer)) != -1) {
+            sb.append(buffer, 0, read);
+        }
+        return sb.toString();
+    }
+    
+    private void deleteStaleFiles() {
+        if (!Files.isDirectory(fileDir)) return;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(fileDir, "snapshot-*")) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to clean snapshot directory " + fileDir, e);
+        }
+    }
+    
+    private boolean isUsable(Snapshot snapshot) {
+        if (snapshot == null) return false;
+        long current = noteManager.getCurrentVersion();
+        if (current == snapshot.getSequence()) return true;
+        // The follow-up delta must still be possible from the snapshot's version
+        return current - snapshot.getSequence() <= maxLag && !noteManager.needsFullSync(snapshot.getSequence());
+    }
+    
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("hits", hits.get());
+        stats.put("builds", builds.get());
+        stats.put("fileBacked", fileDir != null);
+        for (int mode = 0; mode < snapshots.length(); mode++) {
+            Snapshot snapshot = snapshots.get(mode);
+            if (snapshot != null) {
+                String prefix = mode == 0 ? "full" : "metadata";
+                stats.put(prefix + "Version", snapshot.getSequence());
+                stats.put(prefix + "Bytes", snapshot.getSize());
+            }
+        }
+        return stats;
+    }
+    
+    /**
+     * Một snapshot đã encode cùng version của nó, nằm trong bộ nhớ (payload) hoặc trong file
+     */
+    public static class Snapshot {
+        private final long sequence;
+        private final EncodedPayload payload;
+        private final Path file;
+        private final long size;
+        private final boolean compressed;
+        
+        Snapshot(long sequence, EncodedPayload payload) {
+            this.sequence = sequence;
+            this.payload = payload;
+            this.file = null;
+            this.size = payload.size();
+            this.compressed = payload.isCompressed();
+        }
+        
+        Snapshot(long sequence, Path file, long size, boolean compressed) {
+            this.sequence = sequence;
+            this.payload = null;
+            this.file = file;
+            this.size = size;
+            this.compressed = compressed;
+        }
+        
+        public long getSequence() { return sequence; }
+        public EncodedPayload getPayload() { return payload; }
+        public Path getFile() { return file; }
+        public long getSize() { return size; }
+        public boolean isCompressed() { return compressed; }
+    }
+}